@@ -0,0 +1,224 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The archives the benchmarks run against, and the same operations implemented with each zip implementation
+ */
+final class Archives {
+	static final int DIRECTORIES = 16;
+	static final FileSystemProvider JDK = FileSystemProvider.installedProviders().stream()
+	                                                        .filter(p -> p.getScheme().equals("jar"))
+	                                                        .findFirst()
+	                                                        .orElseThrow();
+	
+	enum Shape {
+		SMALL(1000, 1024),
+		MANY(100_000, 128),
+		LARGE(16, 8 << 20);
+		
+		final int entries, entrySize;
+		
+		Shape(int entries, int entrySize) {
+			this.entries = entries;
+			this.entrySize = entrySize;
+		}
+		
+		String name(int entry) {
+			return "dir" + (entry % DIRECTORIES) + "/entry" + entry + ".txt";
+		}
+		
+		/**
+		 * @return somewhat compressible data, so entries are deflated to a realistic ratio
+		 */
+		byte[] data(Random random) {
+			byte[] data = new byte[this.entrySize];
+			for(int i = 0; i < data.length; i++) {
+				data[i] = (byte) ('a' + Math.min(random.nextInt(32), 25));
+			}
+			return data;
+		}
+		
+		Path create() throws IOException {
+			Path path = Files.createTempFile("jmh-" + this.name().toLowerCase(), ".zip");
+			Random random = new Random(this.ordinal());
+			byte[] data = this.data(random);
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(path))) {
+				directories(out);
+				for(int i = 0; i < this.entries; i++) {
+					out.putNextEntry(new ZipEntry(this.name(i)));
+					data[random.nextInt(data.length)]++;
+					out.write(data);
+				}
+			}
+			return path;
+		}
+	}
+	
+	static void directories(ZipOutputStream out) throws IOException {
+		for(int i = 0; i < DIRECTORIES; i++) {
+			out.putNextEntry(new ZipEntry("dir" + i + "/"));
+		}
+	}
+	
+	/**
+	 * @return an archive with just the directories entries are written into
+	 */
+	static Path empty() throws IOException {
+		Path path = Files.createTempFile("jmh-empty", ".zip");
+		try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(path))) {
+			directories(out);
+		}
+		return path;
+	}
+	
+	enum Implementation {
+		FAST {
+			@Override
+			Opened open(Path path) throws IOException {
+				// a new provider each time, so the archive isn't shared with the last time it was opened
+				return new FileSystemOpened(new FastZipFS(new FastZipFSProvider(), path, Map.of("readonly", "true")));
+			}
+			
+			@Override
+			FileSystem openWritable(Path path) throws IOException {
+				return new FastZipFS(new FastZipFSProvider(), path, Map.of());
+			}
+		},
+		JDK {
+			@Override
+			Opened open(Path path) throws IOException {
+				return new FileSystemOpened(Archives.JDK.newFileSystem(path, Map.of()));
+			}
+			
+			@Override
+			FileSystem openWritable(Path path) throws IOException {
+				return Archives.JDK.newFileSystem(path, Map.of());
+			}
+		},
+		ZIPFILE {
+			@Override
+			Opened open(Path path) throws IOException {
+				return new ZipFileOpened(new ZipFile(path.toFile()));
+			}
+			
+			@Override
+			FileSystem openWritable(Path path) {
+				throw new UnsupportedOperationException("ZipFile is rewritten with ZipOutputStream instead");
+			}
+		};
+		
+		abstract Opened open(Path path) throws IOException;
+		
+		abstract FileSystem openWritable(Path path) throws IOException;
+	}
+	
+	interface Opened extends Closeable {
+		boolean exists(String name) throws IOException;
+		
+		byte[] read(String name) throws IOException;
+		
+		long list(String directory) throws IOException;
+	}
+	
+	record FileSystemOpened(FileSystem fs) implements Opened {
+		@Override
+		public boolean exists(String name) {
+			return Files.exists(this.fs.getPath(name));
+		}
+		
+		@Override
+		public byte[] read(String name) throws IOException {
+			return Files.readAllBytes(this.fs.getPath(name));
+		}
+		
+		@Override
+		public long list(String directory) throws IOException {
+			try(Stream<Path> list = Files.list(this.fs.getPath(directory))) {
+				return list.count();
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.fs.close();
+		}
+	}
+	
+	record ZipFileOpened(ZipFile file) implements Opened {
+		@Override
+		public boolean exists(String name) {
+			return this.file.getEntry(name) != null;
+		}
+		
+		@Override
+		public byte[] read(String name) throws IOException {
+			try(InputStream in = this.file.getInputStream(this.file.getEntry(name))) {
+				return in.readAllBytes();
+			}
+		}
+		
+		/**
+		 * ZipFile has no directory index, so listing is a scan of every entry
+		 */
+		@Override
+		public long list(String directory) {
+			String prefix = directory + "/";
+			long count = 0;
+			for(Enumeration<? extends ZipEntry> entries = this.file.entries(); entries.hasMoreElements(); ) {
+				String name = entries.nextElement().getName();
+				if(name.length() > prefix.length() && name.startsWith(prefix) && name.indexOf('/', prefix.length()) < 0) {
+					count++;
+				}
+			}
+			return count;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.file.close();
+		}
+	}
+	
+	/**
+	 * Rewrites an archive with one entry replaced, which is how an entry is updated with ZipFile and ZipOutputStream
+	 */
+	static void rewrite(Path archive, String name, byte[] data) throws IOException {
+		Path rewritten = Files.createTempFile("jmh-rewrite", ".zip");
+		try(ZipFile file = new ZipFile(archive.toFile()); ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(rewritten))) {
+			for(Enumeration<? extends ZipEntry> entries = file.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				if(entry.getName().equals(name)) {
+					out.write(data);
+				} else {
+					try(InputStream in = file.getInputStream(entry)) {
+						in.transferTo(out);
+					}
+				}
+			}
+		}
+		Files.move(rewritten, archive, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	static void write(OutputStream out, byte[] data) throws IOException {
+		try(out) {
+			out.write(data);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups, entry reads and directory listings on an archive that is already open
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+	@Param
+	public Archives.Implementation implementation;
+	@Param
+	public Archives.Shape shape;
+	Path archive;
+	Archives.Opened opened;
+	String[] hits, misses;
+	int next;
+	
+	@Setup
+	public void setup() throws IOException {
+		this.archive = this.shape.create();
+		this.opened = this.implementation.open(this.archive);
+		int count = Math.min(this.shape.entries, 1024);
+		this.hits = new String[count];
+		this.misses = new String[count];
+		for(int i = 0; i < count; i++) {
+			int entry = (int) ((i * 0x9E3779B1L) % this.shape.entries);
+			this.hits[i] = this.shape.name(entry);
+			this.misses[i] = "dir" + (entry % Archives.DIRECTORIES) + "/missing" + entry + ".txt";
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		this.opened.close();
+		Files.deleteIfExists(this.archive);
+	}
+	
+	int next() {
+		return this.next = (this.next + 1) % this.hits.length;
+	}
+	
+	@Benchmark
+	public boolean hitLookup() throws IOException {
+		return this.opened.exists(this.hits[this.next()]);
+	}
+	
+	@Benchmark
+	public boolean missLookup() throws IOException {
+		return this.opened.exists(this.misses[this.next()]);
+	}
+	
+	/**
+	 * small entries for the SMALL and MANY shapes, large ones for LARGE
+	 */
+	@Benchmark
+	public byte[] read() throws IOException {
+		return this.opened.read(this.hits[this.next()]);
+	}
+	
+	@Benchmark
+	public long list() throws IOException {
+		return this.opened.list("dir" + (this.next() % Archives.DIRECTORIES));
+	}
+}
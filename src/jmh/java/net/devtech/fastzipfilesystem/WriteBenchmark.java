@@ -0,0 +1,100 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updating one entry of an archive and writing it back out, and writing a whole archive's worth of entries into an empty one. Each invocation
+ * starts from a fresh copy of the archive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WriteBenchmark {
+	@Param
+	public Archives.Implementation implementation;
+	@Param
+	public Archives.Shape shape;
+	Path archive, empty, work;
+	byte[] data;
+	
+	@Setup
+	public void setup() throws IOException {
+		this.archive = this.shape.create();
+		this.empty = Archives.empty();
+		this.data = this.shape.data(new Random(-1));
+	}
+	
+	@Setup(Level.Invocation)
+	public void copy() throws IOException {
+		this.work = Files.createTempFile("jmh-work", ".zip");
+		Files.copy(this.archive, this.work, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	@TearDown(Level.Invocation)
+	public void delete() throws IOException {
+		Files.deleteIfExists(this.work);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(this.archive);
+		Files.deleteIfExists(this.empty);
+	}
+	
+	@Benchmark
+	public void updateAndFlush() throws IOException {
+		String name = this.shape.name(this.shape.entries / 2);
+		if(this.implementation == Archives.Implementation.ZIPFILE) {
+			Archives.rewrite(this.work, name, this.data);
+			return;
+		}
+		try(FileSystem fs = this.implementation.openWritable(this.work)) {
+			Files.write(fs.getPath(name), this.data);
+		}
+	}
+	
+	@Benchmark
+	public void bulkWrite() throws IOException {
+		Files.copy(this.empty, this.work, StandardCopyOption.REPLACE_EXISTING);
+		if(this.implementation == Archives.Implementation.ZIPFILE) {
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(this.work))) {
+				Archives.directories(out);
+				for(int i = 0; i < this.shape.entries; i++) {
+					out.putNextEntry(new ZipEntry(this.shape.name(i)));
+					out.write(this.data);
+				}
+			}
+			return;
+		}
+		try(FileSystem fs = this.implementation.openWritable(this.work)) {
+			for(int i = 0; i < this.shape.entries; i++) {
+				Archives.write(Files.newOutputStream(fs.getPath(this.shape.name(i))), this.data);
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Which entries were read, in the order they were first read and how many times, recorded while a filesystem is used so a flush can lay the
+ * archive out in the order it is read. Whatever is read at startup ends up together at the front of the archive, so a cold start reads a few MiB
+ * sequentially instead of faulting in pages all over it.
+ * <p>
+ * Profiles are saved as text, a line per entry in the order they were first read, holding how many times it was read and then its name after a
+ * tab. Names with line breaks in them aren't saved.
+ */
+final class AccessProfile {
+	static final String HEADER = "# fastzipfs access profile";
+	
+	record Access(long first, AtomicLong count) {}
+	
+	final ConcurrentMap<ByteBuffer, Access> accesses = new ConcurrentHashMap<>();
+	final AtomicLong sequence = new AtomicLong();
+	
+	void record(ByteBuffer name) {
+		Access access = this.accesses.get(name);
+		if(access == null) {
+			// names read from the archive are slices of its mapping, which may be unmapped before the profile is saved
+			ByteBuffer copy = ByteBuffer.allocate(name.remaining()).put(name.duplicate()).flip();
+			Access created = new Access(this.sequence.getAndIncrement(), new AtomicLong());
+			access = this.accesses.putIfAbsent(copy, created);
+			if(access == null) {
+				access = created;
+			}
+		}
+		access.count.incrementAndGet();
+	}
+	
+	/**
+	 * @return when the entry was first read relative to the others, or {@link Long#MAX_VALUE} if it never was
+	 */
+	long rank(ByteBuffer name) {
+		Access access = this.accesses.get(name);
+		return access == null ? Long.MAX_VALUE : access.first;
+	}
+	
+	long count(ByteBuffer name) {
+		Access access = this.accesses.get(name);
+		return access == null ? 0 : access.count.get();
+	}
+	
+	/**
+	 * @return the names with the ones that were read first, in the order they were read, and the rest after them in the order they were given in
+	 */
+	List<ByteBuffer> layout(Collection<ByteBuffer> names) {
+		List<ByteBuffer> layout = new ArrayList<>(names);
+		if(!this.accesses.isEmpty()) {
+			layout.sort(Comparator.comparingLong(this::rank)); // stable
+		}
+		return layout;
+	}
+	
+	int size() {
+		return this.accesses.size();
+	}
+	
+	public void save(Path path) throws IOException {
+		List<Map.Entry<ByteBuffer, Access>> entries = new ArrayList<>(this.accesses.entrySet());
+		entries.sort(Comparator.comparingLong(e -> e.getValue().first));
+		try(BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for(Map.Entry<ByteBuffer, Access> entry : entries) {
+				String name = FastZipUtil.toStr(entry.getKey());
+				if(name.indexOf('\n') < 0 && name.indexOf('\r') < 0) {
+					writer.write(entry.getValue().count.get() + "\t" + name);
+					writer.newLine();
+				}
+			}
+		}
+	}
+	
+	public static AccessProfile load(Path path) throws IOException {
+		AccessProfile profile = new AccessProfile();
+		try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int tab = line.indexOf('\t');
+				if(tab < 0) {
+					throw new IOException("Malformed access profile line in " + path + ": " + line);
+				}
+				ByteBuffer name = ByteBuffer.wrap(line.substring(tab + 1).getBytes(StandardCharsets.UTF_8));
+				long count = Long.parseLong(line.substring(0, tab));
+				profile.accesses.putIfAbsent(name, new Access(profile.sequence.getAndIncrement(), new AtomicLong(count)));
+			}
+		}
+		return profile;
+	}
+}
@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -11,7 +12,9 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -52,11 +55,8 @@ class BigByteBuffer {
 	}
 	
 	BigByteBuffer(long uncompressedSize, BigByteBuffer compressed, long offset, long size) throws IOException {
-		Inflater pop = INFLATERS.pollFirst();
-		if(pop == null) {
-			pop = new Inflater(true);
-		}
-		
+		Inflater pop = inflater();
+		long start = System.nanoTime();
 		try {
 			ByteBuffer[] outputs = new ByteBuffer[FastZipUtil.ceilDiv(uncompressedSize, BigByteBuffer.MAX_SIZE)];
 			long outputSize = uncompressedSize;
@@ -90,12 +90,25 @@ class BigByteBuffer {
 			}
 			this.buffers = outputs;
 			this.size = uncompressedSize;
+			FastZipStats.inflated(uncompressedSize, System.nanoTime() - start);
 		} finally {
 			pop.reset();
 			INFLATERS.push(pop);
 		}
 	}
 	
+	/**
+	 * @return a pooled inflater, which should be reset and pushed back onto {@link #INFLATERS} once done with
+	 */
+	static Inflater inflater() {
+		Inflater inflater = INFLATERS.pollFirst();
+		if(inflater == null) {
+			FastZipStats.inflaterMiss();
+			inflater = new Inflater(true);
+		}
+		return inflater;
+	}
+	
 	public BigByteBuffer() {
 		this.buffers = new ByteBuffer[] {FastZipPath.EMPTY};
 		this.size = 0;
@@ -110,14 +123,7 @@ class BigByteBuffer {
 			boolean success = false;
 			try {
 				channel = system.provider().newFileChannel(path, Set.of());
-				ByteBuffer[] contents = new ByteBuffer[FastZipUtil.ceilDiv(channel.size(), MAX_SIZE)];
-				long offset = 0;
-				for(int i = 0; i < contents.length; i++) {
-					long min = Math.min(channel.size() - offset, MAX_SIZE);
-					contents[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, min);
-					offset += min;
-				}
-				BigByteBuffer buffer = new BigByteBuffer(contents, channel.size());
+				BigByteBuffer buffer = new MappedBigByteBuffer(channel);
 				success = true;
 				return new PathBuffer(channel, buffer);
 			} catch(IOException ignored) {
@@ -128,10 +134,33 @@ class BigByteBuffer {
 			}
 		}
 		
+		if(path instanceof FastZipPath nested) {
+			FastZipEntry entry = nested.getEntry(false);
+			FastZipEntry.ZipContents contents = entry == null ? null : entry.contents;
+			if(contents != null && contents.compressionMethod == FastZipEntry.METHOD_STORED && contents.compressedData != null) {
+				// a stored archive in another archive is read straight out of the outer one, whose version is pinned until the window is closed
+				FastZipFS.Pinned pinned = nested.fs.pinContents(entry);
+				contents = pinned.contents();
+				if(contents.compressionMethod == FastZipEntry.METHOD_STORED && contents.compressedData != null) {
+					BigByteBuffer window = window(contents.compressedData, contents.compressedOffset, contents.compressedSize);
+					return new PathBuffer(() -> nested.fs.unpin(pinned), window);
+				}
+				nested.fs.unpin(pinned); // written over before it was pinned
+			}
+		}
+		if(system != FileSystems.getDefault()) {
+			SeekableByteChannel channel = Files.newByteChannel(path);
+			try {
+				return new PathBuffer(channel, new PagedBigByteBuffer(channel, PagedBigByteBuffer.DEFAULT_PAGES));
+			} catch(IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
 		return new PathBuffer(null, new BigByteBuffer(path));
 	}
 	
-	private BigByteBuffer(ByteBuffer[] contents, long len) {
+	BigByteBuffer(ByteBuffer[] contents, long len) {
 		this.buffers = contents;
 		this.size = len;
 	}
@@ -172,10 +201,9 @@ class BigByteBuffer {
 			ByteBuffer end = this.buffers[length - 1]; // attempt to resize end buffer
 			int toExpand = MAX_SIZE - end.limit();
 			if(toExpand > 0) {
-				long min = Math.min(MAX_SIZE, (remaining + offset) - this.size);
-				ByteBuffer copy = ByteBuffer.allocate((int) min);
-				copy.put(end);
-				copy.clear();
+				long min = Math.min(toExpand, (remaining + offset) - this.size);
+				ByteBuffer copy = ByteBuffer.allocate((int) (end.limit() + min));
+				copy.put(0, end, 0, end.limit());
 				this.buffers[length-1] = copy;
 				this.size += min;
 			}
@@ -194,6 +222,123 @@ class BigByteBuffer {
 		this.size = Math.max(remaining + offset, this.size);
 	}
 	
+	/**
+	 * @return a view of the two ranges one after another, without copying either of them
+	 */
+	static BigByteBuffer join(BigByteBuffer a, long aOff, long aLen, BigByteBuffer b, long bOff, long bLen) {
+		List<Joined.Part> parts = new ArrayList<>();
+		Joined.addParts(parts, a, aOff, aLen);
+		Joined.addParts(parts, b, bOff, bLen);
+		return new Joined(parts.toArray(Joined.Part[]::new));
+	}
+	
+	/**
+	 * @return a view of the range, without copying it
+	 */
+	static BigByteBuffer window(BigByteBuffer buffer, long offset, long length) {
+		List<Joined.Part> parts = new ArrayList<>(1);
+		Joined.addParts(parts, buffer, offset, length);
+		return new Joined(parts.toArray(Joined.Part[]::new));
+	}
+	
+	static final class Joined extends BigByteBuffer {
+		record Part(BigByteBuffer buffer, long offset, long length) {}
+		
+		final Part[] parts;
+		final long[] ends;
+		
+		Joined(Part[] parts) {
+			super(null, 0);
+			long[] ends = new long[parts.length];
+			long size = 0;
+			for(int i = 0; i < parts.length; i++) {
+				ends[i] = size += parts[i].length;
+			}
+			this.parts = parts;
+			this.ends = ends;
+			this.size = size;
+		}
+		
+		static void addParts(List<Part> parts, BigByteBuffer buffer, long offset, long length) {
+			if(length <= 0) {
+				return;
+			}
+			if(buffer instanceof Joined joined) { // flatten so repeated appends don't nest
+				for(int i = joined.index(offset); i < joined.parts.length && length > 0; i++) {
+					Part part = joined.parts[i];
+					long start = offset - (joined.ends[i] - part.length), len = Math.min(length, part.length - start);
+					parts.add(new Part(part.buffer, part.offset + start, len));
+					offset += len;
+					length -= len;
+				}
+			} else {
+				parts.add(new Part(buffer, offset, length));
+			}
+		}
+		
+		int index(long position) {
+			int index = Arrays.binarySearch(this.ends, position);
+			return index < 0 ? -index - 1 : index + 1;
+		}
+		
+		@Override
+		ByteBuffer slice(long off, int len) {
+			int index = this.index(off);
+			Objects.checkIndex(index, this.parts.length);
+			Part part = this.parts[index];
+			long start = off - (this.ends[index] - part.length);
+			if(start + len <= part.length) {
+				return part.buffer.slice(part.offset + start, len);
+			}
+			ByteBuffer copy = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+			this.segmentedInsert(copy::put, off, len);
+			copy.position(0);
+			return copy;
+		}
+		
+		@Override
+		MappedByteBuffer mapped(long off, long len) {
+			int index = this.index(off);
+			if(index >= this.parts.length) {
+				return null;
+			}
+			Part part = this.parts[index];
+			long start = off - (this.ends[index] - part.length);
+			return start + len <= part.length ? part.buffer.mapped(part.offset + start, len) : null;
+		}
+		
+		@Override
+		void prefetch(long off, long len) {
+			long read = 0;
+			for(int i = this.index(off); i < this.parts.length && read < len; i++) {
+				Part part = this.parts[i];
+				long start = off + read - (this.ends[i] - part.length), length = Math.min(len - read, part.length - start);
+				part.buffer.prefetch(part.offset + start, length);
+				read += length;
+			}
+		}
+		
+		@Override
+		long segmentedInsert0(ToIntFunction<ByteBuffer> buf, long off, long llen) {
+			long read = 0;
+			for(int i = this.index(off); i < this.parts.length && read < llen; i++) {
+				Part part = this.parts[i];
+				long start = off + read - (this.ends[i] - part.length), len = Math.min(llen - read, part.length - start);
+				long inserted = part.buffer.segmentedInsert0(buf, part.offset + start, len);
+				read += inserted;
+				if(inserted != len) {
+					break;
+				}
+			}
+			return read;
+		}
+		
+		@Override
+		public void append(ByteBuffer buffer, long offset) {
+			throw new UnsupportedOperationException("joined buffers are read only");
+		}
+	}
+	
 	static ByteBuffer copyBuffer(ByteBuffer buffer, int newSize) {
 		ByteBuffer copy = ByteBuffer.allocate(newSize);
 		copy.put(buffer);
@@ -217,6 +362,29 @@ class BigByteBuffer {
 		}
 	}
 	
+	/**
+	 * @return the range as a slice of the file mapping it is in, or null if this isn't a mapped file or the range crosses mappings
+	 */
+	MappedByteBuffer mapped(long off, long len) {
+		int index = (int) (off / MAX_SIZE);
+		int offset = (int) (off % MAX_SIZE);
+		if(index < this.buffers.length && this.buffers[index] instanceof MappedByteBuffer mapped && offset + len <= mapped.limit()) {
+			return mapped.slice(offset, (int) len);
+		}
+		return null;
+	}
+	
+	/**
+	 * Hints that the range is about to be read, mapped ranges are loaded into memory so reading them doesn't fault page by page
+	 */
+	void prefetch(long off, long len) {
+		this.segmentedInsert(buffer -> {
+			if(buffer instanceof MappedByteBuffer mapped) {
+				mapped.load();
+			}
+		}, off, len);
+	}
+	
 	long segmentedInsert(Consumer<ByteBuffer> buf, long off, long llen) {
 		return this.segmentedInsert0(buffer -> {
 			buf.accept(buffer);
@@ -0,0 +1,262 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how an entry is stored when it is written, a compression method, level and strategy by glob, entries that are too small to be worth
+ * deflating are stored, and larger entries have their first few KiB trial compressed so incompressible data (pngs, nested jars, oggs) is stored
+ * instead of being deflated for nothing.
+ */
+final class CompressionPolicy {
+	static final List<String> COMPRESSED_FORMATS = List.of(
+			"**.png", "**.jpg", "**.jpeg", "**.gif", "**.webp", "**.ogg", "**.mp3", "**.mp4", "**.flac", "**.zip", "**.jar", "**.gz", "**.xz",
+			"**.bz2", "**.zst", "**.7z", "**.woff2");
+	static final Rule STORED = new Rule(null, (short) FastZipEntry.METHOD_STORED, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+	static final CompressionPolicy DEFAULT = new CompressionPolicy(storedRules(COMPRESSED_FORMATS), Deflater.DEFAULT_COMPRESSION, 64, 4096, .03);
+	
+	record Rule(Pattern pattern, short method, int level, int strategy) {
+		static Rule glob(String glob, int method, int level, int strategy) {
+			return new Rule(Pattern.compile(FastZipUtil.toRegexPattern(glob)), (short) method, level, strategy);
+		}
+		
+		static Rule stored(String glob) {
+			return glob(glob, FastZipEntry.METHOD_STORED, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+		}
+	}
+	
+	static final class Stats {
+		final LongAdder storedSmall = new LongAdder(), storedByRule = new LongAdder(), storedBySample = new LongAdder();
+		final LongAdder storedByResult = new LongAdder(), deflated = new LongAdder();
+		final LongAdder skippedBytes = new LongAdder(), deflatedBytes = new LongAdder();
+		final LongAdder sampleNanos = new LongAdder(), deflateNanos = new LongAdder();
+		
+		/**
+		 * @return the deflate time that was not spent on entries that were stored, at the measured deflate speed, minus the time spent sampling
+		 */
+		long estimatedNanosSaved() {
+			long bytes = this.deflatedBytes.sum();
+			if(bytes == 0) {
+				return -this.sampleNanos.sum();
+			}
+			return (long) (this.skippedBytes.sum() * (this.deflateNanos.sum() / (double) bytes)) - this.sampleNanos.sum();
+		}
+		
+		@Override
+		public String toString() {
+			return "deflated " + this.deflated + " (" + this.deflatedBytes + " bytes in " + this.deflateNanos.sum() / 1_000_000 + "ms), stored " +
+			       this.storedSmall + " small, " + this.storedByRule + " by rule, " + this.storedBySample + " by sample, " + this.storedByResult +
+			       " by result (" + this.skippedBytes + " bytes), sampling took " + this.sampleNanos.sum() / 1_000_000 + "ms, estimated " +
+			       this.estimatedNanosSaved() / 1_000_000 + "ms saved";
+		}
+	}
+	
+	final List<Rule> rules;
+	final int level, minSize, sampleSize;
+	final double minSavings;
+	final Stats stats = new Stats();
+	/**
+	 * what entries that don't match a rule are deflated with
+	 */
+	final Rule defaultRule;
+	
+	/**
+	 * @param level the deflate level used when no rule matches
+	 * @param minSize entries smaller than this are always stored
+	 * @param sampleSize how many bytes are trial compressed, or 0 to never sample
+	 * @param minSavings the fraction of the sample that deflate must save, otherwise the entry is stored
+	 */
+	CompressionPolicy(List<Rule> rules, int level, int minSize, int sampleSize, double minSavings) {
+		this.rules = List.copyOf(rules);
+		this.level = level;
+		this.minSize = minSize;
+		this.sampleSize = sampleSize;
+		this.minSavings = minSavings;
+		this.defaultRule = new Rule(null, (short) FastZipEntry.METHOD_DEFLATED, level, Deflater.DEFAULT_STRATEGY);
+	}
+	
+	static List<Rule> storedRules(List<String> globs) {
+		List<Rule> rules = new ArrayList<>();
+		for(String glob : globs) {
+			rules.add(Rule.stored(glob));
+		}
+		return rules;
+	}
+	
+	/**
+	 * "compressionPolicy" may be a {@link CompressionPolicy}, otherwise "compressionLevel", "compressionMinSize", "compressionSampleSize" and
+	 * "storedGlobs" (comma separated) tweak the default policy.
+	 */
+	static CompressionPolicy from(Map<String, ?> config) {
+		if(config.get("compressionPolicy") instanceof CompressionPolicy policy) {
+			return policy;
+		}
+		Object level = config.get("compressionLevel"), min = config.get("compressionMinSize"), sample = config.get("compressionSampleSize");
+		Object stored = config.get("storedGlobs");
+		if(level == null && min == null && sample == null && stored == null) {
+			return new CompressionPolicy(DEFAULT.rules, DEFAULT.level, DEFAULT.minSize, DEFAULT.sampleSize, DEFAULT.minSavings);
+		}
+		List<Rule> rules = stored == null ? DEFAULT.rules : storedRules(List.of(String.valueOf(stored).split(",")));
+		return new CompressionPolicy(rules,
+				level == null ? DEFAULT.level : Integer.parseInt(String.valueOf(level)),
+				min == null ? DEFAULT.minSize : Integer.parseInt(String.valueOf(min)),
+				sample == null ? DEFAULT.sampleSize : Integer.parseInt(String.valueOf(sample)),
+				DEFAULT.minSavings);
+	}
+	
+	CompressionPolicy withRule(Rule rule) {
+		List<Rule> rules = new ArrayList<>(this.rules.size() + 1);
+		rules.add(rule);
+		rules.addAll(this.rules);
+		return new CompressionPolicy(rules, this.level, this.minSize, this.sampleSize, this.minSavings);
+	}
+	
+	Rule match(ByteBuffer name) {
+		if(this.rules.isEmpty()) {
+			return null;
+		}
+		String str = FastZipUtil.toStr(name);
+		for(Rule rule : this.rules) {
+			if(rule.pattern.matcher(str).matches()) {
+				return rule;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Picks a compression method for the contents and compresses them
+	 */
+	void compress(ByteBuffer name, FastZipEntry.ZipContents contents, BigByteBuffer uncompressed) throws IOException {
+		this.compress(name, contents, uncompressed, this.choose(name, uncompressed, contents.uncompressedOffset, contents.uncompressedSize));
+	}
+	
+	/**
+	 * Compresses the contents with a rule from {@link #choose(ByteBuffer, BigByteBuffer, long, long)}
+	 */
+	void compress(ByteBuffer name, FastZipEntry.ZipContents contents, BigByteBuffer uncompressed, Rule rule) throws IOException {
+		FastZipEvents.Compress event = new FastZipEvents.Compress();
+		event.begin();
+		long time = 0;
+		if(rule.method == FastZipEntry.METHOD_STORED) {
+			this.store(contents, contents.uncompressedSize);
+		} else {
+			long start = System.nanoTime();
+			contents.compressionMethod = FastZipEntry.METHOD_DEFLATED;
+			contents.compress(rule.level, rule.strategy);
+			this.deflated(contents, uncompressed, time = System.nanoTime() - start);
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.set(name, contents, rule.level, time);
+			event.commit();
+		}
+	}
+	
+	/**
+	 * @return whether contents that grew from one size to the other passed a size {@link #choose} decides at, so contents that were stored for
+	 * being small should be decided again
+	 */
+	boolean rechoose(long before, long after) {
+		return before < this.minSize && after >= this.minSize || this.sampleSize > 0 && before <= this.sampleSize && after > this.sampleSize;
+	}
+	
+	/**
+	 * Picks how contents of the given size are compressed, the size only has to be a lower bound if it's larger than the sample size, for deciding
+	 * before all the data has been written
+	 *
+	 * @return a rule whose method is either stored or deflated
+	 */
+	Rule choose(ByteBuffer name, BigByteBuffer uncompressed, long offset, long size) {
+		Stats stats = this.stats;
+		Rule rule = this.match(name);
+		if(size < this.minSize) {
+			stats.storedSmall.increment();
+		} else if(rule != null && rule.method == FastZipEntry.METHOD_STORED) {
+			stats.storedByRule.increment();
+		} else if(this.sampleSize > 0 && size > this.sampleSize && this.incompressible(uncompressed, offset)) {
+			stats.storedBySample.increment();
+		} else {
+			return rule == null ? this.defaultRule : rule;
+		}
+		return STORED;
+	}
+	
+	/**
+	 * Records contents that were just deflated, and stores them instead if deflating didn't make them any smaller
+	 */
+	void deflated(FastZipEntry.ZipContents contents, BigByteBuffer uncompressed, long nanos) throws IOException {
+		Stats stats = this.stats;
+		long size = contents.uncompressedSize;
+		stats.deflateNanos.add(nanos);
+		stats.deflatedBytes.add(size);
+		if(contents.compressedSize >= size) {
+			// never worth keeping, this also catches entries that are smaller than the sample
+			stats.storedByResult.increment();
+			if(contents.compressedData instanceof GrowableBigByteBuffer discarded) {
+				discarded.release();
+			}
+			contents.compressedData = null;
+			contents.uncompressedData = uncompressed;
+			this.store(contents, 0);
+		} else {
+			stats.deflated.increment();
+		}
+	}
+	
+	/**
+	 * Deflates the contents with the level and strategy for the name, regardless of their size, for appending to an existing deflate stream
+	 */
+	void deflate(ByteBuffer name, FastZipEntry.ZipContents contents) throws IOException {
+		Rule rule = this.match(name);
+		boolean deflateRule = rule != null && rule.method == FastZipEntry.METHOD_DEFLATED;
+		FastZipEvents.Compress event = new FastZipEvents.Compress();
+		event.begin();
+		long start = System.nanoTime();
+		int level = deflateRule ? rule.level : this.level;
+		contents.compressionMethod = FastZipEntry.METHOD_DEFLATED;
+		contents.compress(level, deflateRule ? rule.strategy : Deflater.DEFAULT_STRATEGY);
+		long time = System.nanoTime() - start;
+		this.stats.deflateNanos.add(time);
+		this.stats.deflatedBytes.add(contents.uncompressedSize);
+		this.stats.deflated.increment();
+		event.end();
+		if(event.shouldCommit()) {
+			event.set(name, contents, level, time);
+			event.commit();
+		}
+	}
+	
+	void store(FastZipEntry.ZipContents contents, long skipped) throws IOException {
+		this.stats.skippedBytes.add(skipped);
+		contents.compressionMethod = FastZipEntry.METHOD_STORED;
+		contents.compress();
+	}
+	
+	boolean incompressible(BigByteBuffer uncompressed, long offset) {
+		long start = System.nanoTime();
+		Deflater deflater = FastZipEntry.deflater(Deflater.DEFAULT_COMPRESSION);
+		try {
+			deflater.setLevel(Deflater.BEST_SPEED);
+			deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+			ByteBuffer sample = uncompressed.slice(offset, this.sampleSize);
+			deflater.setInput(sample);
+			deflater.finish();
+			ByteBuffer temp = ByteBuffer.allocate(this.sampleSize + 64);
+			while(!deflater.finished() && temp.hasRemaining()) {
+				deflater.deflate(temp);
+			}
+			return temp.position() >= this.sampleSize * (1 - this.minSavings);
+		} finally {
+			deflater.reset();
+			FastZipEntry.DEFLATERS.push(deflater);
+			this.stats.sampleNanos.add(System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Content addressed index of the compressed contents in a filesystem, so writing the same bytes to many paths only compresses them once.
+ * Candidates are found by crc32 and length, and confirmed with a sha-256 that is only computed once two contents collide. Contents are removed
+ * once the entry holding them is written over or deleted, and contents read from a version of the archive once it's replaced.
+ */
+final class ContentStore {
+	record Key(int crc32, long size) {
+		Key(FastZipEntry.ZipContents contents) {
+			this(contents.crc32, contents.uncompressedSize);
+		}
+	}
+	
+	static final class Stored {
+		final FastZipEntry.ZipContents contents;
+		/**
+		 * the version of the archive the contents are read from, or null if they're in memory
+		 */
+		final SharedArchive archive;
+		volatile byte[] digest;
+		
+		Stored(FastZipEntry.ZipContents contents, SharedArchive archive, byte[] digest) {
+			this.contents = contents;
+			this.archive = archive;
+			this.digest = digest;
+		}
+		
+		byte[] digest() throws IOException {
+			byte[] digest = this.digest;
+			if(digest == null) {
+				FastZipEntry.ZipContents contents = this.contents;
+				BigByteBuffer data = contents.decompress();
+				this.digest = digest = ContentStore.digest(data, contents.offset(data), contents.uncompressedSize);
+			}
+			return digest;
+		}
+	}
+	
+	final FastZipFS fs;
+	final ConcurrentMap<Key, List<Stored>> contents = new ConcurrentHashMap<>();
+	final LongAdder lookups = new LongAdder(), hits = new LongAdder(), savedBytes = new LongAdder();
+	
+	ContentStore(FastZipFS fs) {
+		this.fs = fs;
+	}
+	
+	/**
+	 * Indexes contents read from a version of the archive, their digest is computed lazily
+	 */
+	void add(FastZipEntry.ZipContents contents, SharedArchive archive) {
+		this.add(new Key(contents), new Stored(contents, archive, null));
+	}
+	
+	/**
+	 * Indexes contents that were compressed in memory
+	 */
+	void add(Key key, FastZipEntry.ZipContents contents, byte[] digest) {
+		this.add(key, new Stored(contents, null, digest));
+	}
+	
+	void add(Key key, Stored stored) {
+		// computed rather than added to the list afterwards, so it can't be added to a list that's being removed because it's empty
+		this.contents.compute(key, (k, stored1) -> {
+			List<Stored> list = stored1 == null ? new CopyOnWriteArrayList<>() : stored1;
+			list.add(stored);
+			return list;
+		});
+	}
+	
+	/**
+	 * Forgets contents that an entry no longer holds, because it was written over or deleted
+	 */
+	void remove(FastZipEntry.ZipContents contents) {
+		if(contents != null) {
+			this.contents.computeIfPresent(new Key(contents), (k, list) -> {
+				list.removeIf(stored -> stored.contents == contents);
+				return list.isEmpty() ? null : list;
+			});
+		}
+	}
+	
+	/**
+	 * Forgets every contents read from a version of the archive, before it's released
+	 */
+	void evict(SharedArchive archive) {
+		for(Key key : this.contents.keySet()) {
+			this.contents.computeIfPresent(key, (k, list) -> {
+				list.removeIf(stored -> stored.archive == archive);
+				return list.isEmpty() ? null : list;
+			});
+		}
+	}
+	
+	/**
+	 * Compresses the uncompressed data in the given contents, unless identical contents were already compressed, in which case their compressed
+	 * data is shared instead
+	 */
+	void compress(FastZipEntry entry, FastZipEntry.ZipContents building, CompressionPolicy policy) throws IOException {
+		this.compress(entry, building, policy, null);
+	}
+	
+	/**
+	 * @param rule how the contents are compressed if they aren't shared, or null for the policy to choose
+	 */
+	void compress(FastZipEntry entry, FastZipEntry.ZipContents building, CompressionPolicy policy, CompressionPolicy.Rule rule) throws IOException {
+		BigByteBuffer uncompressed = building.decompress();
+		CRC32 crc = new CRC32();
+		uncompressed.segmentedInsert(crc::update, building.uncompressedOffset, building.uncompressedSize);
+		Key key = new Key((int) crc.getValue(), building.uncompressedSize);
+		if(!this.share(key, building, uncompressed)) {
+			if(rule == null) {
+				policy.compress(entry.name, building, uncompressed);
+			} else {
+				policy.compress(entry.name, building, uncompressed, rule);
+			}
+			this.add(key, building, null);
+		}
+	}
+	
+	/**
+	 * If identical contents were already compressed, the given contents take their compressed data
+	 *
+	 * @return whether the compressed data was shared
+	 */
+	boolean share(Key key, FastZipEntry.ZipContents building, BigByteBuffer uncompressed) throws IOException {
+		this.lookups.increment();
+		List<Stored> candidates = this.contents.get(key);
+		if(candidates == null) {
+			return false;
+		}
+		byte[] digest = digest(uncompressed, building.uncompressedOffset, key.size);
+		// candidates read from the archive are only read while the version they're from is pinned, older versions are being evicted
+		SharedArchive archive = this.fs.pin();
+		try {
+			for(Stored candidate : candidates) {
+				if((candidate.archive == null || candidate.archive == archive) && Arrays.equals(candidate.digest(), digest)) {
+					FastZipEntry.ZipContents existing = candidate.contents;
+					building.compressionMethod = existing.compressionMethod;
+					building.compressedData = existing.compressedData;
+					building.compressedOffset = existing.compressedOffset;
+					building.compressedSize = existing.compressedSize;
+					building.crc32 = existing.crc32;
+					building.appendable = existing.appendable;
+					if(candidate.archive != null) {
+						// copied out, the entry may outlive the version if it's written after a flush has already listed the entries
+						building.compressedData = new BigByteBuffer(existing.compressedData, existing.compressedOffset, existing.compressedSize);
+						building.compressedOffset = 0;
+					}
+					building.uncompressedData = new SoftReference<>(uncompressed);
+					this.hits.increment();
+					this.savedBytes.add(key.size);
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			this.fs.provider.release(archive);
+		}
+	}
+	
+	static byte[] digest(BigByteBuffer data, long offset, long size) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		data.segmentedInsert(digest::update, offset, size);
+		return digest.digest();
+	}
+	
+	@Override
+	public String toString() {
+		return this.hits + " / " + this.lookups + " writes deduplicated (" + this.savedBytes + " bytes not compressed)";
+	}
+}
@@ -0,0 +1,276 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read only asynchronous channel for an entry, reads complete on the given executor, or virtual threads when they are available. Each read
+ * inflates at most {@link #CHUNK} bytes, so many reads can be in flight without holding a thread each for the whole entry.
+ */
+class EntryAsynchronousFileChannel extends AsynchronousFileChannel {
+	static final int CHUNK = 65536;
+	static volatile ExecutorService defaultExecutor;
+	
+	final FastZipFS fs;
+	/**
+	 * the contents and the archive they're read from, which is pinned until the channel is closed
+	 */
+	final FastZipFS.Pinned pinned;
+	final FastZipEntry.ZipContents contents;
+	final ByteBuffer name;
+	final ExecutorService executor;
+	final long size;
+	/**
+	 * inflater for sequential reads of deflated entries, guarded by this channel's lock
+	 */
+	EntryInflater inflater;
+	volatile boolean open = true;
+	/**
+	 * the channel and every read in progress, the archive is unpinned once the channel is closed and the last read has finished
+	 */
+	final AtomicInteger references = new AtomicInteger(1);
+	
+	EntryAsynchronousFileChannel(FastZipFS fs, FastZipEntry entry, ExecutorService executor) throws IOException {
+		this.fs = fs;
+		this.pinned = fs.pinContents(entry);
+		this.contents = this.pinned.contents();
+		this.name = entry.name;
+		this.size = this.contents.uncompressedSize;
+		this.executor = executor == null ? defaultExecutor() : executor;
+	}
+	
+	static ExecutorService defaultExecutor() {
+		ExecutorService executor = defaultExecutor;
+		if(executor == null) {
+			synchronized(EntryAsynchronousFileChannel.class) {
+				if((executor = defaultExecutor) == null) {
+					defaultExecutor = executor = createDefaultExecutor();
+				}
+			}
+		}
+		return executor;
+	}
+	
+	static ExecutorService createDefaultExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e) {
+			// no virtual threads, reads never block on io so a pool the size of the cpu count keeps up just as well
+			AtomicInteger count = new AtomicInteger();
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread thread = new Thread(r, "FastZipFS async reader " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	@Override
+	public <A> void read(ByteBuffer dst, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		if(position < 0) {
+			throw new IllegalArgumentException("Negative position");
+		}
+		if(!this.open) {
+			this.executor.execute(() -> handler.failed(new ClosedChannelException(), attachment));
+			return;
+		}
+		this.executor.execute(() -> {
+			int read;
+			try {
+				read = this.read0(dst, position);
+			} catch(Throwable t) {
+				handler.failed(t, attachment);
+				return;
+			}
+			handler.completed(read, attachment);
+		});
+	}
+	
+	@Override
+	public Future<Integer> read(ByteBuffer dst, long position) {
+		CompletableFuture<Integer> future = new CompletableFuture<>();
+		this.read(dst, position, null, new CompletionHandler<Integer, Object>() {
+			@Override
+			public void completed(Integer result, Object attachment) {
+				future.complete(result);
+			}
+			
+			@Override
+			public void failed(Throwable exc, Object attachment) {
+				future.completeExceptionally(exc);
+			}
+		});
+		return future;
+	}
+	
+	int read0(ByteBuffer dst, long position) throws IOException {
+		this.acquire();
+		try {
+			return this.read1(dst, position);
+		} finally {
+			this.release();
+		}
+	}
+	
+	int read1(ByteBuffer dst, long position) throws IOException {
+		if(position >= this.size) {
+			return -1;
+		}
+		int len = (int) Math.min(Math.min(dst.remaining(), CHUNK), this.size - position);
+		FastZipEntry.ZipContents contents = this.contents;
+		BigByteBuffer data;
+		long offset;
+		if(contents.compressionMethod == FastZipEntry.METHOD_STORED && contents.compressedData != null) {
+			data = contents.compressedData;
+			offset = contents.compressedOffset;
+		} else if((data = contents.cached()) != null || contents.compressionMethod != FastZipEntry.METHOD_DEFLATED) {
+			data = contents.decompress(this.name);
+			offset = contents.offset(data);
+		} else {
+			return this.inflate(dst, position, len);
+		}
+		return (int) data.segmentedInsert(dst::put, offset + position, len);
+	}
+	
+	synchronized int inflate(ByteBuffer dst, long position, int len) throws IOException {
+		if(!this.open) { // the inflater was closed
+			throw new ClosedChannelException();
+		}
+		EntryInflater inflater = this.inflater;
+		if(inflater == null || inflater.outputPos > position) {
+			if(inflater != null) {
+				inflater.close();
+			}
+			this.inflater = inflater = new EntryInflater(this.contents, this.name);
+		}
+		if(inflater.outputPos < position) {
+			inflater.skip(position - inflater.outputPos);
+		}
+		int limit = dst.limit();
+		dst.limit(dst.position() + len);
+		try {
+			return inflater.inflate(dst);
+		} finally {
+			dst.limit(limit);
+		}
+	}
+	
+	@Override
+	public long size() throws IOException {
+		if(!this.open) {
+			throw new ClosedChannelException();
+		}
+		return this.size;
+	}
+	
+	@Override
+	public AsynchronousFileChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public void force(boolean metaData) {}
+	
+	@Override
+	public <A> void lock(long position, long size, boolean shared, A attachment, CompletionHandler<FileLock, ? super A> handler) {
+		FileLock lock;
+		try {
+			lock = this.tryLock(position, size, shared);
+		} catch(Throwable t) {
+			this.executor.execute(() -> handler.failed(t, attachment));
+			return;
+		}
+		this.executor.execute(() -> handler.completed(lock, attachment));
+	}
+	
+	@Override
+	public Future<FileLock> lock(long position, long size, boolean shared) {
+		try {
+			return CompletableFuture.completedFuture(this.tryLock(position, size, shared));
+		} catch(IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+	
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		if(!this.open) {
+			throw new ClosedChannelException();
+		}
+		if(!shared) {
+			throw new NonWritableChannelException();
+		}
+		return new FileLock(this, position, size, true) {
+			boolean valid = true;
+			
+			@Override
+			public boolean isValid() {
+				return this.valid && EntryAsynchronousFileChannel.this.open;
+			}
+			
+			@Override
+			public void release() {
+				this.valid = false;
+			}
+		};
+	}
+	
+	@Override
+	public <A> void write(ByteBuffer src, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public Future<Integer> write(ByteBuffer src, long position) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(!this.open) {
+				return;
+			}
+			this.open = false;
+			if(this.inflater != null) {
+				this.inflater.close();
+				this.inflater = null;
+			}
+		}
+		this.release();
+	}
+	
+	/**
+	 * Keeps the archive pinned until the read that's starting has finished, even if the channel is closed in the meantime
+	 */
+	void acquire() throws IOException {
+		int references;
+		do {
+			references = this.references.get();
+			if(references <= 0 || !this.open) {
+				throw new ClosedChannelException();
+			}
+		} while(!this.references.compareAndSet(references, references + 1));
+	}
+	
+	void release() throws IOException {
+		if(this.references.decrementAndGet() == 0) {
+			this.fs.unpin(this.pinned);
+		}
+	}
+}
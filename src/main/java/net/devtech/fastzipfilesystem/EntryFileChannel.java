@@ -0,0 +1,245 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read only file channel for an entry, stored entries are read straight out of the archive, {@link #map(MapMode, long, long)} hands out slices
+ * of the archive's mapping and {@link #transferTo(long, long, WritableByteChannel)} transfers from the archive's file channel.
+ */
+class EntryFileChannel extends FileChannel {
+	final FastZipFS fs;
+	/**
+	 * the contents and the archive they're read from, which is pinned until the channel is closed, mapped buffers must not be used afterwards
+	 */
+	final FastZipFS.Pinned pinned;
+	final FastZipEntry.ZipContents contents;
+	final ByteBuffer name;
+	final long size;
+	/**
+	 * the channel and every read in progress, the archive is unpinned once the channel is closed and the last read has finished
+	 */
+	final AtomicInteger references = new AtomicInteger(1);
+	long pos;
+	
+	EntryFileChannel(FastZipFS fs, FastZipEntry entry) throws IOException {
+		this.fs = fs;
+		this.pinned = fs.pinContents(entry);
+		this.contents = this.pinned.contents();
+		this.name = entry.name;
+		this.size = this.contents.uncompressedSize;
+	}
+	
+	boolean isStored() {
+		return this.contents.compressionMethod == FastZipEntry.METHOD_STORED && this.contents.compressedData != null;
+	}
+	
+	/**
+	 * @return the buffer holding the uncompressed data, starting at {@link #dataOffset()}
+	 */
+	BigByteBuffer data() throws IOException {
+		if(this.isStored()) {
+			return this.contents.compressedData;
+		}
+		return this.contents.decompress(this.name);
+	}
+	
+	long dataOffset() {
+		return this.isStored() ? this.contents.compressedOffset : this.contents.uncompressedOffset;
+	}
+	
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		int read = this.read(dst, this.pos);
+		if(read > 0) {
+			this.pos += read;
+		}
+		return read;
+	}
+	
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		if(position >= this.size()) {
+			return -1;
+		}
+		this.acquire();
+		try {
+			BigByteBuffer data = this.data();
+			return (int) data.segmentedInsert(dst::put, this.dataOffset() + position, Math.min(dst.remaining(), this.size - position));
+		} finally {
+			this.release();
+		}
+	}
+	
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		Objects.checkFromIndexSize(offset, length, dsts.length);
+		long total = 0;
+		for(int i = offset; i < offset + length; i++) {
+			ByteBuffer dst = dsts[i];
+			if(!dst.hasRemaining()) {
+				continue;
+			}
+			int read = this.read(dst);
+			if(read <= 0) {
+				return total == 0 ? read : total;
+			}
+			total += read;
+			if(dst.hasRemaining()) {
+				break;
+			}
+		}
+		return total;
+	}
+	
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		if(position >= this.size()) {
+			return 0;
+		}
+		this.acquire();
+		try {
+			return this.fs.transferRange(this.data(), this.dataOffset() + position, Math.min(count, this.size - position), target);
+		} finally {
+			this.release();
+		}
+	}
+	
+	@Override
+	public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+		this.ensureOpen();
+		if(mode != MapMode.READ_ONLY) {
+			throw new NonWritableChannelException();
+		}
+		Objects.checkFromIndexSize(position, size, this.size);
+		MappedByteBuffer mapped = this.isStored() ? this.contents.compressedData.mapped(this.contents.compressedOffset + position, size) : null;
+		if(mapped == null) {
+			throw new UnsupportedOperationException("Only stored entries in a memory mapped archive can be mapped");
+		}
+		return mapped;
+	}
+	
+	@Override
+	public long position() throws IOException {
+		this.ensureOpen();
+		return this.pos;
+	}
+	
+	@Override
+	public FileChannel position(long newPosition) throws IOException {
+		this.ensureOpen();
+		if(newPosition < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.pos = newPosition;
+		return this;
+	}
+	
+	@Override
+	public long size() throws IOException {
+		this.ensureOpen();
+		return this.size;
+	}
+	
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public int write(ByteBuffer src, long position) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public FileChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public long transferFrom(ReadableByteChannel src, long position, long count) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public void force(boolean metaData) {}
+	
+	@Override
+	public FileLock lock(long position, long size, boolean shared) throws IOException {
+		this.ensureOpen();
+		if(!shared) {
+			throw new NonWritableChannelException();
+		}
+		return new SharedLock(this, position, size);
+	}
+	
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		return this.lock(position, size, shared);
+	}
+	
+	@Override
+	protected void implCloseChannel() throws IOException {
+		this.release();
+	}
+	
+	void ensureOpen() throws IOException {
+		if(!this.isOpen()) {
+			throw new ClosedChannelException();
+		}
+	}
+	
+	/**
+	 * Keeps the archive pinned until the read that's starting has finished, even if the channel is closed in the meantime
+	 */
+	void acquire() throws IOException {
+		int references;
+		do {
+			references = this.references.get();
+			if(references <= 0 || !this.isOpen()) {
+				throw new ClosedChannelException();
+			}
+		} while(!this.references.compareAndSet(references, references + 1));
+	}
+	
+	void release() throws IOException {
+		if(this.references.decrementAndGet() == 0) {
+			this.fs.unpin(this.pinned);
+		}
+	}
+	
+	/**
+	 * entries are never modified in place, so shared locks don't need to exclude anything
+	 */
+	static final class SharedLock extends FileLock {
+		boolean valid = true;
+		
+		SharedLock(FileChannel channel, long position, long size) {
+			super(channel, position, size, true);
+		}
+		
+		@Override
+		public boolean isValid() {
+			return this.valid && this.channel().isOpen();
+		}
+		
+		@Override
+		public void release() {
+			this.valid = false;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Incrementally inflates a deflated entry a chunk of compressed data at a time, so entries can be streamed without decompressing them whole.
+ * The inflater is taken from and returned to {@link BigByteBuffer#INFLATERS}.
+ */
+final class EntryInflater implements Closeable {
+	static final int INPUT_CHUNK = 65536;
+	final FastZipEntry.ZipContents contents;
+	/**
+	 * recorded when the inflater is closed, null if it isn't enabled
+	 */
+	final FastZipEvents.Decompress event;
+	Inflater inflater;
+	long inputPos, outputPos, inflateNanos;
+	
+	EntryInflater(FastZipEntry.ZipContents contents, ByteBuffer name) {
+		this.contents = contents;
+		this.inflater = BigByteBuffer.inflater();
+		FastZipEvents.Decompress event = new FastZipEvents.Decompress();
+		if(event.isEnabled()) {
+			event.set(name, contents);
+			event.streamed = true;
+			event.begin();
+			this.event = event;
+		} else {
+			this.event = null;
+		}
+	}
+	
+	/**
+	 * @return the number of bytes inflated into dst, or -1 if the entry has been fully inflated
+	 */
+	int inflate(ByteBuffer dst) throws IOException {
+		Inflater inflater = this.inflater;
+		FastZipEntry.ZipContents contents = this.contents;
+		int start = dst.position();
+		long time = System.nanoTime();
+		try {
+			while(dst.hasRemaining() && !inflater.finished()) {
+				if(inflater.needsInput()) {
+					long remaining = contents.compressedSize - this.inputPos;
+					if(remaining <= 0) {
+						throw new ZipException("Unexpected end of deflate stream");
+					}
+					int len = (int) Math.min(INPUT_CHUNK, remaining);
+					inflater.setInput(contents.compressedData.slice(contents.compressedOffset + this.inputPos, len));
+					this.inputPos += len;
+				}
+				if(inflater.inflate(dst) == 0 && inflater.needsDictionary()) {
+					throw new ZipException("Deflate stream requires a preset dictionary");
+				}
+			}
+		} catch(DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		}
+		int inflated = dst.position() - start;
+		this.outputPos += inflated;
+		time = System.nanoTime() - time;
+		this.inflateNanos += time;
+		FastZipStats.inflated(inflated, time);
+		return inflated == 0 && inflater.finished() ? -1 : inflated;
+	}
+	
+	/**
+	 * Inflates and discards n bytes
+	 */
+	void skip(long n) throws IOException {
+		ByteBuffer scratch = ByteBuffer.allocate((int) Math.min(n, 8192));
+		while(n > 0) {
+			scratch.clear();
+			scratch.limit((int) Math.min(n, scratch.capacity()));
+			int inflated = this.inflate(scratch);
+			if(inflated < 0) {
+				throw new ZipException("Unexpected end of deflate stream");
+			}
+			n -= inflated;
+		}
+	}
+	
+	boolean finished() {
+		return this.inflater.finished();
+	}
+	
+	@Override
+	public void close() {
+		Inflater inflater = this.inflater;
+		if(inflater != null) {
+			this.inflater = null;
+			inflater.reset();
+			BigByteBuffer.INFLATERS.push(inflater);
+			FastZipEvents.Decompress event = this.event;
+			if(event != null) {
+				event.end();
+				if(event.shouldCommit()) {
+					event.inflateTime = this.inflateNanos;
+					event.commit();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Input stream for an entry, stored entries and entries that are already decompressed are copied straight out of their buffer, deflated entries
+ * are inflated as they are read, without decompressing the whole entry first.
+ */
+final class EntryInputStream extends InputStream {
+	final FastZipFS fs;
+	/**
+	 * the contents and the archive they're read from, which is pinned until the stream is closed
+	 */
+	final FastZipFS.Pinned pinned;
+	final FastZipEntry.ZipContents contents;
+	final long size;
+	/**
+	 * the buffer holding the uncompressed data starting at {@link #offset}, or null if the entry is inflated as it's read
+	 */
+	final BigByteBuffer data;
+	final long offset;
+	final byte[] single = new byte[1];
+	EntryInflater inflater;
+	long pos;
+	boolean closed;
+	
+	EntryInputStream(FastZipFS fs, FastZipEntry entry) throws IOException {
+		this(fs, entry.name, fs.pinContents(entry));
+	}
+	
+	EntryInputStream(FastZipFS fs, ByteBuffer name, FastZipFS.Pinned pinned) throws IOException {
+		this.fs = fs;
+		this.pinned = pinned;
+		FastZipEntry.ZipContents contents = this.contents = pinned.contents();
+		this.size = contents.uncompressedSize;
+		BigByteBuffer cached;
+		try {
+			if(contents.compressionMethod == FastZipEntry.METHOD_STORED && contents.compressedData != null) {
+				this.data = contents.compressedData;
+				this.offset = contents.compressedOffset;
+			} else if((cached = contents.cached()) != null || contents.compressionMethod != FastZipEntry.METHOD_DEFLATED) {
+				this.data = cached == null ? contents.decompress(name) : cached;
+				this.offset = contents.offset(this.data);
+			} else {
+				this.data = null;
+				this.offset = 0;
+				this.inflater = new EntryInflater(contents, name);
+			}
+		} catch(IOException | RuntimeException e) {
+			fs.unpin(pinned);
+			throw e;
+		}
+	}
+	
+	@Override
+	public int read() throws IOException {
+		return this.read(this.single, 0, 1) == 1 ? this.single[0] & 0xFF : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		this.ensureOpen();
+		if(len == 0) {
+			return 0;
+		} else if(this.pos >= this.size) {
+			return -1;
+		}
+		int read = this.read0(ByteBuffer.wrap(b, off, (int) Math.min(len, this.size - this.pos)));
+		if(read > 0) {
+			this.pos += read;
+		}
+		return read;
+	}
+	
+	int read0(ByteBuffer dst) throws IOException {
+		if(this.data != null) {
+			return (int) this.data.segmentedInsert(dst::put, this.offset + this.pos, dst.remaining());
+		}
+		int start = dst.position();
+		while(dst.hasRemaining()) {
+			if(this.inflater.inflate(dst) < 0) {
+				break;
+			}
+		}
+		int read = dst.position() - start;
+		return read == 0 ? -1 : read;
+	}
+	
+	/**
+	 * Reads the rest of the entry into a single array of exactly the remaining size
+	 */
+	@Override
+	public byte[] readAllBytes() throws IOException {
+		this.ensureOpen();
+		long remaining = Math.max(this.size - this.pos, 0);
+		if(remaining > Integer.MAX_VALUE - 8) {
+			throw new OutOfMemoryError("Entry is too large to read into an array: " + remaining);
+		}
+		byte[] bytes = new byte[(int) remaining];
+		ByteBuffer dst = ByteBuffer.wrap(bytes);
+		while(dst.hasRemaining()) {
+			int read = this.read0(dst);
+			if(read < 0) {
+				throw new IOException("Entry ended " + dst.remaining() + " bytes early");
+			}
+			this.pos += read;
+		}
+		return bytes;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		this.ensureOpen();
+		long skipped = Math.max(Math.min(n, this.size - this.pos), 0);
+		if(skipped > 0 && this.inflater != null) {
+			this.inflater.skip(skipped);
+		}
+		this.pos += skipped;
+		return skipped;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		this.ensureOpen();
+		return (int) Math.min(Math.max(this.size - this.pos, 0), Integer.MAX_VALUE);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
+		if(this.inflater != null) {
+			this.inflater.close();
+			this.inflater = null;
+		}
+		this.fs.unpin(this.pinned);
+	}
+	
+	void ensureOpen() throws IOException {
+		if(this.closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream for an entry that deflates as it is written. Writes are buffered until there is enough data for the filesystem's
+ * {@link CompressionPolicy} to decide how the entry is stored, after which deflated entries are compressed write by write instead of all at once
+ * on close. The entry's contents are replaced when the stream is closed.
+ */
+final class EntryOutputStream extends OutputStream {
+	final FastZipFS fs;
+	final FastZipEntry entry;
+	final BigByteBuffer uncompressed = new GrowableBigByteBuffer();
+	final byte[] single = new byte[1];
+	long size;
+	/**
+	 * null until enough has been written to decide how the entry is stored
+	 */
+	CompressionPolicy.Rule rule;
+	Deflater deflater;
+	CRC32 crc;
+	GrowableBigByteBuffer compressed;
+	ByteBuffer temp;
+	/**
+	 * begun once the entry starts being deflated
+	 */
+	FastZipEvents.Compress event;
+	long deflateNanos;
+	boolean closed;
+	
+	EntryOutputStream(FastZipFS fs, FastZipEntry entry) {
+		this.fs = fs;
+		this.entry = entry;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		this.single[0] = (byte) b;
+		this.write(this.single, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if(this.closed) {
+			throw new IOException("Stream closed");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		this.uncompressed.append(buffer, this.size);
+		this.size += len;
+		if(this.deflater != null) {
+			this.deflate(buffer.position(off));
+		} else if(this.rule == null) {
+			CompressionPolicy policy = this.fs.compression;
+			if(this.size > Math.max(policy.sampleSize, policy.minSize)) {
+				this.decide(policy);
+			}
+		}
+	}
+	
+	void decide(CompressionPolicy policy) {
+		CompressionPolicy.Rule rule = this.rule = policy.choose(this.entry.name, this.uncompressed, 0, this.size);
+		if(rule.method() != FastZipEntry.METHOD_DEFLATED) {
+			return;
+		}
+		Deflater deflater = FastZipEntry.deflater(rule.level());
+		deflater.setLevel(rule.level());
+		deflater.setStrategy(rule.strategy());
+		this.deflater = deflater;
+		this.event = new FastZipEvents.Compress();
+		this.event.begin();
+		this.crc = new CRC32();
+		this.compressed = new GrowableBigByteBuffer();
+		this.temp = ByteBuffer.allocate(8192);
+		this.uncompressed.segmentedInsert(this::deflate, 0, this.size);
+	}
+	
+	void deflate(ByteBuffer buffer) {
+		long start = System.nanoTime();
+		int position = buffer.position();
+		this.crc.update(buffer);
+		buffer.position(position);
+		Deflater deflater = this.deflater;
+		deflater.setInput(buffer);
+		while(!deflater.needsInput()) {
+			FastZipEntry.ZipContents.drain(deflater, this.temp, this.compressed);
+		}
+		this.deflateNanos += System.nanoTime() - start;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
+		FastZipEntry.ZipContents contents = new FastZipEntry.ZipContents();
+		contents.uncompressedData = this.uncompressed;
+		contents.uncompressedSize = this.size;
+		CompressionPolicy policy = this.fs.compression;
+		ContentStore store = this.fs.store;
+		Deflater deflater = this.deflater;
+		if(deflater == null) {
+			// too small to have been decided, or stored
+			if(store != null) {
+				store.compress(this.entry, contents, policy, this.rule);
+			} else if(this.rule != null) {
+				policy.compress(this.entry.name, contents, this.uncompressed, this.rule);
+			} else {
+				policy.compress(this.entry.name, contents, this.uncompressed);
+			}
+			this.fs.setContents(this.entry, contents);
+			return;
+		}
+		
+		this.deflater = null;
+		try {
+			long start = System.nanoTime();
+			FastZipEntry.ZipContents.finish(deflater, this.temp, this.compressed);
+			this.deflateNanos += System.nanoTime() - start;
+		} finally {
+			deflater.reset();
+			FastZipEntry.DEFLATERS.push(deflater);
+		}
+		contents.compressionMethod = FastZipEntry.METHOD_DEFLATED;
+		contents.appendable = true;
+		contents.compressedData = this.compressed;
+		contents.compressedSize = this.compressed.size;
+		contents.crc32 = (int) this.crc.getValue();
+		contents.uncompressedData = new SoftReference<>(this.uncompressed);
+		policy.deflated(contents, this.uncompressed, this.deflateNanos);
+		FastZipStats.deflated(this.size, this.deflateNanos);
+		FastZipEvents.Compress event = this.event;
+		event.end();
+		if(event.shouldCommit()) {
+			event.set(this.entry.name, contents, this.rule.level(), this.deflateNanos);
+			event.streamed = true;
+			event.commit();
+		}
+		if(store != null) {
+			ContentStore.Key key = new ContentStore.Key(contents.crc32, this.size);
+			if(!store.share(key, contents, this.uncompressed)) {
+				store.add(key, contents, null);
+			} else if(contents.compressedData != this.compressed) {
+				this.compressed.release();
+			}
+		}
+		this.fs.setContents(this.entry, contents);
+	}
+}
@@ -0,0 +1,228 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.zip.Inflater;
+
+/**
+ * Loads classes and resources straight out of a filesystem's index, without going through paths or channels. Class names are looked up as
+ * entry names, and classes are inflated into a pooled buffer sized from the entry rather than decompressing the whole entry and copying it.
+ * Classes are loaded parent first, and in parallel. Works with {@link FastZipUnionFS}s, which makes a classpath of many archives a single
+ * lookup per class.
+ * <p>
+ * Resources are {@code jar:} urls into the archive the entry is read from, which are also read out of the index when they are opened.
+ */
+class FastZipClassLoader extends SecureClassLoader {
+	static {
+		registerAsParallelCapable();
+	}
+	
+	static final int MAX_POOLED = 64;
+	static final ConcurrentLinkedDeque<byte[]> BUFFERS = new ConcurrentLinkedDeque<>();
+	final FastZipFS fs;
+	final Map<Path, ProtectionDomain> domains = new ConcurrentHashMap<>();
+	final URLStreamHandler handler = new Handler();
+	
+	public FastZipClassLoader(FastZipFS fs, ClassLoader parent) {
+		this(null, fs, parent);
+	}
+	
+	public FastZipClassLoader(String name, FastZipFS fs, ClassLoader parent) {
+		super(name, parent);
+		this.fs = fs;
+	}
+	
+	/**
+	 * @return the file entry with the name, or null if there isn't one
+	 */
+	FastZipEntry entry(String name) {
+		FastZipEntry entry = this.fs.lookup(ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8)));
+		return entry == null || entry.contents == null ? null : entry;
+	}
+	
+	/**
+	 * @return the file entry with the name that's read from the archive, which is one a union shadowed if the one it resolves to isn't, or null
+	 * if there isn't one
+	 */
+	FastZipEntry entry(String name, String archive) {
+		FastZipEntry entry = this.entry(name);
+		if(entry != null && !this.archive(entry).equals(archive)) {
+			for(FastZipEntry shadowed : this.fs.shadowed(entry.name)) {
+				if(shadowed.contents != null && this.archive(shadowed).equals(archive)) {
+					return shadowed;
+				}
+			}
+		}
+		return entry;
+	}
+	
+	String archive(FastZipEntry entry) {
+		return this.fs.archive(entry).toUri().toString();
+	}
+	
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		FastZipEntry entry = this.entry(name.replace('.', '/').concat(".class"));
+		if(entry == null) {
+			throw new ClassNotFoundException(name);
+		}
+		this.fs.accessed(entry);
+		FastZipFS.Pinned pinned;
+		try {
+			pinned = this.fs.pinContents(entry);
+		} catch(IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		try {
+			return this.define(name, entry.name, pinned.contents());
+		} finally {
+			try {
+				this.fs.unpin(pinned);
+			} catch(IOException e) {
+				// the class is already defined, and closing the archive failing doesn't change that
+			}
+		}
+	}
+	
+	Class<?> define(String name, ByteBuffer entryName, FastZipEntry.ZipContents contents) throws ClassNotFoundException {
+		if(contents.uncompressedSize > Integer.MAX_VALUE - 8) {
+			throw new ClassNotFoundException(name + " is too large");
+		}
+		
+		int size = (int) contents.uncompressedSize;
+		byte[] buffer = BUFFERS.pollFirst();
+		if(buffer == null || buffer.length < size) {
+			buffer = new byte[Math.max(size, 8192)];
+		}
+		Inflater inflater = BigByteBuffer.inflater();
+		try {
+			FastZipFS.readInto(entryName, contents, inflater, ByteBuffer.wrap(buffer, 0, size));
+			int dot = name.lastIndexOf('.');
+			if(dot > 0) {
+				this.definePackage(name.substring(0, dot));
+			}
+			// the bytes are copied, so the buffer can be reused as soon as the class is defined
+			return this.defineClass(name, buffer, 0, size, this.domain(this.fs.archive(entryName)));
+		} catch(IOException | UncheckedIOException e) {
+			throw new ClassNotFoundException(name, e);
+		} finally {
+			inflater.reset();
+			BigByteBuffer.INFLATERS.push(inflater);
+			if(BUFFERS.size() < MAX_POOLED) {
+				BUFFERS.push(buffer);
+			}
+		}
+	}
+	
+	void definePackage(String name) {
+		if(this.getDefinedPackage(name) == null) {
+			try {
+				this.definePackage(name, null, null, null, null, null, null, null);
+			} catch(IllegalArgumentException e) {
+				// another thread defined it first
+			}
+		}
+	}
+	
+	ProtectionDomain domain(Path archive) {
+		return this.domains.computeIfAbsent(archive, a -> {
+			try {
+				return new ProtectionDomain(new CodeSource(a.toUri().toURL(), (CodeSigner[]) null), null, this, null);
+			} catch(MalformedURLException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+	
+	@Override
+	protected URL findResource(String name) {
+		FastZipEntry entry = this.entry(name);
+		return entry == null ? null : this.url(entry, name);
+	}
+	
+	/**
+	 * Lists the entry the name resolves to, and on a union every other member's entry with the name after it, like a classpath would
+	 */
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		FastZipEntry entry = this.entry(name);
+		if(entry == null) {
+			return Collections.emptyEnumeration();
+		}
+		List<URL> urls = new ArrayList<>();
+		urls.add(this.url(entry, name));
+		for(FastZipEntry shadowed : this.fs.shadowed(entry.name)) {
+			if(shadowed.contents != null) {
+				urls.add(this.url(shadowed, name));
+			}
+		}
+		urls.removeIf(Objects::isNull);
+		return Collections.enumeration(urls);
+	}
+	
+	URL url(FastZipEntry entry, String name) {
+		try {
+			return new URL("jar", null, -1, this.archive(entry) + "!/" + name, this.handler);
+		} catch(MalformedURLException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Opens the loader's jar urls by looking their entry up in the index, instead of opening the archive again
+	 */
+	final class Handler extends URLStreamHandler {
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			String file = url.getFile();
+			int separator = file.indexOf("!/");
+			FastZipEntry entry = separator < 0 ? null : FastZipClassLoader.this.entry(file.substring(separator + 2), file.substring(0, separator));
+			if(entry == null) {
+				throw new FileNotFoundException(url + "");
+			}
+			return new URLConnection(url) {
+				@Override
+				public void connect() {
+					this.connected = true;
+				}
+				
+				@Override
+				public InputStream getInputStream() throws IOException {
+					FastZipClassLoader.this.fs.accessed(entry);
+					return new EntryInputStream(FastZipClassLoader.this.fs, entry);
+				}
+				
+				@Override
+				public long getContentLengthLong() {
+					return entry.contents.uncompressedSize;
+				}
+				
+				@Override
+				public long getLastModified() {
+					return entry.lastMod;
+				}
+			};
+		}
+	}
+}
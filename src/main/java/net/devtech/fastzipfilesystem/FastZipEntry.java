@@ -7,12 +7,12 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
-import java.util.zip.ZipException;
 
 class FastZipEntry {
-	private static final ConcurrentLinkedDeque<Deflater> DEFLATERS = new ConcurrentLinkedDeque<>();
+	static final ConcurrentLinkedDeque<Deflater> DEFLATERS = new ConcurrentLinkedDeque<>();
 	static final int METHOD_STORED = 0;
 	static final int METHOD_DEFLATED = 8;
 	static final int METHOD_DEFLATED64 = 9;
@@ -20,25 +20,48 @@ class FastZipEntry {
 	static final int METHOD_LZMA = 14;
 	static final int METHOD_LZ77 = 19;
 	static final int METHOD_AES = 99;
+	static final AtomicReferenceFieldUpdater<FastZipEntry, ZipContents> CONTENTS = AtomicReferenceFieldUpdater.newUpdater(FastZipEntry.class,
+			ZipContents.class, "contents");
 	
 	ByteBuffer name;
 	ByteBuffer comment;
 	
-	ZipContents contents;
+	/**
+	 * contents are built privately and then published here whole, after which only their decompressed cache changes. Writers that replace the
+	 * contents outright just set them, writers whose new contents are derived from the old ones {@link #swap} them.
+	 */
+	volatile ZipContents contents;
 	int externalFileAttributes;
 	long lastMod;
 	
-	boolean valid = true;
+	/**
+	 * false once the entry is removed, changed while holding its parent's lock
+	 */
+	volatile boolean valid = true;
+	
+	/**
+	 * the versioned entry lookups of this one resolve to instead, if the filesystem was opened with a "releaseVersion"
+	 */
+	FastZipEntry release;
 	
 	final Set<ByteBuffer> children = new ConcurrentSkipListSet<>();
 	
 	static final class ZipContents {
 		BigByteBuffer compressedData;
-		Object uncompressedData;
+		/**
+		 * the uncompressed data, or a soft reference to it. Set while the contents are built, and afterwards only by {@link #decompress()}, which
+		 * publishes the data it inflated here whole. Nothing else changes once the contents are published, see {@link #offset(BigByteBuffer)}.
+		 */
+		volatile Object uncompressedData;
 		long compressedSize, uncompressedSize;
 		long compressedOffset, uncompressedOffset;
 		short compressionMethod;
 		int crc32;
+		/**
+		 * whether this filesystem deflated the contents and ended them with {@link #finish}, archives written by anything else are never appended
+		 * to in place even if they happen to end the same way
+		 */
+		boolean appendable;
 		
 		ZipContents() {
 			// TODO make default as deflated
@@ -47,11 +70,15 @@ class FastZipEntry {
 		ZipContents(BigByteBuffer uncompressed) {
 			this.uncompressedData = uncompressed;
 			this.compressedOffset = 0;
-			this.compressedSize = uncompressed.size;
+			this.uncompressedSize = uncompressed.size;
 			this.compressionMethod = METHOD_DEFLATED;
 		}
 		
 		public BigByteBuffer compress() throws IOException {
+			return this.compress(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+		}
+		
+		public BigByteBuffer compress(int level, int strategy) throws IOException {
 			if(this.compressedData != null) {
 				return this.compressedData;
 			}
@@ -75,40 +102,32 @@ class FastZipEntry {
 				return uncompressed;
 			}
 			
-			Deflater pop = DEFLATERS.pollFirst();
-			if(pop == null) {
-				pop = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
-			}
+			Deflater pop = deflater(level);
+			long start = System.nanoTime();
 			try {
-				BigByteBuffer compressedData = new BigByteBuffer();
-				ByteBuffer temp = ByteBuffer.allocate(1024);
+				BigByteBuffer compressedData = new GrowableBigByteBuffer();
+				ByteBuffer temp = ByteBuffer.allocate(8192);
 				Deflater deflater = pop;
+				deflater.setLevel(level);
+				deflater.setStrategy(strategy);
 				CRC32 crc32 = new CRC32();
 				uncompressed.segmentedInsert(buffer -> {
-					deflater.setInput(buffer);
-					buffer.position(0);
 					crc32.update(buffer);
-
-					while(!deflater.finished()) {
-						if(deflater.needsInput()) {
-							break;
-						}
-
-						temp.clear();
-						deflater.deflate(temp);
-						compressedData.append(buffer, compressedData.size);
+					buffer.position(0);
+					deflater.setInput(buffer);
+					while(!deflater.needsInput()) {
+						drain(deflater, temp, compressedData);
 					}
-
 				}, this.uncompressedOffset, this.uncompressedSize);
-
-				if(!deflater.finished()) {
-					throw new ZipException("Reported Inflated size > Actual Inflated Size");
-				}
+				
+				finish(deflater, temp, compressedData);
+				this.appendable = true;
 				this.crc32 = (int) crc32.getValue();
 				this.compressedOffset = 0;
 				this.compressedSize = compressedData.size;
 				this.compressedData = compressedData;
 				this.uncompressedData = new SoftReference<>(uncompressed);
+				FastZipStats.deflated(this.uncompressedSize, System.nanoTime() - start);
 				return compressedData;
 			} finally {
 				pop.reset();
@@ -116,25 +135,179 @@ class FastZipEntry {
 			}
 		}
 		
+		/**
+		 * @return these contents if they are already compressed, otherwise a compressed copy of them, so readers of these never see them half
+		 * compressed
+		 */
+		ZipContents compressed() throws IOException {
+			if(this.compressedData != null) {
+				return this;
+			}
+			ZipContents copy = this.copy();
+			copy.compress();
+			return copy;
+		}
+		
+		/**
+		 * @return a copy whose compressed data is copied out of the archive it's read from, so it doesn't depend on that archive staying mapped
+		 */
+		ZipContents detached() {
+			ZipContents copy = this.copy();
+			copy.compressedData = new BigByteBuffer(this.compressedData, this.compressedOffset, this.compressedSize);
+			copy.compressedOffset = 0;
+			if(this.uncompressedData == this.compressedData) { // stored
+				copy.uncompressedData = null;
+				copy.uncompressedOffset = 0;
+			}
+			return copy;
+		}
+		
+		ZipContents copy() {
+			ZipContents copy = new ZipContents();
+			copy.compressedData = this.compressedData;
+			copy.uncompressedData = this.uncompressedData;
+			copy.compressedSize = this.compressedSize;
+			copy.uncompressedSize = this.uncompressedSize;
+			copy.compressedOffset = this.compressedOffset;
+			copy.uncompressedOffset = this.uncompressedOffset;
+			copy.compressionMethod = this.compressionMethod;
+			copy.crc32 = this.crc32;
+			copy.appendable = this.appendable;
+			return copy;
+		}
+		
+		/**
+		 * Appends to these contents without recompressing them, stored contents are joined with the new data, and {@link #appendable} deflate
+		 * streams have their final block dropped and the deflated new data joined on. Anything else is recompressed once, after which it can be
+		 * appended to, and so are stored contents that grow past a size the policy decides at, they may only have been stored for being small.
+		 *
+		 * @param tail contents holding the uncompressed data to append
+		 * @return new contents for the combined data
+		 */
+		ZipContents append(ByteBuffer name, ZipContents tail, CompressionPolicy policy) throws IOException {
+			if(tail.uncompressedSize == 0) {
+				return this;
+			}
+			
+			ZipContents appended = new ZipContents();
+			if(this.compressionMethod == METHOD_STORED && !policy.rechoose(this.uncompressedSize, this.uncompressedSize + tail.uncompressedSize)) {
+				tail.compressionMethod = METHOD_STORED;
+				tail.compress();
+				appended.compressionMethod = METHOD_STORED;
+				appended.compressedSize = this.compressedSize + tail.compressedSize;
+				appended.compressedData = BigByteBuffer.join(this.compressedData, this.compressedOffset, this.compressedSize,
+						tail.compressedData, tail.compressedOffset, tail.compressedSize);
+			} else if(this.compressionMethod == METHOD_DEFLATED && this.appendable) {
+				policy.deflate(name, tail);
+				long length = this.compressedSize - 2; // drop the empty final block
+				appended.compressionMethod = METHOD_DEFLATED;
+				appended.appendable = tail.appendable;
+				appended.compressedSize = length + tail.compressedSize;
+				appended.compressedData = BigByteBuffer.join(this.compressedData, this.compressedOffset, length,
+						tail.compressedData, tail.compressedOffset, tail.compressedSize);
+			} else {
+				BigByteBuffer data = this.decompress(), tailData = tail.decompress();
+				BigByteBuffer joined = BigByteBuffer.join(data, this.offset(data), this.uncompressedSize,
+						tailData, tail.offset(tailData), tail.uncompressedSize);
+				appended.uncompressedData = joined;
+				appended.uncompressedSize = joined.size;
+				policy.compress(name, appended, joined);
+				return appended;
+			}
+			appended.uncompressedSize = this.uncompressedSize + tail.uncompressedSize;
+			appended.crc32 = FastZipUtil.crc32Combine(this.crc32, tail.crc32, tail.uncompressedSize);
+			return appended;
+		}
+		
+		static void drain(Deflater deflater, ByteBuffer temp, BigByteBuffer output) {
+			temp.clear();
+			deflater.deflate(temp);
+			temp.flip();
+			output.append(temp, output.size);
+		}
+		
+		/**
+		 * Ends the deflate stream with an empty sync flushed block ({@code 00 00 FF FF}) and then an empty final block ({@code 03 00}), so it can be
+		 * appended to later by dropping the final block, the contents should be marked {@link #appendable}
+		 */
+		static void finish(Deflater deflater, ByteBuffer temp, BigByteBuffer output) {
+			do {
+				temp.clear();
+				deflater.deflate(temp, Deflater.SYNC_FLUSH);
+				temp.flip();
+				output.append(temp, output.size);
+			} while(temp.limit() == temp.capacity());
+			deflater.finish();
+			while(!deflater.finished()) {
+				drain(deflater, temp, output);
+			}
+		}
+		
+		/**
+		 * @return where these contents start in data returned by {@link #decompress()} or {@link #cached()}, stored contents may be read straight
+		 * out of their compressed data
+		 */
+		long offset(BigByteBuffer data) {
+			return data == this.compressedData ? this.compressedOffset : this.uncompressedOffset;
+		}
+		
+		/**
+		 * @return the uncompressed data if it is already in memory, without decompressing anything
+		 */
+		BigByteBuffer cached() {
+			Object uncompressed = this.uncompressedData;
+			if(uncompressed instanceof SoftReference<?> r) {
+				return (BigByteBuffer) r.get();
+			}
+			return (BigByteBuffer) uncompressed;
+		}
+		
+		/**
+		 * {@link #decompress()}, recorded as a {@link FastZipEvents.Decompress} of the named entry
+		 */
+		BigByteBuffer decompress(ByteBuffer name) throws IOException {
+			FastZipEvents.Decompress event = new FastZipEvents.Decompress();
+			if(!event.isEnabled()) {
+				return this.decompress();
+			}
+			boolean hit = this.compressionMethod == METHOD_STORED || this.cached() != null;
+			event.begin();
+			long start = System.nanoTime();
+			BigByteBuffer data = this.decompress();
+			event.end();
+			if(event.shouldCommit()) {
+				event.set(name, this);
+				event.cacheHit = hit;
+				event.inflateTime = hit ? 0 : System.nanoTime() - start;
+				event.commit();
+			}
+			return data;
+		}
+		
+		/**
+		 * Published contents can be decompressed by several readers at once, so this only ever writes {@link #uncompressedData}, and the offset of
+		 * the returned data is {@link #offset(BigByteBuffer)}
+		 */
 		public BigByteBuffer decompress() throws IOException {
 			BigByteBuffer buffer;
-			if(this.uncompressedData instanceof SoftReference<?> r) {
+			boolean evicted = false;
+			Object uncompressed = this.uncompressedData;
+			if(uncompressed instanceof SoftReference<?> r) {
 				if((buffer = (BigByteBuffer) r.get()) != null) {
 					return buffer;
 				}
-			} else if(this.uncompressedData != null) {
-				return (BigByteBuffer) this.uncompressedData;
+				evicted = true;
+			} else if(uncompressed != null) {
+				return (BigByteBuffer) uncompressed;
 			}
 			
 			if(this.compressionMethod == METHOD_STORED) {
-				this.uncompressedOffset = this.compressedOffset;
-				this.uncompressedSize = this.compressedSize;
-				this.uncompressedData = this.compressedData;
 				return this.compressedData;
 			} else if(this.compressionMethod == METHOD_DEFLATED) {
+				// inflated contents start at 0, like every deflated contents' uncompressed data
 				BigByteBuffer data = new BigByteBuffer(this.uncompressedSize, this.compressedData, this.compressedOffset, this.compressedSize);
 				this.uncompressedData = new SoftReference<>(data);
-				this.uncompressedOffset = 0;
+				FastZipStats.cached(this.uncompressedSize, evicted);
 				return data;
 			} else {
 				throw new UnsupportedOperationException("Unsupported compression method " + switch(this.compressionMethod) {
@@ -149,10 +322,54 @@ class FastZipEntry {
 		}
 	}
 	
+	/**
+	 * @return a pooled deflater, which should be reset and pushed back onto {@link #DEFLATERS} once done with
+	 */
+	static Deflater deflater(int level) {
+		Deflater deflater = DEFLATERS.pollFirst();
+		if(deflater == null) {
+			FastZipStats.deflaterMiss();
+			deflater = new Deflater(level, true);
+		}
+		return deflater;
+	}
+	
 	FastZipEntry(ByteBuffer name) {
 		this.name = name;
 	}
 	
+	/**
+	 * @return a copy whose name and comment are copied out of the archive they were read from, so it doesn't depend on that archive staying
+	 * mapped, the contents are still read from it
+	 */
+	FastZipEntry detached() {
+		FastZipEntry entry = this.copy();
+		entry.name = ByteBuffer.allocate(this.name.remaining()).put(this.name.duplicate()).flip();
+		if(this.comment != null) {
+			entry.comment = ByteBuffer.allocate(this.comment.remaining()).put(this.comment.duplicate()).flip();
+		}
+		return entry;
+	}
+	
+	/**
+	 * @return an entry with the same name, attributes and contents, but no children
+	 */
+	FastZipEntry copy() {
+		FastZipEntry entry = new FastZipEntry(this.name);
+		entry.comment = this.comment;
+		entry.contents = this.contents;
+		entry.externalFileAttributes = this.externalFileAttributes;
+		entry.lastMod = this.lastMod;
+		return entry;
+	}
+	
+	/**
+	 * @return whether the contents were still the expected ones, and were replaced
+	 */
+	boolean swap(ZipContents expected, ZipContents contents) {
+		return CONTENTS.compareAndSet(this, expected, contents);
+	}
+	
 	// todo remember on flush to set this to a soft reference
 	// todo automatically flush with cleaner
 	
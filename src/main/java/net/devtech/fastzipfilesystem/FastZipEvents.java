@@ -0,0 +1,154 @@
+package net.devtech.fastzipfilesystem;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events for the work that otherwise only shows up as anonymous samples, opening archives, inflating and deflating entries and
+ * the phases of a flush. Decompress and compress events are only recorded if they take longer than their threshold, 1ms by default, so they can
+ * be left on under load. Thresholds are changed like any other event's, in a .jfc file, with {@link Recording#enable(String)}, or with
+ * {@link #enable(Recording, Duration)}.
+ * <p>
+ * Entries that are streamed are timed from when they start being inflated or deflated until they are closed, which includes however long the
+ * caller took, the time actually spent in the codec is recorded separately.
+ */
+final class FastZipEvents {
+	static final String PREFIX = "net.devtech.fastzipfilesystem.";
+	static final List<Class<? extends Event>> EVENTS = List.of(Open.class, Decompress.class, Compress.class, FlushPhase.class);
+	
+	/**
+	 * Enables every event in the recording, with the same threshold
+	 */
+	static void enable(Recording recording, Duration threshold) {
+		for(Class<? extends Event> event : EVENTS) {
+			recording.enable(event).withThreshold(threshold);
+		}
+	}
+	
+	static String name(ByteBuffer name) {
+		return name == null ? null : FastZipUtil.toStr(name);
+	}
+	
+	@Name(PREFIX + "Open")
+	@Label("Archive Open")
+	@Description("An archive was mapped and its central directory parsed")
+	@Category("FastZipFS")
+	@Threshold("0 ms")
+	static final class Open extends Event {
+		@Label("Archive")
+		String archive;
+		@Label("Entries")
+		int entries;
+		@Label("Central Directory Size")
+		@DataAmount
+		long centralDirectoryBytes;
+		@Label("Archive Size")
+		@DataAmount
+		long archiveBytes;
+		@Label("Mapped")
+		boolean mapped;
+	}
+	
+	@Name(PREFIX + "Decompress")
+	@Label("Entry Decompress")
+	@Category("FastZipFS")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static final class Decompress extends Event {
+		@Label("Entry")
+		String entry;
+		@Label("Method")
+		int method;
+		@Label("Compressed Size")
+		@DataAmount
+		long compressedSize;
+		@Label("Uncompressed Size")
+		@DataAmount
+		long uncompressedSize;
+		@Label("Cache Hit")
+		@Description("The entry was already decompressed, or stored")
+		boolean cacheHit;
+		@Label("Streamed")
+		boolean streamed;
+		@Label("Inflate Time")
+		@Timespan
+		long inflateTime;
+		
+		void set(ByteBuffer name, FastZipEntry.ZipContents contents) {
+			this.entry = FastZipEvents.name(name);
+			this.method = contents.compressionMethod;
+			this.compressedSize = contents.compressedSize;
+			this.uncompressedSize = contents.uncompressedSize;
+		}
+	}
+	
+	@Name(PREFIX + "Compress")
+	@Label("Entry Compress")
+	@Category("FastZipFS")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static final class Compress extends Event {
+		@Label("Entry")
+		String entry;
+		@Label("Method")
+		@Description("What the entry ended up stored with, deflated entries that didn't get smaller are stored")
+		int method;
+		@Label("Level")
+		int level;
+		@Label("Uncompressed Size")
+		@DataAmount
+		long uncompressedSize;
+		@Label("Compressed Size")
+		@DataAmount
+		long compressedSize;
+		@Label("Streamed")
+		boolean streamed;
+		@Label("Deflate Time")
+		@Timespan
+		long deflateTime;
+		
+		void set(ByteBuffer name, FastZipEntry.ZipContents contents, int level, long deflateTime) {
+			this.entry = FastZipEvents.name(name);
+			this.method = contents.compressionMethod;
+			this.level = level;
+			this.uncompressedSize = contents.uncompressedSize;
+			this.compressedSize = contents.compressedSize;
+			this.deflateTime = deflateTime;
+		}
+	}
+	
+	@Name(PREFIX + "FlushPhase")
+	@Label("Flush Phase")
+	@Description("Compressing pending entries, writing local headers and data, writing the central directory, replacing the archive, or " +
+	             "publishing the new version")
+	@Category("FastZipFS")
+	@Threshold("0 ms")
+	static final class FlushPhase extends Event {
+		@Label("Archive")
+		String archive;
+		@Label("Phase")
+		String phase;
+		@Label("Entries")
+		int entries;
+		@Label("Bytes Written")
+		@DataAmount
+		long bytes;
+		
+		FlushPhase(String archive, String phase, int entries) {
+			this.archive = archive;
+			this.phase = phase;
+			this.entries = entries;
+		}
+	}
+}
@@ -1,94 +1,388 @@
 package net.devtech.fastzipfilesystem;
 
 
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 class FastZipFS extends FileSystem {
+	static final ConcurrentLinkedDeque<ByteBuffer> TRANSFER_BUFFERS = new ConcurrentLinkedDeque<>();
+	/**
+	 * how much of the archive {@link #readAll(Collection, IntFunction, EntryReader)} prefetches at once
+	 */
+	static final int READ_AHEAD = 4 << 20;
+	/**
+	 * how far apart entries being warmed up can be and still be prefetched together, along with whatever is between them
+	 */
+	static final int WARM_UP_GAP = 64 << 10;
+	/**
+	 * sizes and offsets at or above this don't fit in their field, which is set to it and the value written to the zip64 extra field instead
+	 */
+	static final long ZIP64_MAGIC = 0xFFFFFFFFL;
 	private static final ByteBuffer ROOT_NAME = ByteBuffer.wrap(new byte[] {(byte) '/'});
+	static final ByteBuffer MANIFEST = ByteBuffer.wrap("META-INF/MANIFEST.MF".getBytes(StandardCharsets.UTF_8));
+	static final byte[] VERSIONS = "META-INF/versions/".getBytes(StandardCharsets.UTF_8);
+	static final Pattern MULTI_RELEASE = Pattern.compile("^Multi-Release:\\s*true\\s*$", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
 	final FastZipFSProvider provider;
 	final Path zipfsPath;
 	final boolean readonly;
 	final FastZipPath root = new FastZipPath(this, "/");
 	final ConcurrentMap<ByteBuffer, FastZipEntry> paths;
 	final NavigableSet<ByteBuffer> order; // todo linked list order instead of navigable set
-	volatile boolean dirty; // todo use atomics
-	boolean isOpen = true;
+	final CompressionPolicy compression;
+	final ContentStore store;
+	/**
+	 * the last published version of the archive, its mapping and central directory, replaced when the filesystem is flushed and released when
+	 * it is closed
+	 */
+	volatile SharedArchive shared;
+	/**
+	 * whether versions are unmapped once released, entry names are copied out of the archive when it's opened so they outlive it, and streams
+	 * and channels pin the version they read from until they're closed
+	 */
+	final boolean unmap;
+	/**
+	 * held while flushing, so only one flush writes the archive at a time, readers never take it
+	 */
+	final Object flushLock = new Object();
+	/**
+	 * incremented after every change is published, so a flush that reads it first sees at least every change it counted
+	 */
+	final AtomicLong modCount = new AtomicLong();
+	/**
+	 * odd while a flush is moving entries onto the version it wrote and hasn't published that version yet, see {@link #pinContents}
+	 */
+	final AtomicLong publishing = new AtomicLong();
+	/**
+	 * the modification count the last flush wrote, guarded by {@link #flushLock}
+	 */
+	long flushedCount;
+	final AtomicBoolean open = new AtomicBoolean(true);
+	/**
+	 * null if "metrics" is "false"
+	 */
+	final FastZipStats stats;
+	/**
+	 * the entries read since the filesystem was opened, if "recordAccess" is "true"
+	 */
+	final AccessProfile recording;
+	/**
+	 * where the recorded profile is saved when the filesystem is closed, if "accessProfile" is a path
+	 */
+	final Path profilePath;
+	/**
+	 * the order flushes lay entries out in, "accessProfile" if it was given, otherwise what's recorded, or null to keep the usual order
+	 */
+	volatile AccessProfile layout;
+	/**
+	 * the warm up started when the filesystem was opened, if "warmUp" was "true" or "inflate"
+	 */
+	final CompletableFuture<Long> warmingUp;
+	/**
+	 * the versioned entries of names that only exist in a version, if "releaseVersion" is set on a multi-release jar, otherwise null. Names with
+	 * a base entry resolve through {@link FastZipEntry#release} instead, so lookups that hit still only probe {@link #paths}.
+	 */
+	final Map<ByteBuffer, FastZipEntry> releaseOnly;
+	/**
+	 * archives of other filesystems that entries were copied from, pinned until no entry is read from them, which is usually once this filesystem
+	 * is flushed
+	 */
+	final List<Borrowed> borrowed = new ArrayList<>();
+	
+	/**
+	 * @param data the buffer in the archive that copied entries are read from
+	 */
+	record Borrowed(SharedArchive archive, BigByteBuffer data) {}
+	
+	/**
+	 * An entry's contents, and the archive they're read from, pinned until whatever reads them is closed, or null if they're only in memory
+	 */
+	record Pinned(FastZipEntry.ZipContents contents, SharedArchive archive) {}
 	
 	FastZipFS(FastZipFSProvider provider, Path path, Map<String, ?> config) throws IOException {
+		this(provider, path, config, null);
+	}
+	
+	/**
+	 * @param archive the archive to read the filesystem from instead of acquiring the one at path, or null
+	 */
+	FastZipFS(FastZipFSProvider provider, Path path, Map<String, ?> config, SharedArchive archive) throws IOException {
+		long start = System.nanoTime();
 		this.provider = provider;
 		this.zipfsPath = path;
 		this.readonly = "true".equals(config.get("readonly")) || !Files.isWritable(path);
+		this.compression = CompressionPolicy.from(config);
+		FastZipStats stats = this.stats = FastZipStats.open(this, config);
+		AccessProfile recording = this.recording = "true".equals(config.get("recordAccess")) ? new AccessProfile() : null;
+		Object profile = config.get("accessProfile");
+		this.profilePath = profile instanceof String || profile instanceof Path ? Path.of(String.valueOf(profile)) : null;
+		if(profile instanceof AccessProfile loaded) {
+			this.layout = loaded;
+		} else if(this.profilePath != null && Files.exists(this.profilePath)) {
+			this.layout = AccessProfile.load(this.profilePath);
+		} else {
+			this.layout = recording;
+		}
+		ContentStore store = this.store = "true".equals(config.get("deduplicate")) ? new ContentStore(this) : null;
 		
 		ConcurrentMap<ByteBuffer, FastZipEntry> paths = this.paths = new ConcurrentHashMap<>();
 		NavigableSet<ByteBuffer> order = this.order = "true".equals(config.get("maintainOrder")) ? new ConcurrentSkipListSet<>() : null;
 		FastZipEntry rootEntry = new FastZipEntry(this.root.name);
-		BigByteBuffer.PathBuffer buf = BigByteBuffer.buffer(path);
-		BigByteBuffer buffer = buf.buffer();
-		FastZipReader.read(buffer, entry -> {
+		paths.put(ROOT_NAME, rootEntry);
+		if(order != null) {
+			order.add(ROOT_NAME);
+		}
+		boolean unmap = this.unmap = "true".equals(config.get("unmapOnClose"));
+		SharedArchive shared = this.shared = archive != null ? archive : provider.acquire(path, unmap);
+		for(FastZipEntry read : shared.entries) {
+			FastZipEntry entry = unmap ? read.detached() : read.copy();
 			ByteBuffer name = entry.name;
 			paths.put(name, entry);
 			if(order != null) {
 				order.add(name);
 			}
-		}, () -> {
-			paths.clear();
-			if(order != null) {
-				order.clear();
+			if(store != null && entry.contents.uncompressedSize > 0) {
+				store.add(entry.contents, shared);
 			}
-			
-			paths.put(ROOT_NAME, rootEntry);
-			if(order != null) {
-				order.add(ROOT_NAME);
+		}
+		
+		try {
+			for(FastZipEntry value : new ArrayList<>(paths.values())) {
+				if(value != rootEntry) {
+					this.link(value);
+				}
+			}
+			Object release = config.get("releaseVersion");
+			this.releaseOnly = release == null ? null : this.resolveRelease(releaseVersion(release));
+		} catch(IOException | RuntimeException e) {
+			provider.release(shared);
+			throw e;
+		}
+		if(stats != null) {
+			stats.opened(System.nanoTime() - start, "true".equals(config.get("jmx")));
+		}
+		Object warmUp = config.get("warmUp");
+		this.warmingUp = "true".equals(warmUp) || "inflate".equals(warmUp) ? this.warmUp("inflate".equals(warmUp), null) : null;
+	}
+	
+	/**
+	 * @return the entry with the given name, counting the lookup
+	 */
+	FastZipEntry lookup(ByteBuffer name) {
+		FastZipEntry entry = this.paths.get(name);
+		if(entry != null) {
+			FastZipEntry release = entry.release;
+			if(release != null && release.valid) {
+				entry = release;
+			}
+		} else if(this.releaseOnly != null) {
+			entry = this.releaseOnly.get(name);
+		}
+		FastZipStats stats = this.stats;
+		if(stats != null) {
+			stats.lookup(entry != null);
+		}
+		return entry;
+	}
+	
+	static int releaseVersion(Object option) {
+		if(option instanceof Number number) {
+			return number.intValue();
+		} else if(option instanceof Runtime.Version version) {
+			return version.feature();
+		} else if("runtime".equals(option)) {
+			return Runtime.version().feature();
+		}
+		return Integer.parseInt(String.valueOf(option));
+	}
+	
+	/**
+	 * Resolves every name with entries under META-INF/versions to the entry of the highest version that isn't above the release, if the manifest
+	 * says the jar is multi-release. Writes still go to the base entries. Directories aren't resolved, they list the base entries and the ones that
+	 * only exist in a version.
+	 *
+	 * @return the entries of names that only exist in a version, or null if the jar isn't multi-release
+	 */
+	Map<ByteBuffer, FastZipEntry> resolveRelease(int release) throws IOException {
+		FastZipEntry manifest = this.paths.get(MANIFEST);
+		if(manifest == null || manifest.contents == null || manifest.contents.uncompressedSize > Integer.MAX_VALUE - 8) {
+			return null;
+		}
+		byte[] bytes = new byte[(int) manifest.contents.uncompressedSize];
+		Inflater inflater = BigByteBuffer.inflater();
+		try {
+			readInto(manifest.name, manifest.contents, inflater, ByteBuffer.wrap(bytes));
+		} finally {
+			inflater.reset();
+			BigByteBuffer.INFLATERS.push(inflater);
+		}
+		if(!MULTI_RELEASE.matcher(new String(bytes, StandardCharsets.UTF_8)).find()) {
+			return null;
+		}
+		
+		record Versioned(int version, FastZipEntry entry) {}
+		Map<ByteBuffer, Versioned> resolved = new HashMap<>();
+		for(FastZipEntry entry : this.paths.values()) {
+			ByteBuffer name = entry.name;
+			int limit = name.limit();
+			if(entry.contents == null || limit <= VERSIONS.length || name.mismatch(ByteBuffer.wrap(VERSIONS)) != VERSIONS.length) {
+				continue;
+			}
+			if(name.get(limit - 1) == '/') { // a versioned directory would hide the base entries it doesn't have
+				continue;
+			}
+			int version = 0, i = VERSIONS.length;
+			for(byte b; i < limit && (b = name.get(i)) >= '0' && b <= '9' && version < 10000; i++) {
+				version = version * 10 + b - '0';
+			}
+			if(i == VERSIONS.length || i >= limit - 1 || name.get(i) != '/' || version < 9 || version > release) {
+				continue;
 			}
-		});
+			ByteBuffer logical = ByteBuffer.allocate(limit - i - 1).put(0, name, i + 1, limit - i - 1);
+			resolved.merge(logical, new Versioned(version, entry), (a, b) -> a.version >= b.version ? a : b);
+		}
 		
-		for(FastZipEntry value : paths.values()) {
-			if(value != rootEntry) {
-				FastZipEntry parent = this.getParent(value.name);
-				parent.children.add(value.name);
+		Map<ByteBuffer, FastZipEntry> releaseOnly = new HashMap<>();
+		for(Map.Entry<ByteBuffer, Versioned> entry : resolved.entrySet()) {
+			ByteBuffer logical = entry.getKey();
+			FastZipEntry base = this.paths.get(logical);
+			if(base != null) {
+				base.release = entry.getValue().entry;
+			} else {
+				releaseOnly.put(logical, entry.getValue().entry);
+				// listed with the base entries, if the directory it would be in exists
+				FastZipEntry parent = this.getParent(logical);
+				if(parent != null) {
+					parent.children.add(logical);
+				}
 			}
 		}
+		return releaseOnly;
+	}
+	
+	/**
+	 * @return the archive the named entry is read from, which its uri points into
+	 */
+	Path archive(ByteBuffer name) {
+		return this.zipfsPath;
+	}
+	
+	/**
+	 * @return the archive the entry is read from
+	 */
+	Path archive(FastZipEntry entry) {
+		return this.zipfsPath;
+	}
+	
+	/**
+	 * @return the other entries with the name that lookups don't resolve to, the members' entries a union shadowed
+	 */
+	List<FastZipEntry> shadowed(ByteBuffer name) {
+		return List.of();
 	}
 	
+	/**
+	 * Records that the entry is being read, if access is recorded
+	 */
+	void accessed(FastZipEntry entry) {
+		AccessProfile recording = this.recording;
+		if(recording != null) {
+			recording.record(entry.name);
+		}
+	}
+	
+	/**
+	 * @return the entries read since the filesystem was opened, or null if "recordAccess" isn't "true"
+	 */
+	public AccessProfile accessProfile() {
+		return this.recording;
+	}
+	
+	/**
+	 * @return the filesystem's stats, or null if "metrics" is "false"
+	 */
+	public FastZipStats.Sample stats() {
+		return this.stats == null ? null : this.stats.sample();
+	}
+	
+	/**
+	 * Entries are created and removed while holding their parent's lock, so a directory can't be removed while something is created in it, and an
+	 * entry is in its parent's children whenever it is in {@link #paths}.
+	 */
 	FastZipEntry getOrCreatePath(ByteBuffer name, boolean directory) throws FileNotFoundException {
 		name = absoluteName(name, directory);
+		FastZipEntry existing = this.paths.get(name);
+		if(existing != null) {
+			return existing;
+		}
 		FastZipEntry parent = this.getParent(name);
 		if(parent == null) {
 			throw new FileNotFoundException(FastZipUtil.toStr(name) + "'s parent");
 		}
-		FastZipEntry entry = new FastZipEntry(name);
-		FastZipEntry path = this.paths.putIfAbsent(name, entry);
-		if(path == null) {
-			if(this.order != null) {
-				this.order.add(name);
+		boolean[] created = {false};
+		FastZipEntry entry;
+		synchronized(parent) {
+			if(!parent.valid) {
+				throw new FileNotFoundException(FastZipUtil.toStr(name) + "'s parent");
 			}
-			parent.children.add(name);
+			entry = this.paths.computeIfAbsent(name, n -> {
+				created[0] = true;
+				return new FastZipEntry(n);
+			});
+			if(created[0]) {
+				if(this.order != null) {
+					this.order.add(name);
+				}
+				parent.children.add(name);
+			}
+		}
+		if(created[0]) {
+			this.modified();
 		}
-		return path == null ? entry : path;
+		return entry;
 	}
 	
 	static ByteBuffer absoluteName(ByteBuffer name, boolean directory) {
@@ -106,96 +400,418 @@ class FastZipFS extends FileSystem {
 		return name;
 	}
 	
-	boolean removePath(FastZipPath paths) throws FileNotFoundException {
-		FastZipEntry remove = this.paths.remove(paths.name);
-		FastZipEntry parent = this.getParent(paths.name);
-		if(remove != null) {
-			paths.remove(remove);
+	/**
+	 * @return false if the entry was already removed
+	 */
+	boolean removePath(FastZipPath path, FastZipEntry remove) throws IOException {
+		ByteBuffer name = remove.name;
+		FastZipEntry parent = this.getParent(name);
+		if(parent == null) {
+			return false;
 		}
-		
-		if(remove != null) {
+		synchronized(parent) {
+			synchronized(remove) { // its children are created under this lock
+				if(!remove.children.isEmpty()) {
+					throw new DirectoryNotEmptyException(path + "");
+				} else if(!this.paths.remove(name, remove)) {
+					return false;
+				}
+				remove.valid = false;
+			}
 			if(this.order != null) {
-				this.order.remove(paths.name);
+				this.order.remove(name);
 			}
-			
-			parent.children.remove(paths.name);
+			parent.children.remove(name);
 		}
-		
-		return remove != null;
+		if(this.store != null) {
+			this.store.remove(remove.contents);
+		}
+		path.remove(remove);
+		this.modified();
+		return true;
+	}
+	
+	void modified() {
+		this.modCount.incrementAndGet();
+	}
+	
+	/**
+	 * Publishes new contents for an entry, replacing whatever it had
+	 */
+	void setContents(FastZipEntry entry, FastZipEntry.ZipContents contents) {
+		FastZipEntry.ZipContents replaced = FastZipEntry.CONTENTS.getAndSet(entry, contents);
+		if(this.store != null && replaced != contents) {
+			this.store.remove(replaced);
+		}
+		this.modified();
 	}
 	
 	final FastZipEntry getParent(ByteBuffer name) throws FileNotFoundException {
+		ByteBuffer parentName = parentName(name);
+		return parentName == null ? this.root.getEntry(true) : this.paths.get(parentName);
+	}
+	
+	/**
+	 * @return the name of the directory the entry is in, or null if it's in the root
+	 */
+	static ByteBuffer parentName(ByteBuffer name) {
 		for(int i = name.limit() - 2; i >= 1; i--) {
 			if(name.get(i) == '/') {
 				ByteBuffer parentName = ByteBuffer.allocate(i + 1);
 				parentName.put(0, name, 0, i + 1);
-				return this.paths.get(parentName);
+				return parentName;
 			}
 		}
-		return this.root.getEntry(true);
+		return null;
+	}
+	
+	/**
+	 * Adds an entry read from the archive to its parent's children, archives don't have to have entries for their directories, so missing ones
+	 * are created
+	 */
+	void link(FastZipEntry entry) throws FileNotFoundException {
+		FastZipEntry parent = this.getParent(entry.name);
+		if(parent == null) {
+			ByteBuffer parentName = parentName(entry.name);
+			FastZipEntry directory = new FastZipEntry(parentName);
+			directory.lastMod = entry.lastMod;
+			parent = this.paths.putIfAbsent(parentName, directory);
+			if(parent == null) {
+				parent = directory;
+				if(this.order != null) {
+					this.order.add(parentName);
+				}
+				this.link(directory);
+			}
+		}
+		if(parent != entry) {
+			parent.children.add(entry.name);
+		}
 	}
 	
 	@Override
 	public void close() throws IOException {
-		if(this.isOpen) {
-			this.flush();
-			this.provider.filesystems.remove(this.root, this);
-			this.isOpen = false;
+		if(this.open.compareAndSet(true, false)) {
+			try {
+				this.flush();
+				if(this.recording != null && this.profilePath != null && this.recording.size() > 0) {
+					this.recording.save(this.profilePath);
+				}
+			} finally {
+				this.provider.filesystems.remove(this.zipfsPath, this);
+				this.provider.release(this.shared);
+				if(this.stats != null) {
+					this.stats.closed();
+				}
+				this.returnBorrowed(true);
+			}
+		}
+	}
+	
+	/**
+	 * A published version of the filesystem, the entries as they were when it was opened or last flushed and the archive they're read from. The
+	 * version is pinned until the snapshot is closed, so it stays readable however the filesystem is written to or flushed in the meantime.
+	 */
+	public final class Snapshot implements Closeable {
+		final SharedArchive archive;
+		final AtomicBoolean closed = new AtomicBoolean();
+		
+		Snapshot(SharedArchive archive) {
+			this.archive = archive;
+		}
+		
+		/**
+		 * @return the names of the snapshot's entries, directories end with a '/'
+		 */
+		public List<String> names() {
+			List<String> names = new ArrayList<>(this.archive.entries.size());
+			for(FastZipEntry entry : this.archive.entries) {
+				names.add(FastZipUtil.toStr(entry.name));
+			}
+			return names;
+		}
+		
+		public boolean exists(String name) {
+			return this.archive.get(entryName(name)) != null;
+		}
+		
+		public InputStream newInputStream(String name) throws IOException {
+			this.ensureOpen();
+			FastZipEntry entry = this.archive.get(entryName(name));
+			if(entry == null || entry.contents == null) {
+				throw new FileNotFoundException(name);
+			} else if(!this.archive.pin()) {
+				throw new IOException("Snapshot is closed");
+			}
+			return new EntryInputStream(FastZipFS.this, entry.name, new Pinned(entry.contents, this.archive));
+		}
+		
+		public byte[] readAllBytes(String name) throws IOException {
+			try(InputStream stream = this.newInputStream(name)) {
+				return stream.readAllBytes();
+			}
+		}
+		
+		static ByteBuffer entryName(String name) {
+			return ByteBuffer.wrap((name.startsWith("/") ? name.substring(1) : name).getBytes(StandardCharsets.UTF_8));
+		}
+		
+		void ensureOpen() throws IOException {
+			if(this.closed.get()) {
+				throw new IOException("Snapshot is closed");
+			}
+		}
+		
+		/**
+		 * Unpins the version, streams opened from the snapshot must be closed first
+		 */
+		@Override
+		public void close() throws IOException {
+			if(this.closed.compareAndSet(false, true)) {
+				FastZipFS.this.provider.release(this.archive);
+			}
+		}
+	}
+	
+	/**
+	 * @return the last published version of the filesystem, pinned until the snapshot is closed
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this.pin());
+	}
+	
+	/**
+	 * Pins the archive the contents are read from, so a filesystem they're copied into can keep reading them after this one is flushed or closed
+	 *
+	 * @return the pinned archive, or null if the contents aren't read from this filesystem's last published version or an archive it borrowed
+	 */
+	SharedArchive pinSource(FastZipEntry.ZipContents contents) throws IOException {
+		if(contents.compressedData == null) {
+			return null;
+		}
+		SharedArchive archive = this.pin();
+		if(contents.compressedData == archive.buffer) {
+			return archive;
+		}
+		this.provider.release(archive);
+		synchronized(this.borrowed) {
+			for(Borrowed borrowed : this.borrowed) {
+				// borrowed archives stay pinned while they're in the list, so this can't fail
+				if(borrowed.data == contents.compressedData && borrowed.archive.pin()) {
+					return borrowed.archive;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Pins the archive an entry's contents are read from, so a flush or close doesn't release, and maybe unmap, it while a stream or channel is
+	 * still reading them. If a flush moves the entry onto a new version first, the new version is pinned instead.
+	 */
+	Pinned pinContents(FastZipEntry entry) throws IOException {
+		while(true) {
+			long publishing = this.publishing.get();
+			FastZipEntry.ZipContents contents = entry.contents;
+			if(contents == null) {
+				throw new FileNotFoundException(FastZipUtil.toStr(entry.name));
+			}
+			SharedArchive archive = this.pinSource(contents);
+			// contents that weren't found are in memory, unless they were moved, or are read from a version that wasn't published yet
+			if(archive != null || ((publishing & 1) == 0 && this.publishing.get() == publishing && entry.contents == contents)) {
+				return new Pinned(contents, archive);
+			}
+			Thread.onSpinWait();
+		}
+	}
+	
+	/**
+	 * Releases the archive that a stream or channel was reading from
+	 */
+	void unpin(Pinned pinned) throws IOException {
+		if(pinned.archive != null) {
+			this.provider.release(pinned.archive);
+		}
+	}
+	
+	/**
+	 * Holds onto another filesystem's archive that contents were copied from, until nothing in this filesystem is read from it. It must be
+	 * borrowed after the contents are set, so a flush that's already running doesn't see it and return it before the contents are written.
+	 */
+	void borrow(SharedArchive archive, BigByteBuffer data) {
+		synchronized(this.borrowed) {
+			this.borrowed.add(new Borrowed(archive, data));
+		}
+	}
+	
+	/**
+	 * Releases the borrowed archives that entries are no longer read from, after a flush has written them into this filesystem's own archive
+	 *
+	 * @param all whether to release every borrowed archive, because the filesystem is closed
+	 */
+	void returnBorrowed(boolean all) throws IOException {
+		List<Borrowed> returned = new ArrayList<>();
+		synchronized(this.borrowed) {
+			if(this.borrowed.isEmpty()) {
+				return;
+			}
+			Set<BigByteBuffer> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+			if(!all) {
+				for(FastZipEntry entry : this.paths.values()) {
+					FastZipEntry.ZipContents contents = entry.contents;
+					if(contents != null && contents.compressedData != null) {
+						referenced.add(contents.compressedData);
+					}
+				}
+			}
+			this.borrowed.removeIf(borrowed -> !referenced.contains(borrowed.data) && returned.add(borrowed));
+		}
+		for(Borrowed borrowed : returned) {
+			this.provider.release(borrowed.archive);
+		}
+	}
+	
+	/**
+	 * @return the last published version of the archive, pinned until it is released
+	 */
+	SharedArchive pin() {
+		while(true) {
+			SharedArchive archive = this.shared;
+			if(archive.pin()) {
+				return archive;
+			} else if(!this.open.get()) {
+				throw new ClosedFileSystemException();
+			}
+			// a flush released it after it was read, the next version is already published
 		}
 	}
 	
+	/**
+	 * Writes the filesystem to a new version of the archive, and then publishes it, entries that weren't changed while it was written are read
+	 * from the new version from then on, and the old one is released once nothing is reading from it. The filesystem can be read and written
+	 * while it is flushed.
+	 */
 	public void flush() throws IOException {
-		if(this.dirty) {
-			this.dirty = false;
-			Path tempZip = Files.createTempFile("temp", ".zip");
-			try(SeekableByteChannel channel = Files.newByteChannel(tempZip, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-				Collection<ByteBuffer> entries;
-				if(this.order != null) {
-					entries = this.order;
+		synchronized(this.flushLock) {
+			long count = this.modCount.get();
+			if(count != this.flushedCount) {
+				long start = System.nanoTime();
+				this.publish(this.write());
+				this.flushedCount = count;
+				this.returnBorrowed(false);
+				if(this.stats != null) {
+					this.stats.flushed(System.nanoTime() - start, this.shared.buffer.size);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Rewrites the archive with its entries laid out in the order the profile read them, whether or not anything changed, and lays out later
+	 * flushes the same way
+	 */
+	public void repack(AccessProfile profile) throws IOException {
+		synchronized(this.flushLock) {
+			long count = this.modCount.get();
+			this.layout = profile;
+			this.publish(this.write());
+			this.flushedCount = count;
+			this.returnBorrowed(false);
+		}
+	}
+	
+	/**
+	 * @return the contents of each entry written, by name
+	 */
+	Map<ByteBuffer, FastZipEntry.ZipContents> write() throws IOException {
+		Collection<ByteBuffer> names;
+		if(this.order != null) {
+			names = this.order;
+		} else {
+			ArrayList<ByteBuffer> entryList = new ArrayList<>(this.paths.keySet());
+			entryList.sort(Comparator.comparing(b -> {
+				if(b.limit() == 0 || b.get(b.limit() - 1) == '/') {
+					return b.limit();
 				} else {
-					ArrayList<ByteBuffer> entryList = new ArrayList<>(this.paths.keySet());
-					entryList.sort(Comparator.comparing(b -> {
-						if(b.limit() == 0 || b.get(b.limit() - 1) == '/') {
-							return b.limit();
-						} else {
-							return Integer.MAX_VALUE;
-						}
-					}));
-					entries = entryList;
+					return Integer.MAX_VALUE;
 				}
-				
+			}));
+			names = entryList;
+		}
+		AccessProfile layout = this.layout;
+		if(layout != null) {
+			names = layout.layout(names);
+		}
+		
+		// every field of every entry is read once, so entries written or removed concurrently can't tear the archive
+		String archive = this.zipfsPath + "";
+		FastZipEvents.FlushPhase phase = new FastZipEvents.FlushPhase(archive, "compress", names.size());
+		phase.begin();
+		List<FastZipEntry> entries = new ArrayList<>(names.size());
+		List<FastZipEntry.ZipContents> written = new ArrayList<>(names.size());
+		Map<ByteBuffer, FastZipEntry.ZipContents> published = new HashMap<>();
+		for(ByteBuffer name : names) {
+			FastZipEntry entry = this.paths.get(name);
+			if(entry == null) {
+				continue;
+			}
+			FastZipEntry.ZipContents contents = entry.contents;
+			entries.add(entry);
+			written.add(contents == null ? new FastZipEntry.ZipContents() : contents.compressed());
+			if(contents != null) {
+				published.put(name, contents);
+			}
+		}
+		phase.commit();
+		
+		Path parent = this.zipfsPath.getParent();
+		boolean sibling = parent != null && this.zipfsPath.getFileSystem() == FileSystems.getDefault();
+		Path tempZip = sibling ? Files.createTempFile(parent, ".flush", ".zip") : Files.createTempFile("temp", ".zip");
+		try {
+			try(SeekableByteChannel channel = Files.newByteChannel(tempZip, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
 				ByteBuffer temp = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
 				
 				// local file header
-				long[] offsets = new long[entries.size()];
-				int index = 0;
-				for(ByteBuffer name : entries) {
+				int count = entries.size();
+				phase = new FastZipEvents.FlushPhase(archive, "local headers", count);
+				phase.begin();
+				long[] offsets = new long[count], times = new long[count];
+				for(int index = 0; index < count; index++) {
 					//if(name.limit() == 1 && name.get(0) == '/') {
 					//	continue;
 					//}
-					offsets[index++] = channel.position();
-					FastZipEntry entry = this.paths.get(name);
-					FastZipEntry.ZipContents contents = entry.contents;
-					if(contents == null) {
-						contents = new FastZipEntry.ZipContents();
-					}
+					offsets[index] = channel.position();
+					FastZipEntry entry = entries.get(index);
+					FastZipEntry.ZipContents contents = written.get(index);
+					ByteBuffer name = entry.name;
+					times[index] = entry.lastMod;
+					// the local header's zip64 field has both sizes if either overflowed
+					boolean zip64 = contents.compressedSize >= ZIP64_MAGIC || contents.uncompressedSize >= ZIP64_MAGIC;
 					temp.putInt(FastZipReader.LOC_HEADER);
-					temp.putShort((short) 0x14); // version
+					temp.putShort((short) (zip64 ? 45 : 0x14)); // version
 					temp.putShort((short) 0); // flag
 					temp.putShort(contents.compressionMethod);
-					temp.putInt((int) FastZipUtil.javaToDosTime(entry.lastMod));
+					temp.putInt((int) FastZipUtil.javaToDosTime(times[index]));
 					temp.putInt(contents.crc32);
-					temp.putInt((int) contents.compressedSize); // todo zip64
-					temp.putInt((int) contents.uncompressedSize);
+					temp.putInt(zip64 ? (int) ZIP64_MAGIC : (int) contents.compressedSize);
+					temp.putInt(zip64 ? (int) ZIP64_MAGIC : (int) contents.uncompressedSize);
 					temp.putShort((short) name.limit());
-					temp.putShort((short) 0); // todo zip64 (extra)
+					temp.putShort((short) (zip64 ? 20 : 0)); // extra
 					temp.flip();
 					channel.write(temp);
 					temp.clear();
-					channel.write(name);
-					name.clear();
-					if(entry.contents != null) {
-						entry.contents.compress().segmentedInsert(buffer -> {
+					channel.write(name.duplicate());
+					if(zip64) {
+						temp.putShort(FastZipReader.ZIP64_EXT_INFO_HEADER);
+						temp.putShort((short) 16);
+						temp.putLong(contents.uncompressedSize);
+						temp.putLong(contents.compressedSize);
+						temp.flip();
+						channel.write(temp);
+						temp.clear();
+					}
+					if(contents.compressedData != null) {
+						contents.compressedData.segmentedInsert(buffer -> {
 							try {
 								channel.write(buffer);
 							} catch(IOException e) {
@@ -204,62 +820,490 @@ class FastZipFS extends FileSystem {
 						}, contents.compressedOffset, contents.compressedSize);
 					}
 				}
-
-				index = 0;
+				
 				long start = channel.position();
-				for(ByteBuffer name : entries) { // cen
+				phase.bytes = start;
+				phase.commit();
+				phase = new FastZipEvents.FlushPhase(archive, "central directory", count);
+				phase.begin();
+				for(int index = 0; index < count; index++) { // cen
 					//if(name.limit() == 1 && name.get(0) == '/') {
 					//	continue;
 					//}
-					FastZipEntry entry = this.paths.get(name);
-					FastZipEntry.ZipContents contents = entry.contents;
-					if(contents == null) {
-						contents = new FastZipEntry.ZipContents();
-					}
+					ByteBuffer name = entries.get(index).name;
+					FastZipEntry.ZipContents contents = written.get(index);
+					long offset = offsets[index];
+					// the central header's zip64 field only has the fields that overflowed
+					boolean uncompressed64 = contents.uncompressedSize >= ZIP64_MAGIC, compressed64 = contents.compressedSize >= ZIP64_MAGIC;
+					boolean offset64 = offset >= ZIP64_MAGIC;
+					int zip64 = (uncompressed64 ? 8 : 0) + (compressed64 ? 8 : 0) + (offset64 ? 8 : 0);
 					temp.putInt(FastZipReader.CEN_HEADER);
 					temp.putShort((short) 0x31e);
-					temp.putShort((short) 20);
+					temp.putShort((short) (zip64 > 0 ? 45 : 20));
 					temp.putShort((short) 0);
 					temp.putShort(contents.compressionMethod);
-					temp.putInt((int) FastZipUtil.javaToDosTime(entry.lastMod));
+					temp.putInt((int) FastZipUtil.javaToDosTime(times[index]));
 					temp.putInt(contents.crc32);
-					temp.putInt((int) contents.compressedSize); // todo zip64
-					temp.putInt((int) contents.uncompressedSize);
+					temp.putInt(compressed64 ? (int) ZIP64_MAGIC : (int) contents.compressedSize);
+					temp.putInt(uncompressed64 ? (int) ZIP64_MAGIC : (int) contents.uncompressedSize);
 					temp.putShort((short) name.limit());
-					temp.putShort((short) 0); // todo zip64 extra
+					temp.putShort((short) (zip64 > 0 ? zip64 + 4 : 0)); // extra
 					temp.putShort((short) 0); // comment len
 					temp.putShort((short) 0); // disk
 					temp.putShort((short) 0); // internal file attributes
 					temp.putInt((short) 0); // external file attributes
-					temp.putInt((int) offsets[index++]);
+					temp.putInt(offset64 ? (int) ZIP64_MAGIC : (int) offset);
 					temp.flip();
 					channel.write(temp);
 					temp.clear();
-					channel.write(name);
+					channel.write(name.duplicate());
+					if(zip64 > 0) {
+						temp.putShort(FastZipReader.ZIP64_EXT_INFO_HEADER);
+						temp.putShort((short) zip64);
+						if(uncompressed64) {
+							temp.putLong(contents.uncompressedSize);
+						}
+						if(compressed64) {
+							temp.putLong(contents.compressedSize);
+						}
+						if(offset64) {
+							temp.putLong(offset);
+						}
+						temp.flip();
+						channel.write(temp);
+						temp.clear();
+					}
 				}
 				long end = channel.position();
 				
-				// eocd
+				// zip64 eocd and its locator, if the entry count or where the central directory is doesn't fit in the eocd
+				boolean zip64 = count >= 0xFFFF || end - start >= ZIP64_MAGIC || start >= ZIP64_MAGIC;
 				temp.clear();
+				if(zip64) {
+					temp.putInt(FastZipReader.EOCD64_HEADER);
+					temp.putLong(FastZipReader.EOCD64_LEN - 12); // size of the rest of the record
+					temp.putShort((short) 45); // version made by
+					temp.putShort((short) 45); // version needed
+					temp.putInt(0); // disk
+					temp.putInt(0); // disk the central directory starts on
+					temp.putLong(count);
+					temp.putLong(count);
+					temp.putLong(end - start);
+					temp.putLong(start);
+					temp.putInt(FastZipReader.EOCD64_LOCATOR_HEADER);
+					temp.putInt(0); // disk the zip64 eocd is on
+					temp.putLong(end);
+					temp.putInt(1); // disks
+				}
+				
+				// eocd
 				temp.putInt(FastZipReader.EOCD_HEADER);
 				temp.putShort((short) 0);
 				temp.putShort((short) 0);
-				temp.putShort((short) entries.size());
-				temp.putShort((short) entries.size());
-				temp.putInt((int) (end - start));
-				temp.putInt((int) start);
+				temp.putShort((short) (zip64 ? 0xFFFF : count));
+				temp.putShort((short) (zip64 ? 0xFFFF : count));
+				temp.putInt(zip64 ? (int) ZIP64_MAGIC : (int) (end - start));
+				temp.putInt(zip64 ? (int) ZIP64_MAGIC : (int) start);
 				temp.putShort((short) 0);
 				temp.flip();
 				channel.write(temp);
 				temp.clear();
+				phase.bytes = channel.position() - start;
+				phase.commit();
+			}
+			
+			phase = new FastZipEvents.FlushPhase(archive, "replace", entries.size());
+			phase.begin();
+			if(sibling) {
+				// the old version is still mapped, so it's replaced rather than overwritten
+				try {
+					Files.move(tempZip, this.zipfsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					phase.commit();
+					return published;
+				} catch(IOException e) {
+					// not supported, or the old version can't be replaced while it's mapped
+				}
+			}
+			Files.deleteIfExists(this.zipfsPath);
+			Files.copy(tempZip, this.zipfsPath);
+			phase.commit();
+		} finally {
+			Files.deleteIfExists(tempZip);
+		}
+		return published;
+	}
+	
+	/**
+	 * Reads the new version of the archive, and moves every entry whose contents haven't changed since they were written onto it, so they stop
+	 * referencing the old version and whatever was buffered in memory for them.
+	 *
+	 * @param published the contents of each entry that was written
+	 */
+	void publish(Map<ByteBuffer, FastZipEntry.ZipContents> published) throws IOException {
+		FastZipEvents.FlushPhase phase = new FastZipEvents.FlushPhase(this.zipfsPath + "", "publish", published.size());
+		phase.begin();
+		SharedArchive next = this.provider.acquire(this.zipfsPath, this.unmap);
+		SharedArchive old = this.shared;
+		this.publishing.incrementAndGet();
+		try {
+			for(FastZipEntry read : next.entries) {
+				FastZipEntry entry = this.paths.get(read.name);
+				FastZipEntry.ZipContents contents = published.get(read.name);
+				if(contents != null && read.contents != null) {
+					// the compressed data was written as is, so it still ends the way it did
+					read.contents.appendable = contents.appendable;
+				}
+				if(entry != null && contents != null && read.contents != null && entry.swap(contents, read.contents) && this.store != null) {
+					this.store.remove(contents);
+					if(read.contents.uncompressedSize > 0) {
+						this.store.add(read.contents, next);
+					}
+				}
+			}
+			this.shared = next;
+		} finally {
+			this.publishing.incrementAndGet();
+		}
+		if(this.store != null) {
+			this.store.evict(old);
+		}
+		this.provider.release(old);
+		phase.commit();
+	}
+	
+	/**
+	 * Writes an entry to a channel, stored entries, and deflated entries if the channel accepts the raw deflate stream, are transferred straight
+	 * from the archive's file channel. Other deflated entries are inflated through a pooled direct buffer, unless they are already decompressed.
+	 *
+	 * @param target a blocking channel
+	 * @param raw whether to write deflated entries as their raw deflate stream
+	 * @return the number of bytes written
+	 */
+	public long transferTo(Path path, WritableByteChannel target, boolean raw) throws IOException {
+		FastZipEntry entry = ((FastZipPath) path).getEntry(false);
+		if(entry == null || entry.contents == null) {
+			throw new FileNotFoundException(path + "");
+		}
+		
+		this.accessed(entry);
+		Pinned pinned = this.pinContents(entry);
+		try {
+			return this.transferTo(entry.name, pinned.contents(), target, raw);
+		} finally {
+			this.unpin(pinned);
+		}
+	}
+	
+	long transferTo(ByteBuffer name, FastZipEntry.ZipContents contents, WritableByteChannel target, boolean raw) throws IOException {
+		if(contents.compressionMethod == FastZipEntry.METHOD_STORED || (raw && contents.compressionMethod == FastZipEntry.METHOD_DEFLATED)) {
+			contents.compress();
+			return this.transferRange(contents.compressedData, contents.compressedOffset, contents.compressedSize, target);
+		}
+		
+		BigByteBuffer cached = contents.cached();
+		if(cached != null || contents.compressionMethod != FastZipEntry.METHOD_DEFLATED) {
+			BigByteBuffer data = contents.decompress(name);
+			return this.transferRange(data, contents.offset(data), contents.uncompressedSize, target);
+		}
+		
+		ByteBuffer buffer = TRANSFER_BUFFERS.pollFirst();
+		if(buffer == null) {
+			buffer = ByteBuffer.allocateDirect(EntryInflater.INPUT_CHUNK);
+		}
+		long written = 0;
+		try(EntryInflater inflater = new EntryInflater(contents, name)) {
+			while(true) {
+				buffer.clear();
+				if(inflater.inflate(buffer) < 0) {
+					break;
+				}
+				buffer.flip();
+				while(buffer.hasRemaining()) {
+					written += target.write(buffer);
+				}
 			}
+		} finally {
+			TRANSFER_BUFFERS.push(buffer);
+		}
+		return written;
+	}
+	
+	/**
+	 * Faults the central directory of the last published version of the archive into memory, so the first lookups after it was paged out
+	 * don't stall on the disk. Does nothing if the archive isn't mapped.
+	 */
+	public void loadCentralDirectory() throws IOException {
+		SharedArchive archive = this.pin();
+		try {
+			archive.buffer.prefetch(archive.centralStart, archive.centralSize);
+		} finally {
+			this.provider.release(archive);
+		}
+	}
+	
+	/**
+	 * Warms up the hot set of the access profile flushes are laid out with, "accessProfile" if it was given, otherwise what's been recorded.
+	 *
+	 * @see #warmUp(Collection, boolean, ExecutorService)
+	 */
+	public CompletableFuture<Long> warmUp(boolean inflate, ExecutorService executor) {
+		AccessProfile layout = this.layout;
+		return this.warmUp(layout == null ? List.of() : List.copyOf(layout.accesses.keySet()), inflate, executor);
+	}
+	
+	/**
+	 * Loads the central directory and faults the given entries into memory on a background thread, in the order they are in the archive rather
+	 * than the order they are given in, so services can read them after opening without stalling on page faults. Entries that don't exist or
+	 * were written since the archive was opened are skipped. The version being warmed up is pinned until it's done.
+	 *
+	 * @param inflate whether to also inflate deflated entries into the decompressed cache, which holds them until memory runs low
+	 * @param executor what to warm up on, or null for the threads asynchronous channels default to
+	 * @return how many bytes of the archive were prefetched, once it's done
+	 */
+	public CompletableFuture<Long> warmUp(Collection<? extends Path> paths, boolean inflate, ExecutorService executor) {
+		List<ByteBuffer> names = new ArrayList<>(paths.size());
+		for(Path path : paths) {
+			names.add(((FastZipPath) path).name);
+		}
+		return this.warmUp(names, inflate, executor);
+	}
+	
+	private CompletableFuture<Long> warmUp(List<ByteBuffer> names, boolean inflate, ExecutorService executor) {
+		record Target(ByteBuffer name, FastZipEntry.ZipContents contents) {}
+		SharedArchive archive = this.pin();
+		List<Target> targets = new ArrayList<>(names.size());
+		for(ByteBuffer name : names) {
+			FastZipEntry entry = this.paths.get(name);
+			if(entry != null && entry.contents != null && entry.contents.compressedData == archive.buffer) {
+				targets.add(new Target(entry.name, entry.contents));
+			}
+		}
+		targets.sort(Comparator.comparingLong(t -> t.contents.compressedOffset));
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					BigByteBuffer buffer = archive.buffer;
+					buffer.prefetch(archive.centralStart, archive.centralSize);
+					long prefetched = archive.centralSize, start = 0, end = 0;
+					for(Target target : targets) {
+						long offset = target.contents.compressedOffset, next = offset + target.contents.compressedSize;
+						if(end > start && (offset - end > WARM_UP_GAP || next - start > READ_AHEAD)) {
+							buffer.prefetch(start, end - start);
+							prefetched += end - start;
+							start = end = 0;
+						}
+						if(end == start) {
+							start = offset;
+						}
+						end = Math.max(end, next);
+					}
+					if(end > start) {
+						buffer.prefetch(start, end - start);
+						prefetched += end - start;
+					}
+					for(int i = 0; inflate && i < targets.size() && this.open.get(); i++) {
+						Target target = targets.get(i);
+						if(target.contents.compressionMethod == FastZipEntry.METHOD_DEFLATED) {
+							target.contents.decompress(target.name);
+						}
+					}
+					return prefetched;
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				} finally {
+					try {
+						this.provider.release(archive);
+					} catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			}, executor == null ? EntryAsynchronousFileChannel.defaultExecutor() : executor);
+		} catch(RuntimeException e) { // rejected
 			try {
-				Files.deleteIfExists(this.zipfsPath);
-				Files.copy(tempZip, this.zipfsPath);
-			} finally {
-				Files.deleteIfExists(tempZip);
+				this.provider.release(archive);
+			} catch(IOException suppressed) {
+				e.addSuppressed(suppressed);
 			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Receives entries from {@link #readAll(Collection, IntFunction, EntryReader)}
+	 */
+	public interface EntryReader {
+		/**
+		 * @param contents the uncompressed contents of the entry, between its position and limit
+		 */
+		void read(Path path, ByteBuffer contents) throws IOException;
+	}
+	
+	/**
+	 * Reads many entries at once, in the order they are in the archive rather than the order they are given in, so the archive is read front to
+	 * back with the next few entries prefetched, and a single inflater is reused for all of them. Entries written since the archive was opened are
+	 * read last.
+	 *
+	 * @param buffers allocates a buffer with at least the given number of bytes remaining for an entry, or null to reuse one buffer for every
+	 * entry, which is then only valid for the duration of {@link EntryReader#read(Path, ByteBuffer)}
+	 */
+	public void readAll(Collection<? extends Path> paths, IntFunction<ByteBuffer> buffers, EntryReader reader) throws IOException {
+		record Request(Path path, ByteBuffer name, Pinned pinned) {
+			FastZipEntry.ZipContents contents() {
+				return this.pinned.contents();
+			}
+		}
+		// every entry stays pinned until the whole read is done, so a flush can't release the versions they're read from in the meantime
+		List<Request> requests = new ArrayList<>(paths.size());
+		Inflater inflater = null;
+		try {
+			for(Path path : paths) {
+				FastZipEntry entry = ((FastZipPath) path).getEntry(false);
+				if(entry == null) {
+					throw new FileNotFoundException(path + "");
+				}
+				Request request = new Request(path, entry.name, this.pinContents(entry));
+				requests.add(request);
+				if(request.contents().uncompressedSize > Integer.MAX_VALUE - 8) {
+					throw new IOException(path + " is too large to read into a buffer");
+				}
+				this.accessed(entry);
+			}
+			// entries pinned before a flush are read from the version before it, which isn't prefetched, but is still safe to read
+			BigByteBuffer archive = this.shared.buffer;
+			requests.sort(Comparator.<Request>comparingInt(r -> r.contents().compressedData == archive ? 0 : 1)
+			                        .thenComparingLong(r -> r.contents().compressedOffset));
 			
+			inflater = BigByteBuffer.inflater();
+			ByteBuffer scratch = null;
+			long prefetched = 0;
+			for(int i = 0; i < requests.size(); i++) {
+				FastZipEntry.ZipContents contents = requests.get(i).contents();
+				if(contents.compressedData == archive && contents.compressedOffset + contents.compressedSize > prefetched) {
+					// prefetch this entry along with however many of the next ones fit in the read ahead window
+					long start = contents.compressedOffset, end = start + contents.compressedSize;
+					for(int j = i + 1; j < requests.size(); j++) {
+						FastZipEntry.ZipContents next = requests.get(j).contents();
+						long nextEnd = next.compressedOffset + next.compressedSize;
+						if(next.compressedData != archive || nextEnd - start > READ_AHEAD) {
+							break;
+						}
+						end = Math.max(end, nextEnd);
+					}
+					archive.prefetch(start, end - start);
+					prefetched = end;
+				}
+				
+				int size = (int) contents.uncompressedSize;
+				ByteBuffer dst;
+				if(buffers != null) {
+					dst = buffers.apply(size);
+				} else {
+					if(scratch == null || scratch.capacity() < size) {
+						scratch = ByteBuffer.allocate(Math.max(size, scratch == null ? 8192 : (int) Math.min(scratch.capacity() * 2L, Integer.MAX_VALUE - 8)));
+					}
+					dst = scratch.clear();
+				}
+				int start = dst.position();
+				dst.limit(start + size);
+				readInto(requests.get(i).name, contents, inflater, dst);
+				dst.flip().position(start);
+				reader.read(requests.get(i).path, dst);
+			}
+		} finally {
+			if(inflater != null) {
+				inflater.reset();
+				BigByteBuffer.INFLATERS.push(inflater);
+			}
+			IOException failure = null;
+			for(Request request : requests) {
+				try {
+					this.unpin(request.pinned);
+				} catch(IOException e) {
+					if(failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+			if(failure != null) {
+				throw failure;
+			}
+		}
+	}
+	
+	static void readInto(ByteBuffer name, FastZipEntry.ZipContents contents, Inflater inflater, ByteBuffer dst) throws IOException {
+		BigByteBuffer cached = contents.cached();
+		if(cached == null && contents.compressionMethod == FastZipEntry.METHOD_STORED && contents.compressedData != null) {
+			contents.compressedData.segmentedInsert(dst::put, contents.compressedOffset, dst.remaining());
+		} else if(cached != null || contents.compressionMethod != FastZipEntry.METHOD_DEFLATED) {
+			BigByteBuffer data = contents.decompress(name);
+			data.segmentedInsert(dst::put, contents.offset(data), dst.remaining());
+		} else {
+			FastZipEvents.Decompress event = new FastZipEvents.Decompress();
+			event.begin();
+			inflater.reset();
+			long start = System.nanoTime();
+			int position = dst.position();
+			try {
+				contents.compressedData.segmentedInsert(buffer -> {
+					try {
+						inflater.setInput(buffer);
+						while(!inflater.needsInput() && !inflater.finished() && dst.hasRemaining()) {
+							inflater.inflate(dst);
+						}
+					} catch(DataFormatException e) {
+						throw new UncheckedIOException(new ZipException(e.getMessage()));
+					}
+				}, contents.compressedOffset, contents.compressedSize);
+			} catch(UncheckedIOException e) {
+				throw e.getCause();
+			}
+			if(dst.hasRemaining() || !inflater.finished()) {
+				throw new ZipException("Reported Inflated size != Actual Inflated Size");
+			}
+			long time = System.nanoTime() - start;
+			FastZipStats.inflated(dst.position() - position, time);
+			event.end();
+			if(event.shouldCommit()) {
+				event.set(name, contents);
+				event.inflateTime = time;
+				event.commit();
+			}
+		}
+	}
+	
+	long transferRange(BigByteBuffer buffer, long offset, long length, WritableByteChannel target) throws IOException {
+		long written = 0;
+		SharedArchive shared = this.shared;
+		if(buffer == shared.buffer && shared.channel != null && shared.pin()) { // pinned so a flush can't close the channel mid transfer
+			try {
+				while(written < length) {
+					long transferred = shared.channel.transferTo(offset + written, length - written, target);
+					if(transferred <= 0) {
+						break;
+					}
+					written += transferred;
+				}
+				return written;
+			} finally {
+				this.provider.release(shared);
+			}
+		}
+		
+		try {
+			return buffer.segmentedInsert0(slice -> {
+				try {
+					while(slice.hasRemaining()) {
+						target.write(slice);
+					}
+					return slice.limit();
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, offset, length);
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
 		}
 	}
 	
@@ -334,7 +1378,7 @@ class FastZipFS extends FileSystem {
 	
 	@Override
 	public boolean isOpen() {
-		return this.isOpen;
+		return this.open.get();
 	}
 	
 	@Override
@@ -2,9 +2,13 @@ package net.devtech.fastzipfilesystem;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
@@ -15,11 +19,13 @@ import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -27,11 +33,14 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.stream.IntStream;
 import java.util.zip.ZipException;
 
 class FastZipFSProvider extends FileSystemProvider {
@@ -40,6 +49,7 @@ class FastZipFSProvider extends FileSystemProvider {
 	// todo in amalg add a zip-io-like system to avoid iteration and
 	
 	final Map<Path, FastZipFS> filesystems = new ConcurrentHashMap<>();
+	final ConcurrentMap<SharedArchive.Key, SharedArchive> archives = new ConcurrentHashMap<>();
 	
 	@Override
 	public String getScheme() {
@@ -116,6 +126,36 @@ class FastZipFSProvider extends FileSystemProvider {
 		return zipfs;
 	}
 	
+	/**
+	 * Opens a read only union of the archives, in priority order, which are mapped and parsed in parallel
+	 *
+	 * @see FastZipUnionFS
+	 */
+	public FileSystem newUnionFileSystem(List<? extends Path> archives, Map<String, ?> env) throws IOException {
+		boolean unmap = "true".equals(env.get("unmapOnClose"));
+		FastZipUnionFS.Member[] members = new FastZipUnionFS.Member[archives.size()];
+		try {
+			IntStream.range(0, members.length).parallel().forEach(i -> {
+				try {
+					members[i] = new FastZipUnionFS.Member(this, archives.get(i), this.acquire(archives.get(i), unmap));
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch(RuntimeException e) {
+			for(FastZipUnionFS.Member member : members) {
+				if(member != null) {
+					this.release(member.archive());
+				}
+			}
+			if(e instanceof UncheckedIOException u) {
+				throw u.getCause();
+			}
+			throw e;
+		}
+		return new FastZipUnionFS(this, List.of(members), env);
+	}
+	
 	FastZipFS getZipFileSystem(Path path, Map<String, ?> env) throws IOException {
 		try {
 			return new FastZipFS(this, path, env);
@@ -128,6 +168,54 @@ class FastZipFSProvider extends FileSystemProvider {
 		}
 	}
 	
+	/**
+	 * @param unmap whether the archive should be unmapped as soon as it is released for the last time, it's only unmapped if everything that
+	 * acquired it asked for it
+	 * @return the shared mapping of the archive, archives that aren't files in the default filesystem aren't shared
+	 */
+	SharedArchive acquire(Path path, boolean unmap) throws IOException {
+		if(path.getFileSystem() != FileSystems.getDefault()) {
+			return SharedArchive.open(null, path);
+		}
+		Path real = path.toRealPath();
+		BasicFileAttributes attributes = Files.readAttributes(real, BasicFileAttributes.class);
+		SharedArchive.Key key = new SharedArchive.Key(real, attributes.fileKey(), attributes.lastModifiedTime());
+		try {
+			return this.archives.compute(key, (k, archive) -> {
+				if(archive == null || !archive.pin()) { // an archive that's being closed is replaced
+					try {
+						archive = SharedArchive.open(k, real);
+					} catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					archive.unmap = unmap;
+				} else {
+					// only unmapped if every filesystem reading it asked, the others still read entry names out of it after it's released
+					archive.unmap &= unmap;
+				}
+				return archive;
+			});
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * @return what every filesystem has done, and what the open ones are holding
+	 */
+	public FastZipStats.Sample stats() {
+		return FastZipStats.GLOBAL.sample();
+	}
+	
+	void release(SharedArchive archive) throws IOException {
+		if(archive.unpin()) {
+			if(archive.key != null) {
+				this.archives.remove(archive.key, archive);
+			}
+			archive.close();
+		}
+	}
+	
 	@Override
 	public Path getPath(URI uri) {
 		String spec = uri.getSchemeSpecificPart();
@@ -141,31 +229,90 @@ class FastZipFSProvider extends FileSystemProvider {
 	@Override
 	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
 		FastZipPath path1 = (FastZipPath) path;
+		FastZipEntry entry = this.openEntry(path1, options);
+		
+		if(options.contains(StandardOpenOption.APPEND)) {
+			return new WriteEntryByteChannel(entry, true, path1.fs);
+		} else if(options.contains(StandardOpenOption.WRITE)) {
+			return new WriteEntryByteChannel(entry, false, path1.fs);
+		} else {
+			path1.fs.accessed(entry);
+			return new ReadEntryByteChannel(path1.fs, entry);
+		}
+	}
+	
+	/**
+	 * @return the entry to open, created if the options ask for it
+	 * @throws ReadOnlyFileSystemException if the options write to a read only filesystem, before anything is created
+	 */
+	FastZipEntry openEntry(FastZipPath path, Set<? extends OpenOption> options) throws IOException {
+		if(path.fs.isReadOnly() && (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND) ||
+		                            options.contains(StandardOpenOption.CREATE) || options.contains(StandardOpenOption.CREATE_NEW) ||
+		                            options.contains(StandardOpenOption.TRUNCATE_EXISTING))) {
+			throw new ReadOnlyFileSystemException();
+		}
 		FastZipEntry entry;
 		if(options.contains(StandardOpenOption.CREATE_NEW)) {
-			if(path1.getEntry(false) != null) {
+			if(path.getEntry(false) != null) {
 				throw new FileAlreadyExistsException(path + "");
 			} else {
-				entry = path1.getOrCreateEntry(false);
+				entry = path.getOrCreateEntry(false);
 			}
 		} else if(options.contains(StandardOpenOption.CREATE)) {
-			entry = path1.getOrCreateEntry(false);
+			entry = path.getOrCreateEntry(false);
 		} else {
-			entry = path1.getEntry(false);
+			entry = path.getEntry(false);
 			if(entry == null) {
 				throw new FileNotFoundException(path + "");
 			}
 		}
-		
-		if(options.contains(StandardOpenOption.APPEND)) {
-			path1.fs.dirty = true;
-			return new WriteEntryByteChannel(entry, true);
-		} else if(options.contains(StandardOpenOption.WRITE)) {
-			path1.fs.dirty = true;
-			return new WriteEntryByteChannel(entry, false);
-		} else {
-			return new ReadEntryByteChannel(entry);
+		return entry;
+	}
+	
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+		for(OpenOption option : options) {
+			if(option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND) {
+				throw new UnsupportedOperationException("'" + option + "' not allowed");
+			}
+		}
+		FastZipPath path1 = (FastZipPath) path;
+		FastZipEntry entry = path1.getEntry(false);
+		if(entry == null || entry.contents == null) {
+			throw new FileNotFoundException(path + "");
+		}
+		path1.fs.accessed(entry);
+		return new EntryInputStream(path1.fs, entry);
+	}
+	
+	@Override
+	public OutputStream newOutputStream(Path path, OpenOption... options) throws IOException {
+		Set<OpenOption> opts = options.length == 0 ? Set.of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING) : Set.of(options);
+		if(((FastZipPath) path).fs.isReadOnly()) {
+			throw new ReadOnlyFileSystemException();
+		} else if(opts.contains(StandardOpenOption.READ)) {
+			throw new IllegalArgumentException("READ not allowed");
+		} else if(opts.contains(StandardOpenOption.APPEND)) {
+			// appends go through the channel, which doesn't recompress the existing contents
+			return super.newOutputStream(path, options);
+		}
+		FastZipPath path1 = (FastZipPath) path;
+		FastZipEntry entry = this.openEntry(path1, opts);
+		return new EntryOutputStream(path1.fs, entry);
+	}
+	
+	@Override
+	public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			throw new UnsupportedOperationException("Entry file channels are read only");
+		}
+		FastZipPath path1 = (FastZipPath) path;
+		FastZipEntry entry = path1.getEntry(false);
+		if(entry == null || entry.contents == null) {
+			throw new FileNotFoundException(path + "");
 		}
+		path1.fs.accessed(entry);
+		return new EntryFileChannel(path1.fs, entry);
 	}
 	
 	@Override
@@ -179,22 +326,15 @@ class FastZipFSProvider extends FileSystemProvider {
 			throw new FileAlreadyExistsException(fdir + "");
 		}
 		fdir.getOrCreateEntry(true);
-		fdir.fs.dirty = true;
 	}
 	
 	@Override
 	public void delete(Path path) throws IOException {
 		FastZipPath del = (FastZipPath) path;
 		FastZipEntry entry = del.getAnyEntry();
-		if(entry == null) {
-			throw new FileNotFoundException(path + "");
-		} else if(!entry.children.isEmpty()) {
-			throw new DirectoryNotEmptyException(path + "");
-		} else if(!del.fs.removePath(del)) {
+		if(entry == null || !del.fs.removePath(del, entry)) {
 			throw new FileNotFoundException(path + "");
 		}
-		
-		del.fs.dirty = true;
 	}
 	
 	@Override
@@ -216,18 +356,42 @@ class FastZipFSProvider extends FileSystemProvider {
 			throw new DirectoryNotEmptyException(entry + "");
 		}
 		
-		// todo only copy attributes if specified
-		FastZipEntry entry1 = to.getOrCreateEntry(maybeDir);
-		FastZipPath mod = to;
-		long time = System.currentTimeMillis();
-		do {
-			entry1.lastMod = time;
-		} while((mod = mod.getParent()) != null);
-		
-		if(!maybeDir) {
-			entry1.contents = entry.contents;
+		// pinned before the target is created, so a source that was deleted meanwhile fails the copy instead of leaving an empty target
+		FastZipFS.Pinned pinned = maybeDir ? null : from.fs.pinContents(entry);
+		boolean borrowed = false;
+		try {
+			// todo only copy attributes if specified
+			FastZipEntry entry1 = to.getOrCreateEntry(maybeDir);
+			FastZipPath mod = to;
+			long time = System.currentTimeMillis();
+			do {
+				entry1.lastMod = time;
+			} while((mod = mod.getParent()) != null);
+			
+			if(pinned == null) {
+				to.fs.modified();
+				return;
+			}
+			FastZipEntry.ZipContents contents = pinned.contents();
+			if(from.fs == to.fs) {
+				to.fs.setContents(entry1, contents);
+			} else {
+				// the compressed data is carried over as is, and read from the source's archive until the target is flushed
+				SharedArchive archive = pinned.archive();
+				if(archive == null && contents.compressedData != null) {
+					contents = contents.detached();
+				}
+				to.fs.setContents(entry1, contents);
+				if(archive != null) {
+					to.fs.borrow(archive, contents.compressedData);
+					borrowed = true;
+				}
+			}
+		} finally {
+			if(pinned != null && !borrowed) {
+				from.fs.unpin(pinned);
+			}
 		}
-		to.fs.dirty = true;
 	}
 	
 	@Override
@@ -309,6 +473,15 @@ class FastZipFSProvider extends FileSystemProvider {
 	@Override
 	public AsynchronousFileChannel newAsynchronousFileChannel(
 			Path path, Set<? extends OpenOption> options, ExecutorService executor, FileAttribute<?>... attrs) throws IOException {
-		throw new UnsupportedOperationException();
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			throw new UnsupportedOperationException("Entry asynchronous file channels are read only");
+		}
+		FastZipPath path1 = (FastZipPath) path;
+		FastZipEntry entry = path1.getEntry(false);
+		if(entry == null || entry.contents == null) {
+			throw new FileNotFoundException(path + "");
+		}
+		path1.fs.accessed(entry);
+		return new EntryAsynchronousFileChannel(path1.fs, entry, executor);
 	}
 }
@@ -89,12 +89,12 @@ class FastZipPath implements Path {
 		if(dir) {
 			entry = this.dirEntry;
 			if(entry == null || !entry.valid) {
-				entry = this.dirEntry = this.fs.paths.get(FastZipFS.absoluteName(name, true));
+				entry = this.dirEntry = this.fs.lookup(FastZipFS.absoluteName(name, true));
 			}
 		} else {
 			entry = this.entry;
 			if(entry == null || !entry.valid) {
-				entry = this.entry = this.fs.paths.get(this.name);
+				entry = this.entry = this.fs.lookup(this.name);
 			}
 		}
 		return entry;
@@ -289,7 +289,7 @@ class FastZipPath implements Path {
 	@Override
 	public URI toUri() {
 		try {
-			return new URI("jar", FastZipUtil.decodeUri(this.fs.zipfsPath.toUri().toString()) + "!" + this.toAbsolutePath(), null);
+			return new URI("jar", FastZipUtil.decodeUri(this.fs.archive(this.name).toUri().toString()) + "!" + this.toAbsolutePath(), null);
 		} catch(Exception ex) {
 			throw new AssertionError(ex);
 		}
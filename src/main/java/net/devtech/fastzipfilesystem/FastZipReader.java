@@ -15,7 +15,11 @@ class FastZipReader {
 	static final int CEN_HEADER = 0x02014b50;
 	static final short ZIP64_EXT_INFO_HEADER = 0x0001;
 	
-	record CentralInformation(BigByteBuffer comment) {}
+	/**
+	 * @param centralStart where the central directory starts in the archive
+	 * @param centralSize the size of the central directory, in bytes
+	 */
+	record CentralInformation(BigByteBuffer comment, long centralStart, long centralSize) {}
 	
 	static CentralInformation read(BigByteBuffer buffer, Consumer<FastZipEntry> reader, Runnable clearState) throws IOException {
 		EOCD eocd = null;
@@ -43,6 +47,30 @@ class FastZipReader {
 					entry.externalFileAttributes = entryBuf.getInt(38);
 					int extraLen = entryBuf.getShort(30) & 0xFFFF;
 					long baseOffset = entryBuf.getInt(42) & 0xFFFFFFFFL;
+					
+					if(extraLen > 0) {
+						ByteBuffer extra = buffer.slice(start + 46 + nameLen, extraLen);
+						// extra fields are a header id and a data size, then the data, the zip64 one only has the fields that overflowed, in this order
+						for(int block = 0; block + 4 <= extraLen; ) {
+							int id = extra.getShort(block) & 0xFFFF, size = extra.getShort(block + 2) & 0xFFFF;
+							int field = block + 4, end = Math.min(field + size, extraLen);
+							if(id == ZIP64_EXT_INFO_HEADER) {
+								if(uncompressedSize == 0xFFFFFFFFL && field + 8 <= end) {
+									uncompressedSize = extra.getLong(field);
+									field += 8;
+								}
+								if(compressedSize == 0xFFFFFFFFL && field + 8 <= end) {
+									compressedSize = extra.getLong(field);
+									field += 8;
+								}
+								if(baseOffset == 0xFFFFFFFFL && field + 8 <= end) {
+									baseOffset = extra.getLong(field);
+								}
+							}
+							block = end;
+						}
+					}
+					
 					ByteBuffer localHeader = buffer.slice(baseOffset, 30);
 					int signature = localHeader.getInt(0);
 					if(signature != LOC_HEADER) {
@@ -54,34 +82,6 @@ class FastZipReader {
 					int commentLen = entryBuf.getShort(32) & 0xFFFF;
 					entry.comment = buffer.slice(start + 46 + nameLen + extraLen, commentLen);
 					
-					if(extraLen > 0) {
-						ByteBuffer extra = buffer.slice(start + 46 + nameLen, extraLen);
-						
-						int extraOffset = 0;
-						while(extraOffset < extraLen) {
-							short aShort = extra.getShort(0);
-							if(aShort == ZIP64_EXT_INFO_HEADER && eocd.zip64) {
-								int size = extra.getShort(2) & 0xFFFF;
-								if(uncompressedSize == 0xFFFFFFFFL && extraOffset < size) {
-									uncompressedSize = extra.getLong(4 + extraOffset);
-									extraOffset += 8;
-								}
-								
-								if(compressedSize == 0xFFFFFFFFL && extraOffset < size) {
-									uncompressedSize = extra.getLong(4 + extraOffset);
-									extraOffset += 8;
-								}
-								
-								if(compressedOffset == 0xFFFFFFFFL && extraOffset < size) {
-									compressedOffset = extra.getLong(4 + extraOffset);
-									extraOffset += 8;
-								}
-							} else {
-								break;
-							}
-						}
-					}
-					
 					FastZipEntry.ZipContents contents = new FastZipEntry.ZipContents();
 					contents.compressedData = buffer;
 					contents.compressedSize = compressedSize;
@@ -93,8 +93,9 @@ class FastZipReader {
 					start += 46 + nameLen + extraLen + commentLen;
 					reader.accept(entry);
 				}
-				BigByteBuffer comment = new BigByteBuffer(buffer, buffer.size - eocd.commentLength, eocd.commentLength);
-				return new CentralInformation(comment);
+				// commentLength is where the eocd ends, and the comment starts
+				BigByteBuffer comment = new BigByteBuffer(buffer, eocd.commentLength, buffer.size - eocd.commentLength);
+				return new CentralInformation(comment, eocd.headerStart, start - eocd.headerStart);
 			} catch(Throwable t) {
 				exceptions.add(t);
 			}
@@ -110,44 +111,45 @@ class FastZipReader {
 		throw new EOFException("Unable to find End of Central Directory Record!");
 	}
 	
-	static final int EOCD_HEADER = 0x06054B50, EOCD64_HEADER = 0x06064B50;
+	static final int EOCD_HEADER = 0x06054B50, EOCD64_HEADER = 0x06064B50, EOCD64_LOCATOR_HEADER = 0x07064B50;
+	static final int EOCD_LEN = 22, EOCD64_LOCATOR_LEN = 20, EOCD64_LEN = 56;
 	
-	@SuppressWarnings("PointlessArithmeticExpression")
-	static EOCD nextEOCDCandidate(BigByteBuffer copy, EOCD last) {
-		long start = last == null ? copy.size : last.commentLength - 1;
-		final int bufLen = 56, zip64EOCDLen = 56, zipEOCDLen = 22;
-		ByteBuffer buf = ByteBuffer.allocate(bufLen).order(ByteOrder.LITTLE_ENDIAN);
-		// converts relative eocd pos to buffer position because we are reading this backwards
-		while(true) {
-			long position = start - bufLen;
-			if(position < 0) {
-				return null;
+	/**
+	 * Scans backwards from the last candidate for an end of central directory record whose comment runs exactly to the end of the archive. If
+	 * any of its fields overflowed and it is preceded by a zip64 locator, the zip64 record's values are used instead.
+	 */
+	static EOCD nextEOCDCandidate(BigByteBuffer buffer, EOCD last) {
+		long start = (last == null ? buffer.size : last.commentLength - 1) - EOCD_LEN;
+		// the comment is at most 0xFFFF bytes long, so the record is somewhere in the last 0xFFFF + 22 bytes
+		long min = Math.max(0, buffer.size - EOCD_LEN - 0xFFFF);
+		if(start < min) {
+			return null;
+		}
+		ByteBuffer tail = buffer.slice(min, (int) (start - min + EOCD_LEN));
+		for(long position = start; position >= min; position--) {
+			int at = (int) (position - min);
+			if(tail.getInt(at) != EOCD_HEADER || (tail.getShort(at + 20) & 0xFFFF) != buffer.size - position - EOCD_LEN) {
+				continue;
 			}
-			copy.read(position, buf, 0, buf.capacity());
-			int zipOff = bufLen - zipEOCDLen;
-			int zip32Header = buf.getInt(zipOff + 0);
-			
-			// if the header is right, and the comment length is right, then the chance of reading this zip file incorrectly is
-			//  approximately (1+n)/intmax where n is the size of the comment
-			if(zip32Header == EOCD_HEADER && buf.getShort(zipOff + 20) == (copy.size - start)) { // todo check for zip64
-				short disk = buf.getShort(zipOff + 4);
-				short diskStart = buf.getShort(zipOff + 6);
-				short cens = buf.getShort(zipOff + 8);
-				short totalCens = buf.getShort(zipOff + 10);
-				int size = buf.getInt(zipOff + 12);
-				int offset = buf.getInt(zipOff + 16);
-				if(disk != -1 || diskStart != -1 || cens != -1 || totalCens != -1 || size != -1 || offset != -1) {
-					return new EOCD(offset & 0xFFFFFFFFL, start, totalCens, false);
+			long entries = tail.getShort(at + 10) & 0xFFFF;
+			long offset = tail.getInt(at + 16) & 0xFFFFFFFFL;
+			long end = position + EOCD_LEN;
+			long locator = position - EOCD64_LOCATOR_LEN;
+			if((entries == 0xFFFF || offset == 0xFFFFFFFFL) && locator >= 0) {
+				ByteBuffer loc = buffer.slice(locator, EOCD64_LOCATOR_LEN);
+				long record = loc.getLong(8);
+				if(loc.getInt(0) == EOCD64_LOCATOR_HEADER && record >= 0 && record + EOCD64_LEN <= locator) {
+					ByteBuffer eocd64 = buffer.slice(record, EOCD64_LEN);
+					if(eocd64.getInt(0) == EOCD64_HEADER) {
+						return new EOCD(eocd64.getLong(48), end, eocd64.getLong(32), true);
+					}
 				}
 			}
-			
-			int zip64Header = buf.getInt(zip64EOCDLen - 56);
-			if(zip64Header == EOCD64_HEADER && (buf.getLong(4) + 12) == ((copy.size - start) + 56)) {
-				return new EOCD(buf.getLong(48), start, buf.getLong(32), true);
+			if(offset <= position) {
+				return new EOCD(offset, end, entries, false);
 			}
-			
-			start--;
 		}
+		return null;
 	}
 	
 	record EOCD(long headerStart, long commentLength, long directories, boolean zip64) {}
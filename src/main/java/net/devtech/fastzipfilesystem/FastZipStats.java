@@ -0,0 +1,328 @@
+package net.devtech.fastzipfilesystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and gauges for what a filesystem is doing. Counters are {@link LongAdder}s, so threads counting at once don't contend, and what a
+ * filesystem counted is added to {@link #GLOBAL} when it is closed, so it is only counted once while it's open. Inflating and the codec pools
+ * happen below any one filesystem, so they are only counted in {@link #GLOBAL}.
+ * Collection is on unless the "fastzipfs.metrics" system property is "false", or per filesystem, "metrics" is "false". Filesystems opened with
+ * "jmx" set to "true" are registered as MBeans, and so are the provider wide stats the first time one is.
+ */
+final class FastZipStats implements FastZipStatsMBean {
+	static final boolean ENABLED = !"false".equals(System.getProperty("fastzipfs.metrics"));
+	static final String DOMAIN = "net.devtech.fastzipfilesystem";
+	static final FastZipStats GLOBAL = new FastZipStats(null);
+	/**
+	 * the stats of every open filesystem, for the provider wide gauges
+	 */
+	static final Set<FastZipStats> OPEN = ConcurrentHashMap.newKeySet();
+	static final AtomicLong MAPPED = new AtomicLong(), IDS = new AtomicLong();
+	
+	/**
+	 * null for {@link #GLOBAL}
+	 */
+	final FastZipFS fs;
+	final LongAdder openNanos = new LongAdder(), lookups = new LongAdder(), hits = new LongAdder();
+	final LongAdder inflatedBytes = new LongAdder(), inflateNanos = new LongAdder(), deflatedBytes = new LongAdder(), deflateNanos = new LongAdder();
+	final LongAdder cachedBytes = new LongAdder(), cacheEvictions = new LongAdder(), inflaterMisses = new LongAdder(), deflaterMisses = new LongAdder();
+	final LongAdder flushes = new LongAdder(), flushNanos = new LongAdder(), flushedBytes = new LongAdder();
+	ObjectName name;
+	
+	FastZipStats(FastZipFS fs) {
+		this.fs = fs;
+	}
+	
+	/**
+	 * @return the filesystem's stats, or null if they aren't collected
+	 */
+	static FastZipStats open(FastZipFS fs, Map<String, ?> config) {
+		if(!ENABLED || "false".equals(config.get("metrics"))) {
+			return null;
+		}
+		return new FastZipStats(fs);
+	}
+	
+	/**
+	 * Counts the filesystem as open, and registers it if it was opened with "jmx"
+	 */
+	void opened(long nanos, boolean jmx) {
+		this.openNanos.add(nanos);
+		OPEN.add(this);
+		if(jmx) {
+			try {
+				ObjectName name = new ObjectName(DOMAIN + ":type=FileSystem,name=" + ObjectName.quote(this.fs.zipfsPath + "") + ",id=" +
+				                                 IDS.incrementAndGet());
+				register(GLOBAL, new ObjectName(DOMAIN, "type", "Provider"));
+				register(this, name);
+				this.name = name;
+			} catch(JMException e) {
+				throw new IllegalStateException("Unable to register " + this.fs.zipfsPath, e);
+			}
+		}
+	}
+	
+	static void register(FastZipStats stats, ObjectName name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(!server.isRegistered(name)) {
+			try {
+				server.registerMBean(stats, name);
+			} catch(InstanceAlreadyExistsException e) {
+				// registered concurrently
+			}
+		}
+	}
+	
+	void closed() {
+		if(OPEN.remove(this)) {
+			GLOBAL.openNanos.add(this.openNanos.sum());
+			GLOBAL.lookups.add(this.lookups.sum());
+			GLOBAL.hits.add(this.hits.sum());
+			GLOBAL.flushes.add(this.flushes.sum());
+			GLOBAL.flushNanos.add(this.flushNanos.sum());
+			GLOBAL.flushedBytes.add(this.flushedBytes.sum());
+		}
+		ObjectName name = this.name;
+		if(name != null) {
+			this.name = null;
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch(JMException e) {
+				// already unregistered
+			}
+		}
+	}
+	
+	void lookup(boolean hit) {
+		this.lookups.increment();
+		if(hit) {
+			this.hits.increment();
+		}
+	}
+	
+	void flushed(long nanos, long bytes) {
+		this.flushes.increment();
+		this.flushNanos.add(nanos);
+		this.flushedBytes.add(bytes);
+	}
+	
+	/**
+	 * @return the counter, and for {@link #GLOBAL}, what the open filesystems have counted so far
+	 */
+	long sum(Function<FastZipStats, LongAdder> counter) {
+		long sum = counter.apply(this).sum();
+		if(this.fs == null) {
+			for(FastZipStats stats : OPEN) {
+				sum += counter.apply(stats).sum();
+			}
+		}
+		return sum;
+	}
+	
+	static void inflated(long bytes, long nanos) {
+		if(ENABLED) {
+			GLOBAL.inflatedBytes.add(bytes);
+			GLOBAL.inflateNanos.add(nanos);
+		}
+	}
+	
+	/**
+	 * Deflating is counted per filesystem by its {@link CompressionPolicy}, this only counts it provider wide
+	 */
+	static void deflated(long bytes, long nanos) {
+		if(ENABLED) {
+			GLOBAL.deflatedBytes.add(bytes);
+			GLOBAL.deflateNanos.add(nanos);
+		}
+	}
+	
+	/**
+	 * @param evicted whether the contents were cached before, and were collected
+	 */
+	static void cached(long bytes, boolean evicted) {
+		if(ENABLED) {
+			GLOBAL.cachedBytes.add(bytes);
+			if(evicted) {
+				GLOBAL.cacheEvictions.increment();
+			}
+		}
+	}
+	
+	static void inflaterMiss() {
+		if(ENABLED) {
+			GLOBAL.inflaterMisses.increment();
+		}
+	}
+	
+	static void deflaterMiss() {
+		if(ENABLED) {
+			GLOBAL.deflaterMisses.increment();
+		}
+	}
+	
+	static void mapped(long bytes) {
+		if(ENABLED) {
+			MAPPED.addAndGet(bytes);
+		}
+	}
+	
+	/**
+	 * The stats at one point in time, each value is read separately, so they aren't necessarily consistent with each other
+	 */
+	public record Sample(long entries, long openNanos, long lookups, long hits, long inflatedBytes, long inflateNanos, long deflatedBytes,
+	                     long deflateNanos, long cachedBytes, long cacheEvictions, int inflaterPoolSize, long inflaterMisses, int deflaterPoolSize,
+	                     long deflaterMisses, long mappedBytes, long pendingBytes, long flushes, long flushNanos, long flushedBytes) {
+		public double hitRatio() {
+			return this.lookups == 0 ? 0 : this.hits / (double) this.lookups;
+		}
+	}
+	
+	Sample sample() {
+		return new Sample(this.getEntries(), this.getOpenNanos(), this.getLookups(), this.getHits(), this.getInflatedBytes(), this.getInflateNanos(),
+				this.getDeflatedBytes(), this.getDeflateNanos(), this.getCachedBytes(), this.getCacheEvictions(), this.getInflaterPoolSize(),
+				this.getInflaterMisses(), this.getDeflaterPoolSize(), this.getDeflaterMisses(), this.getMappedBytes(), this.getPendingBytes(),
+				this.getFlushes(), this.getFlushNanos(), this.getFlushedBytes());
+	}
+	
+	@Override
+	public long getEntries() {
+		if(this.fs != null) {
+			return this.fs.paths.size();
+		}
+		long entries = 0;
+		for(FastZipStats stats : OPEN) {
+			entries += stats.fs.paths.size();
+		}
+		return entries;
+	}
+	
+	@Override
+	public long getOpenNanos() {
+		return this.sum(s -> s.openNanos);
+	}
+	
+	@Override
+	public long getLookups() {
+		return this.sum(s -> s.lookups);
+	}
+	
+	@Override
+	public long getHits() {
+		return this.sum(s -> s.hits);
+	}
+	
+	@Override
+	public double getHitRatio() {
+		long lookups = this.getLookups();
+		return lookups == 0 ? 0 : this.getHits() / (double) lookups;
+	}
+	
+	@Override
+	public long getInflatedBytes() {
+		return GLOBAL.inflatedBytes.sum();
+	}
+	
+	@Override
+	public long getInflateNanos() {
+		return GLOBAL.inflateNanos.sum();
+	}
+	
+	@Override
+	public long getDeflatedBytes() {
+		return this.fs == null ? this.deflatedBytes.sum() : this.fs.compression.stats.deflatedBytes.sum();
+	}
+	
+	@Override
+	public long getDeflateNanos() {
+		return this.fs == null ? this.deflateNanos.sum() : this.fs.compression.stats.deflateNanos.sum();
+	}
+	
+	@Override
+	public long getCachedBytes() {
+		return GLOBAL.cachedBytes.sum();
+	}
+	
+	@Override
+	public long getCacheEvictions() {
+		return GLOBAL.cacheEvictions.sum();
+	}
+	
+	@Override
+	public int getInflaterPoolSize() {
+		return BigByteBuffer.INFLATERS.size();
+	}
+	
+	@Override
+	public long getInflaterMisses() {
+		return GLOBAL.inflaterMisses.sum();
+	}
+	
+	@Override
+	public int getDeflaterPoolSize() {
+		return FastZipEntry.DEFLATERS.size();
+	}
+	
+	@Override
+	public long getDeflaterMisses() {
+		return GLOBAL.deflaterMisses.sum();
+	}
+	
+	@Override
+	public long getMappedBytes() {
+		if(this.fs == null) {
+			return MAPPED.get();
+		}
+		SharedArchive shared = this.fs.shared;
+		return shared.channel != null ? shared.buffer.size : 0;
+	}
+	
+	@Override
+	public long getPendingBytes() {
+		if(this.fs == null) {
+			long pending = 0;
+			for(FastZipStats stats : OPEN) {
+				pending += stats.getPendingBytes();
+			}
+			return pending;
+		}
+		BigByteBuffer archive = this.fs.shared.buffer;
+		long pending = 0;
+		for(FastZipEntry entry : this.fs.paths.values()) {
+			FastZipEntry.ZipContents contents = entry.contents;
+			if(contents != null && contents.compressedData != archive) {
+				pending += contents.uncompressedSize;
+			}
+		}
+		return pending;
+	}
+	
+	@Override
+	public long getFlushes() {
+		return this.sum(s -> s.flushes);
+	}
+	
+	@Override
+	public long getFlushNanos() {
+		return this.sum(s -> s.flushNanos);
+	}
+	
+	@Override
+	public long getFlushedBytes() {
+		return this.sum(s -> s.flushedBytes);
+	}
+	
+	@Override
+	public String toString() {
+		return this.sample().toString();
+	}
+}
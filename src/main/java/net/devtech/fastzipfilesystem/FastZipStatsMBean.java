@@ -0,0 +1,62 @@
+package net.devtech.fastzipfilesystem;
+
+/**
+ * What {@link FastZipStats} exposes over JMX, times are in nanoseconds. Inflating and the codec pools aren't done on behalf of any one
+ * filesystem, so every filesystem reports the provider wide numbers for them.
+ */
+public interface FastZipStatsMBean {
+	/**
+	 * @return the entries in the filesystem's index, or in every open filesystem's
+	 */
+	long getEntries();
+	
+	/**
+	 * @return how long opening took, mapping and parsing the archive if it wasn't already shared
+	 */
+	long getOpenNanos();
+	
+	long getLookups();
+	
+	long getHits();
+	
+	double getHitRatio();
+	
+	long getInflatedBytes();
+	
+	long getInflateNanos();
+	
+	long getDeflatedBytes();
+	
+	long getDeflateNanos();
+	
+	/**
+	 * @return the bytes inflated into the decompressed cache
+	 */
+	long getCachedBytes();
+	
+	/**
+	 * @return how many times cached contents were collected and then read again
+	 */
+	long getCacheEvictions();
+	
+	int getInflaterPoolSize();
+	
+	long getInflaterMisses();
+	
+	int getDeflaterPoolSize();
+	
+	long getDeflaterMisses();
+	
+	long getMappedBytes();
+	
+	/**
+	 * @return the uncompressed size of the entries that were written since the last flush
+	 */
+	long getPendingBytes();
+	
+	long getFlushes();
+	
+	long getFlushNanos();
+	
+	long getFlushedBytes();
+}
@@ -0,0 +1,226 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read only filesystem of several archives in priority order, like a classpath. Every member's entries are merged into the one index when the
+ * union is opened, in parallel, so looking something up is a single hash probe however many archives there are, and directories list the
+ * entries of every member that has them.
+ * <p>
+ * Each member is read as it was last published when the union was opened, and stays pinned until the union is closed, like a
+ * {@link FastZipFS.Snapshot}. Which member's entry is used when several have one with the same name is decided by "shadowing", "first" (the
+ * default) keeps the earliest member's, "last" the latest's, and "error" fails to open the union, or it can be a {@link Shadowing}. Directories
+ * are merged rather than shadowed, and the shadowed entries are kept so {@link FastZipClassLoader#findResources} can list every member's.
+ *
+ * @see FastZipFSProvider#newUnionFileSystem(List, Map)
+ */
+class FastZipUnionFS extends FastZipFS {
+	public static final Shadowing FIRST = (name, earlier, later) -> false, LAST = (name, earlier, later) -> true;
+	public static final Shadowing ERROR = (name, earlier, later) -> {
+		throw new ZipException("duplicate entry: " + name + " in " + earlier + " and " + later);
+	};
+	
+	/**
+	 * Decides which of two members' entries with the same name the union uses
+	 */
+	public interface Shadowing {
+		/**
+		 * @param earlier the member that's first in the union's order
+		 * @return whether the later member's entry is used
+		 */
+		boolean shadows(String name, Path earlier, Path later) throws IOException;
+	}
+	
+	record Member(FastZipFSProvider provider, Path path, SharedArchive archive) {}
+	
+	record Candidate(int member, FastZipEntry entry) {}
+	
+	/**
+	 * the members' archives by the buffer their entries are read from
+	 */
+	final Map<BigByteBuffer, Path> archives = new IdentityHashMap<>();
+	/**
+	 * the entries the union doesn't resolve to, of names several members have, in the members' order
+	 */
+	final Map<ByteBuffer, List<FastZipEntry>> shadowed;
+	
+	/**
+	 * Builds a union of the filesystems as they were last published, in priority order. The filesystems can be written to, flushed or closed
+	 * afterwards without affecting it.
+	 */
+	public FastZipUnionFS(List<? extends FastZipFS> members, Map<String, ?> config) throws IOException {
+		this(members.get(0).provider, pin(members), config);
+	}
+	
+	FastZipUnionFS(FastZipFSProvider provider, List<Member> members, Map<String, ?> config) throws IOException {
+		this(provider, members, config, new ConcurrentHashMap<>());
+	}
+	
+	private FastZipUnionFS(FastZipFSProvider provider, List<Member> members, Map<String, ?> config, Map<ByteBuffer, List<FastZipEntry>> shadowed)
+			throws IOException {
+		super(provider, members.get(0).path, config, merge(members, config, shadowed));
+		this.shadowed = shadowed;
+		for(Member member : members) {
+			this.archives.put(member.archive.buffer, member.path);
+		}
+	}
+	
+	static List<Member> pin(List<? extends FastZipFS> filesystems) {
+		List<Member> members = new ArrayList<>(filesystems.size());
+		for(FastZipFS fs : filesystems) {
+			members.add(new Member(fs.provider, fs.zipfsPath, fs.pin()));
+		}
+		return members;
+	}
+	
+	/**
+	 * @param shadowed filled with the entries that were shadowed
+	 * @return an archive that isn't mapped from anywhere, with the entries each name resolves to, and which releases the members once it's closed
+	 */
+	static SharedArchive merge(List<Member> members, Map<String, ?> config, Map<ByteBuffer, List<FastZipEntry>> shadowed) throws IOException {
+		Closeable release = () -> {
+			IOException exception = null;
+			for(Member member : members) {
+				try {
+					member.provider.release(member.archive);
+				} catch(IOException e) {
+					if(exception == null) {
+						exception = e;
+					} else {
+						exception.addSuppressed(e);
+					}
+				}
+			}
+			if(exception != null) {
+				throw exception;
+			}
+		};
+		
+		try {
+			Object option = config.get("shadowing");
+			Shadowing shadowing = option instanceof Shadowing s ? s : switch(option == null ? "first" : String.valueOf(option)) {
+				case "first" -> FIRST;
+				case "last" -> LAST;
+				case "error" -> ERROR;
+				default -> throw new IllegalArgumentException("Unknown shadowing " + option);
+			};
+			
+			ConcurrentMap<ByteBuffer, Candidate> merged = new ConcurrentHashMap<>();
+			ConcurrentMap<ByteBuffer, List<Candidate>> losers = new ConcurrentHashMap<>();
+			IntStream.range(0, members.size()).parallel().forEach(i -> {
+				for(FastZipEntry entry : members.get(i).archive.entries) {
+					merged.merge(entry.name, new Candidate(i, entry), (a, b) -> {
+						Candidate earlier = a.member < b.member ? a : b, later = earlier == a ? b : a;
+						ByteBuffer name = entry.name;
+						if(name.limit() > 0 && name.get(name.limit() - 1) == '/') { // directories are merged, not shadowed
+							return earlier;
+						}
+						try {
+							Path earlierPath = members.get(earlier.member).path, laterPath = members.get(later.member).path;
+							Candidate winner = shadowing.shadows(FastZipUtil.toStr(entry.name), earlierPath, laterPath) ? later : earlier;
+							// merged holds the name's bin while this runs, so only one thread adds to its list at a time
+							losers.computeIfAbsent(name, n -> new ArrayList<>()).add(winner == earlier ? later : earlier);
+							return winner;
+						} catch(IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				}
+			});
+			
+			List<FastZipEntry> entries = new ArrayList<>(merged.size());
+			for(Candidate candidate : merged.values()) {
+				entries.add(candidate.entry);
+			}
+			losers.forEach((name, list) -> {
+				list.sort(Comparator.comparingInt(Candidate::member));
+				shadowed.put(name, list.stream().map(Candidate::entry).toList());
+			});
+			BigByteBuffer.PathBuffer empty = new BigByteBuffer.PathBuffer(release, new BigByteBuffer());
+			return new SharedArchive(null, empty, entries, new FastZipReader.CentralInformation(null, 0, 0));
+		} catch(UncheckedIOException e) {
+			release.close();
+			throw e.getCause();
+		} catch(RuntimeException e) {
+			release.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	Path archive(ByteBuffer name) {
+		return this.archive(this.paths.get(name));
+	}
+	
+	@Override
+	Path archive(FastZipEntry entry) {
+		Path archive = entry == null || entry.contents == null ? null : this.archives.get(entry.contents.compressedData);
+		return archive == null ? this.zipfsPath : archive;
+	}
+	
+	@Override
+	List<FastZipEntry> shadowed(ByteBuffer name) {
+		return this.shadowed.getOrDefault(name, List.of());
+	}
+	
+	/**
+	 * Entries are read from the members' archives, which the union's archive keeps pinned
+	 */
+	@Override
+	SharedArchive pinSource(FastZipEntry.ZipContents contents) throws IOException {
+		SharedArchive archive = this.pin();
+		if(this.archives.containsKey(contents.compressedData)) {
+			return archive;
+		}
+		this.provider.release(archive);
+		return null;
+	}
+	
+	@Override
+	FastZipEntry getOrCreatePath(ByteBuffer name, boolean directory) {
+		FastZipEntry existing = this.paths.get(absoluteName(name, directory));
+		if(existing == null) {
+			throw new ReadOnlyFileSystemException();
+		}
+		return existing;
+	}
+	
+	@Override
+	boolean removePath(FastZipPath path, FastZipEntry remove) {
+		throw new ReadOnlyFileSystemException();
+	}
+	
+	@Override
+	void modified() {
+		throw new ReadOnlyFileSystemException();
+	}
+	
+	@Override
+	void setContents(FastZipEntry entry, FastZipEntry.ZipContents contents) {
+		throw new ReadOnlyFileSystemException();
+	}
+	
+	@Override
+	public void repack(AccessProfile profile) {
+		throw new ReadOnlyFileSystemException();
+	}
+	
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+}
@@ -18,6 +18,58 @@ class FastZipUtil {
 		return Math.toIntExact((numerator + denominator - 1) / denominator);
 	}
 	
+	/**
+	 * @return the crc32 of the concatenation of 2 byte sequences, given their crc32s and the length of the second, see zlib's crc32_combine
+	 */
+	static int crc32Combine(int crc1, int crc2, long len2) {
+		if(len2 <= 0) {
+			return crc1;
+		}
+		int[] even = new int[32], odd = new int[32];
+		odd[0] = 0xEDB88320; // crc32 polynomial, the operator for one zero bit
+		int row = 1;
+		for(int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd); // 2 zero bits
+		gf2MatrixSquare(odd, even); // 4 zero bits
+		
+		// apply len2 zero bytes to crc1, the first square gives the operator for 1 zero byte
+		do {
+			gf2MatrixSquare(even, odd);
+			if((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			len2 >>= 1;
+			if(len2 == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			len2 >>= 1;
+		} while(len2 != 0);
+		return crc1 ^ crc2;
+	}
+	
+	static int gf2MatrixTimes(int[] mat, int vec) {
+		int sum = 0;
+		for(int i = 0; vec != 0; i++, vec >>>= 1) {
+			if((vec & 1) != 0) {
+				sum ^= mat[i];
+			}
+		}
+		return sum;
+	}
+	
+	static void gf2MatrixSquare(int[] square, int[] mat) {
+		for(int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+	
 	static final String regexMetaChars = ".^$+{[]|()";
 	static final String globMetaChars = "\\*?[{";
 	
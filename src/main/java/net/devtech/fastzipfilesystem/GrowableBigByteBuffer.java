@@ -0,0 +1,152 @@
+package net.devtech.fastzipfilesystem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.ToIntFunction;
+
+/**
+ * A buffer for data that is written a little at a time, stored as a rope of chunks that double in size up to 1 GiB, so growing never copies what
+ * has already been written and appending n bytes costs O(n) no matter how small the writes are. Chunk k starts at {@code FIRST * (2^k - 1)}, so
+ * the chunk a position is in is found with a leading zero count rather than a search. The smaller chunks are pooled, see {@link #release()}.
+ */
+final class GrowableBigByteBuffer extends BigByteBuffer {
+	static final int FIRST_SHIFT = 12, FIRST = 1 << FIRST_SHIFT;
+	/**
+	 * chunks after this one are all the same size as it
+	 */
+	static final int LAST_GEOMETRIC = 30 - FIRST_SHIFT;
+	static final long GEOMETRIC_END = start(LAST_GEOMETRIC + 1);
+	static final int POOLED_CHUNKS = 9, MAX_POOLED = 64;
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static final ConcurrentLinkedDeque<ByteBuffer>[] POOLS = new ConcurrentLinkedDeque[POOLED_CHUNKS];
+	
+	static {
+		Arrays.setAll(POOLS, i -> new ConcurrentLinkedDeque<>());
+	}
+	
+	int chunks;
+	
+	GrowableBigByteBuffer() {
+		super(new ByteBuffer[4], 0);
+	}
+	
+	static long start(int chunk) {
+		if(chunk <= LAST_GEOMETRIC + 1) {
+			return ((1L << chunk) - 1) << FIRST_SHIFT;
+		}
+		return GEOMETRIC_END + ((long) (chunk - LAST_GEOMETRIC - 1) << 30);
+	}
+	
+	static int chunkSize(int chunk) {
+		return FIRST << Math.min(chunk, LAST_GEOMETRIC);
+	}
+	
+	static int index(long position) {
+		if(position < GEOMETRIC_END) {
+			return 63 - Long.numberOfLeadingZeros((position >>> FIRST_SHIFT) + 1);
+		}
+		return LAST_GEOMETRIC + 1 + (int) ((position - GEOMETRIC_END) >>> 30);
+	}
+	
+	@Override
+	public void append(ByteBuffer buffer, long offset) {
+		int remaining = buffer.remaining();
+		long end = offset + remaining;
+		while(start(this.chunks) < end) {
+			this.grow();
+		}
+		if(offset > this.size) { // pooled chunks aren't zeroed
+			this.fill(this.size, offset - this.size);
+		}
+		
+		int position = buffer.position(), written = 0;
+		while(written < remaining) {
+			long at = offset + written;
+			int chunk = index(at);
+			int chunkOffset = (int) (at - start(chunk)), len = Math.min(remaining - written, chunkSize(chunk) - chunkOffset);
+			this.buffers[chunk].put(chunkOffset, buffer, position + written, len);
+			written += len;
+		}
+		buffer.position(position + remaining);
+		this.size = Math.max(this.size, end);
+	}
+	
+	void grow() {
+		int chunk = this.chunks;
+		if(chunk == this.buffers.length) {
+			this.buffers = Arrays.copyOf(this.buffers, chunk * 2);
+		}
+		ByteBuffer buffer = chunk < POOLED_CHUNKS ? POOLS[chunk].pollFirst() : null;
+		this.buffers[chunk] = buffer == null ? ByteBuffer.allocate(chunkSize(chunk)) : buffer;
+		this.chunks = chunk + 1;
+	}
+	
+	void fill(long offset, long length) {
+		byte[] zeros = new byte[(int) Math.min(length, FIRST)];
+		while(length > 0) {
+			int len = (int) Math.min(length, zeros.length);
+			this.append(ByteBuffer.wrap(zeros, 0, len), offset);
+			offset += len;
+			length -= len;
+		}
+	}
+	
+	/**
+	 * Returns the smaller chunks to the pool, this buffer and any slices of it must not be used afterwards
+	 */
+	void release() {
+		for(int i = 0; i < Math.min(this.chunks, POOLED_CHUNKS); i++) {
+			ConcurrentLinkedDeque<ByteBuffer> pool = POOLS[i];
+			if(pool.size() < MAX_POOLED) {
+				pool.push(this.buffers[i]);
+			}
+			this.buffers[i] = null;
+		}
+		this.chunks = 0;
+		this.size = 0;
+	}
+	
+	@Override
+	ByteBuffer slice(long off, int len) {
+		Objects.checkFromIndexSize(off, len, this.size);
+		int chunk = index(off);
+		int offset = (int) (off - start(chunk));
+		if(offset + len <= chunkSize(chunk)) {
+			return this.buffers[chunk].slice(offset, len).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ByteBuffer copy = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+		this.segmentedInsert(copy::put, off, len);
+		copy.position(0);
+		return copy;
+	}
+	
+	@Override
+	MappedByteBuffer mapped(long off, long len) {
+		return null;
+	}
+	
+	@Override
+	long segmentedInsert0(ToIntFunction<ByteBuffer> buf, long off, long llen) {
+		long length = Math.min(llen, this.size - off), read = 0;
+		if(length <= 0) {
+			return 0;
+		}
+		int chunk = index(off);
+		int offset = (int) (off - start(chunk));
+		while(read < length) {
+			int toRead = (int) Math.min(length - read, chunkSize(chunk) - offset);
+			int inserted = buf.applyAsInt(this.buffers[chunk].slice(offset, toRead).order(ByteOrder.LITTLE_ENDIAN));
+			read += inserted;
+			if(inserted != toRead) {
+				break;
+			}
+			chunk++;
+			offset = 0;
+		}
+		return read;
+	}
+}
@@ -0,0 +1,87 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * A memory mapped file split into power of two sized chunks, so positions are split with a shift and a mask. Each chunk's mapping runs
+ * {@link #OVERLAP} bytes into the next chunk, so slices up to that size never have to be copied, even when they cross a chunk boundary. Files
+ * smaller than a chunk are a single mapping.
+ */
+final class MappedBigByteBuffer extends BigByteBuffer {
+	static final int SHIFT = 30, CHUNK = 1 << SHIFT;
+	static final long MASK = CHUNK - 1;
+	/**
+	 * large enough for headers, names and the compressed chunks entries are inflated from
+	 */
+	static final int OVERLAP = 1 << 20;
+
+	MappedBigByteBuffer(FileChannel channel) throws IOException {
+		this(channel, channel.size());
+	}
+
+	private MappedBigByteBuffer(FileChannel channel, long size) throws IOException {
+		super(map(channel, size), size);
+	}
+
+	static ByteBuffer[] map(FileChannel channel, long size) throws IOException {
+		ByteBuffer[] chunks = new ByteBuffer[Math.max(FastZipUtil.ceilDiv(size, CHUNK), 1)];
+		for(int i = 0; i < chunks.length; i++) {
+			long start = (long) i << SHIFT;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, (long) CHUNK + OVERLAP));
+		}
+		return chunks;
+	}
+
+	@Override
+	ByteBuffer slice(long off, int len) {
+		Objects.checkFromIndexSize(off, len, this.size);
+		ByteBuffer chunk = this.buffers[(int) (off >>> SHIFT)];
+		int offset = (int) (off & MASK);
+		if(offset + len <= chunk.limit()) {
+			return chunk.slice(offset, len).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ByteBuffer copy = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+		this.segmentedInsert(copy::put, off, len);
+		copy.position(0);
+		return copy;
+	}
+
+	@Override
+	MappedByteBuffer mapped(long off, long len) {
+		if(off < 0 || len < 0 || off + len > this.size) {
+			return null;
+		}
+		MappedByteBuffer chunk = (MappedByteBuffer) this.buffers[(int) (off >>> SHIFT)];
+		int offset = (int) (off & MASK);
+		return offset + len <= chunk.limit() ? chunk.slice(offset, (int) len) : null;
+	}
+
+	@Override
+	long segmentedInsert0(ToIntFunction<ByteBuffer> buf, long off, long llen) {
+		long length = Math.min(llen, this.size - off), read = 0;
+		while(read < length) {
+			long position = off + read;
+			ByteBuffer chunk = this.buffers[(int) (position >>> SHIFT)];
+			int offset = (int) (position & MASK);
+			// stop at the chunk boundary rather than the end of the mapping, the overlap is read from the next chunk
+			int toRead = (int) Math.min(length - read, CHUNK - offset);
+			int inserted = buf.applyAsInt(chunk.slice(offset, toRead).order(ByteOrder.LITTLE_ENDIAN));
+			read += inserted;
+			if(inserted != toRead) {
+				break;
+			}
+		}
+		return read;
+	}
+
+	@Override
+	public void append(ByteBuffer buffer, long offset) {
+		throw new UnsupportedOperationException("mapped archives are read only");
+	}
+}
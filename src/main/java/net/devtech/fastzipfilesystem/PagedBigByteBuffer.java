@@ -0,0 +1,152 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * An archive read from a channel a page at a time, for archives that can't be memory mapped, eg. ones inside another archive or on a remote
+ * filesystem. Pages are loaded on demand and the least recently used are evicted, sequential access reads ahead several pages at once, and small
+ * reads far from the last one (like local headers while the central directory is parsed) are read exactly instead of loading a whole page. Opening
+ * an archive this way only reads its end and its central directory.
+ */
+final class PagedBigByteBuffer extends BigByteBuffer {
+	static final int PAGE_SHIFT = 16, PAGE = 1 << PAGE_SHIFT;
+	static final long PAGE_MASK = PAGE - 1;
+	static final int DEFAULT_PAGES = 512, READ_AHEAD = 8, DIRECT_READ = 4096;
+	
+	final SeekableByteChannel channel;
+	final Map<Long, ByteBuffer> pages;
+	long lastPage = -2;
+	/**
+	 * how many bytes have been read from the channel
+	 */
+	long bytesRead;
+	
+	PagedBigByteBuffer(SeekableByteChannel channel, int maxPages) throws IOException {
+		super(new ByteBuffer[0], channel.size());
+		this.channel = channel;
+		this.pages = new LinkedHashMap<>(16, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+				return this.size() > maxPages;
+			}
+		};
+	}
+	
+	/**
+	 * @param wanted how many bytes of the page are needed
+	 * @return the page, or null if the wanted bytes should be read directly
+	 */
+	synchronized ByteBuffer page(long index, long wanted) throws IOException {
+		ByteBuffer page = this.pages.get(index);
+		long last = this.lastPage;
+		this.lastPage = index;
+		if(page != null) {
+			return page;
+		} else if(index == last || index == last + 1) {
+			return this.load(index, READ_AHEAD);
+		} else if(wanted <= DIRECT_READ) {
+			return null;
+		}
+		return this.load(index, 1);
+	}
+	
+	ByteBuffer load(long first, int count) throws IOException {
+		long start = first << PAGE_SHIFT;
+		int length = (int) Math.min((long) count << PAGE_SHIFT, this.size - start);
+		ByteBuffer read = this.readFully(start, length);
+		for(int i = 0; i < count && i << PAGE_SHIFT < length; i++) {
+			int offset = i << PAGE_SHIFT;
+			this.pages.putIfAbsent(first + i, read.slice(offset, Math.min(PAGE, length - offset)));
+		}
+		return this.pages.get(first);
+	}
+	
+	synchronized ByteBuffer readFully(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		this.channel.position(position);
+		while(buffer.hasRemaining()) {
+			if(this.channel.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+		this.bytesRead += length;
+		return buffer.flip();
+	}
+	
+	@Override
+	ByteBuffer slice(long off, int len) {
+		Objects.checkFromIndexSize(off, len, this.size);
+		int offset = (int) (off & PAGE_MASK);
+		if(offset + len <= PAGE) {
+			try {
+				ByteBuffer page = this.page(off >>> PAGE_SHIFT, len);
+				ByteBuffer slice = page == null ? this.readFully(off, len) : page.slice(offset, len);
+				return slice.order(ByteOrder.LITTLE_ENDIAN);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		ByteBuffer copy = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+		this.segmentedInsert(copy::put, off, len);
+		copy.position(0);
+		return copy;
+	}
+	
+	@Override
+	MappedByteBuffer mapped(long off, long len) {
+		return null;
+	}
+	
+	@Override
+	long segmentedInsert0(ToIntFunction<ByteBuffer> buf, long off, long llen) {
+		long length = Math.min(llen, this.size - off), read = 0;
+		try {
+			while(read < length) {
+				long position = off + read;
+				int offset = (int) (position & PAGE_MASK);
+				int toRead = (int) Math.min(length - read, PAGE - offset);
+				ByteBuffer page = this.page(position >>> PAGE_SHIFT, length - read);
+				ByteBuffer slice = page == null ? this.readFully(position, toRead) : page.slice(offset, toRead);
+				int inserted = buf.applyAsInt(slice.order(ByteOrder.LITTLE_ENDIAN));
+				read += inserted;
+				if(inserted != toRead) {
+					break;
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return read;
+	}
+	
+	@Override
+	void prefetch(long off, long len) {
+		long first = off >>> PAGE_SHIFT, last = (off + len - 1) >>> PAGE_SHIFT;
+		try {
+			synchronized(this) {
+				for(long page = first; page <= last && page - first < DEFAULT_PAGES / 2; page++) {
+					if(!this.pages.containsKey(page)) {
+						this.load(page, (int) Math.min(READ_AHEAD, last - page + 1));
+					}
+				}
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	@Override
+	public void append(ByteBuffer buffer, long offset) {
+		throw new UnsupportedOperationException("paged archives are read only");
+	}
+}
@@ -3,29 +3,40 @@ package net.devtech.fastzipfilesystem;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.util.Objects;
-import java.util.zip.ZipException;
 
 class ReadEntryByteChannel implements SeekableByteChannel, ScatteringByteChannel {
+	final FastZipFS fs;
 	FastZipEntry.ZipContents building;
+	ByteBuffer name;
+	/**
+	 * the archive the entry is read from, pinned until the channel is closed, null if it's being written
+	 */
+	FastZipFS.Pinned pinned;
 	long pos, size;
+	boolean closed;
 	
-	ReadEntryByteChannel(FastZipEntry entry) throws ZipException {
+	ReadEntryByteChannel(FastZipFS fs, FastZipEntry entry) throws IOException {
+		this.fs = fs;
 		building(entry);
 	}
 	
-	protected void building(FastZipEntry entry) {
-		FastZipEntry.ZipContents contents = entry.contents;
+	protected void building(FastZipEntry entry) throws IOException {
+		FastZipFS.Pinned pinned = this.pinned = this.fs.pinContents(entry);
+		FastZipEntry.ZipContents contents = pinned.contents();
 		this.size = contents.uncompressedSize;
 		this.building = contents;
+		this.name = entry.name;
 	}
 	
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		BigByteBuffer data = this.building.decompress();
-		long offset = building.uncompressedOffset + pos;
+		this.ensureOpen();
+		BigByteBuffer data = this.building.decompress(this.name);
+		long offset = this.building.offset(data) + pos;
 		long l = data.segmentedInsert(dst::put, offset, Math.min(dst.remaining(), size - pos));
 		this.pos += l;
 		return (int) l;
@@ -33,8 +44,9 @@ class ReadEntryByteChannel implements SeekableByteChannel, ScatteringByteChannel
 	
 	@Override
 	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-		BigByteBuffer data = this.building.decompress();
-		long uncompressedOffset = building.uncompressedOffset;
+		this.ensureOpen();
+		BigByteBuffer data = this.building.decompress(this.name);
+		long uncompressedOffset = this.building.offset(data);
 		int[] idx = {0};
 		return data.segmentedInsert0(buffer -> {
 			while(buffer.hasRemaining()) {
@@ -85,12 +97,23 @@ class ReadEntryByteChannel implements SeekableByteChannel, ScatteringByteChannel
 	
 	@Override
 	public boolean isOpen() {
-		return true;
+		return !this.closed;
 	}
 	
 	@Override
 	public void close() throws IOException {
-	
+		if(!this.closed) {
+			this.closed = true;
+			if(this.pinned != null) {
+				this.fs.unpin(this.pinned);
+			}
+		}
 	}
 	
+	void ensureOpen() throws IOException {
+		if(this.closed) {
+			throw new ClosedChannelException();
+		}
+	}
+
 }
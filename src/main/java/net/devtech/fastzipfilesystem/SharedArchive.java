@@ -0,0 +1,181 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An archive's mapping and parsed central directory, shared by every filesystem open on the same version of the same file. Filesystems copy the
+ * parsed entries, but share their contents, so each archive is only mapped and parsed once no matter how many times it is opened. It is also the
+ * version of a filesystem that {@link FastZipFS.Snapshot}s pin, it is released once nothing references it.
+ *
+ * @see FastZipFSProvider#acquire(Path, boolean)
+ */
+final class SharedArchive {
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			// mappings are left to the gc
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+	
+	/**
+	 * a new file key or modification time means the file was replaced or rewritten, so it is mapped again instead of sharing the old mapping
+	 */
+	record Key(Path realPath, Object fileKey, FileTime lastModified) {}
+	
+	/**
+	 * null if the archive isn't shared, because it isn't a file in the default filesystem
+	 */
+	final Key key;
+	final BigByteBuffer buffer;
+	/**
+	 * what the archive is read from, closed once the archive is released for the last time
+	 */
+	final Closeable source;
+	/**
+	 * the channel the archive was mapped from, or null if it was not mapped
+	 */
+	final FileChannel channel;
+	final List<FastZipEntry> entries;
+	/**
+	 * the range of the archive the central directory was read from
+	 */
+	final long centralStart, centralSize;
+	/**
+	 * once this reaches zero the archive is closed, and can't be pinned again
+	 */
+	final AtomicInteger references = new AtomicInteger(1);
+	volatile boolean unmap;
+	/**
+	 * the entries by name, built the first time a snapshot looks one up
+	 */
+	volatile Map<ByteBuffer, FastZipEntry> index;
+	
+	SharedArchive(Key key, BigByteBuffer.PathBuffer buf, List<FastZipEntry> entries, FastZipReader.CentralInformation central) {
+		this.key = key;
+		this.buffer = buf.buffer();
+		this.source = buf.closeable();
+		this.channel = buf.buffer() instanceof MappedBigByteBuffer && buf.closeable() instanceof FileChannel c ? c : null;
+		this.entries = entries;
+		this.centralStart = central.centralStart();
+		this.centralSize = central.centralSize();
+		if(this.channel != null) {
+			FastZipStats.mapped(this.buffer.size);
+		}
+	}
+	
+	static SharedArchive open(Key key, Path path) throws IOException {
+		FastZipEvents.Open event = new FastZipEvents.Open();
+		event.begin();
+		BigByteBuffer.PathBuffer buf = BigByteBuffer.buffer(path);
+		try {
+			List<FastZipEntry> entries = new ArrayList<>();
+			FastZipReader.CentralInformation central = FastZipReader.read(buf.buffer(), entries::add, entries::clear);
+			SharedArchive archive = new SharedArchive(key, buf, entries, central);
+			event.end();
+			if(event.shouldCommit()) {
+				event.archive = path + "";
+				event.entries = entries.size();
+				event.centralDirectoryBytes = central.centralSize();
+				event.archiveBytes = archive.buffer.size;
+				event.mapped = archive.channel != null;
+				event.commit();
+			}
+			return archive;
+		} catch(IOException | RuntimeException e) {
+			close(buf.closeable());
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return false if the archive was already released for the last time
+	 */
+	boolean pin() {
+		int references;
+		do {
+			references = this.references.get();
+			if(references <= 0) {
+				return false;
+			}
+		} while(!this.references.compareAndSet(references, references + 1));
+		return true;
+	}
+	
+	/**
+	 * @return true if that was the last reference, and the archive should be closed
+	 */
+	boolean unpin() {
+		return this.references.decrementAndGet() == 0;
+	}
+	
+	FastZipEntry get(ByteBuffer name) {
+		Map<ByteBuffer, FastZipEntry> index = this.index;
+		if(index == null) {
+			index = new HashMap<>();
+			for(FastZipEntry entry : this.entries) {
+				index.put(entry.name, entry);
+			}
+			this.index = index;
+		}
+		return index.get(name);
+	}
+	
+	static List<FastZipEntry> read(BigByteBuffer buffer) throws IOException {
+		List<FastZipEntry> entries = new ArrayList<>();
+		FastZipReader.read(buffer, entries::add, entries::clear);
+		return entries;
+	}
+	
+	/**
+	 * Closes the archive's channel, and if every filesystem that acquired it asked for it, unmaps the archive. Nothing may read from the mapping afterwards, including
+	 * buffers handed out by {@link EntryFileChannel#map}, so unmapping is opt in.
+	 */
+	void close() throws IOException {
+		if(this.channel != null) {
+			FastZipStats.mapped(-this.buffer.size);
+		}
+		close(this.source);
+		if(this.unmap && INVOKE_CLEANER != null) {
+			for(ByteBuffer buffer : this.buffer.buffers) {
+				if(buffer instanceof MappedByteBuffer) {
+					try {
+						INVOKE_CLEANER.invoke(UNSAFE, buffer);
+					} catch(ReflectiveOperationException e) {
+						throw new IOException("Unable to unmap " + this.key, e);
+					}
+				}
+			}
+		}
+	}
+	
+	static void close(Closeable closeable) throws IOException {
+		if(closeable != null) {
+			closeable.close();
+		}
+	}
+}
@@ -1,20 +1,31 @@
 package net.devtech.fastzipfilesystem;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.NonReadableChannelException;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.ReadOnlyFileSystemException;
 
 public class WriteEntryByteChannel extends ReadEntryByteChannel implements WritableByteChannel {
 	final FastZipEntry entry;
-	WriteEntryByteChannel(FastZipEntry entry, boolean append) throws IOException {
-		super(entry);
+	/**
+	 * the contents being appended to, only the appended bytes are buffered and compressed
+	 */
+	final FastZipEntry.ZipContents appendingTo;
+	WriteEntryByteChannel(FastZipEntry entry, boolean append, FastZipFS fs) throws IOException {
+		super(fs, entry);
+		if(fs.isReadOnly()) {
+			// unions hand out their entries, which closing this would change
+			throw new ReadOnlyFileSystemException();
+		}
 		FastZipEntry.ZipContents contents = new FastZipEntry.ZipContents();
-		if(append) {
-			BigByteBuffer decompress = entry.contents.decompress();
-			contents.uncompressedData = new BigByteBuffer(decompress, 0, decompress.size);
-			this.pos = entry.contents.uncompressedSize;
+		contents.uncompressedData = new GrowableBigByteBuffer();
+		if(append && entry.contents != null) {
+			this.appendingTo = entry.contents;
+			this.pos = this.size = entry.contents.uncompressedSize;
 		} else {
-			contents.uncompressedData = new BigByteBuffer();
+			this.appendingTo = null;
 		}
 		this.building = contents;
 		this.entry = entry;
@@ -24,25 +35,92 @@ public class WriteEntryByteChannel extends ReadEntryByteChannel implements Writa
 	protected void building(FastZipEntry entry) {
 	}
 	
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if(this.appendingTo != null) {
+			throw new NonReadableChannelException();
+		}
+		return super.read(dst);
+	}
+	
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		if(this.appendingTo != null) {
+			throw new NonReadableChannelException();
+		}
+		return super.read(dsts, offset, length);
+	}
+	
 	@Override
 	public int write(ByteBuffer src) throws IOException {
+		this.ensureOpen();
 		int toWrite = src.remaining();
-		this.building.decompress().append(src, this.pos);
+		FastZipEntry.ZipContents appendingTo = this.appendingTo;
+		if(appendingTo != null) {
+			this.pos = this.size;
+			this.building.decompress().append(src, this.pos - appendingTo.uncompressedSize);
+		} else {
+			this.building.decompress().append(src, this.pos);
+		}
 		this.pos += toWrite;
 		this.size = Math.max(this.size, this.pos);
 		return toWrite;
 	}
 	
-	@Override
-	public boolean isOpen() {
-		return true;
-	}
-	
 	@Override
 	public void close() throws IOException {
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
 		this.building.uncompressedOffset = 0;
+		FastZipEntry.ZipContents appendingTo = this.appendingTo;
+		if(appendingTo != null) {
+			this.building.uncompressedSize = this.size - appendingTo.uncompressedSize;
+			if(this.append()) {
+				this.fs.modified();
+				return;
+			}
+			// the entry was deleted since, so it's written with just the appended bytes
+			this.size = this.building.uncompressedSize;
+		}
 		this.building.uncompressedSize = this.size;
-		this.building.compress();
-		this.entry.contents = this.building;
+		ContentStore store = this.fs.store;
+		if(store != null) {
+			store.compress(this.entry, this.building, this.fs.compression);
+		} else {
+			this.fs.compression.compress(this.entry.name, this.building, this.building.decompress());
+		}
+		this.fs.setContents(this.entry, this.building);
+	}
+	
+	/**
+	 * Appends onto the entry's current contents, appending derives the new contents from the old, so if another writer published first this
+	 * is appended onto what it wrote instead
+	 *
+	 * @return false if the entry has no contents left to append to
+	 */
+	boolean append() throws IOException {
+		while(true) {
+			FastZipFS.Pinned pinned;
+			try {
+				pinned = this.fs.pinContents(this.entry);
+			} catch(FileNotFoundException e) {
+				return false;
+			}
+			try {
+				FastZipEntry.ZipContents base = pinned.contents();
+				// the appended contents are joined onto the old ones' data, which must outlive the version it's read from
+				FastZipEntry.ZipContents source = pinned.archive() != null && this.fs.unmap ? base.detached() : base;
+				if(this.entry.swap(base, source.append(this.entry.name, this.building.copy(), this.fs.compression))) {
+					if(this.fs.store != null) {
+						this.fs.store.remove(base);
+					}
+					return true;
+				}
+			} finally {
+				this.fs.unpin(pinned);
+			}
+		}
 	}
 }
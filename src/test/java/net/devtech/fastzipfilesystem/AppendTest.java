@@ -0,0 +1,172 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Appends to entries read from an archive another tool wrote and to entries written in memory, and checks the combined crc, that appendable
+ * deflate streams are spliced rather than recompressed and still inflate, that small stored entries are deflated once they grow, that closing an
+ * append channel twice appends once, and that everything reads back through {@link ZipFile} and {@link ZipInputStream} after a flush
+ */
+public class AppendTest {
+	static final int ENTRIES = 20, APPENDS = 3, LINES = 2000;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(28).entries(ENTRIES).deflated(.5).sizes(ArchiveGenerator.Sizes.uniform(1000, 3000));
+		Path zip = generator.generate(Files.createTempFile("append", ".zip"));
+		Map<String, byte[]> expected = new HashMap<>();
+		try {
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of())) {
+				// entries another tool wrote are recompressed on their first append, and appended to in place after that
+				for(int i = 0; i < ENTRIES; i++) {
+					String name = generator.name(i);
+					byte[] data = generator.data(i);
+					for(int append = 0; append < APPENDS; append++) {
+						byte[] tail = generator.data((i + append + 1) % ENTRIES);
+						append(fs, name, tail);
+						data = concat(data, tail);
+						checkContents(fs, name, data);
+					}
+					expected.put(name, data);
+				}
+				
+				// an in memory entry that starts out empty, and so stored, is deflated once it's large enough to be worth it
+				String log = "d0/log.txt";
+				Files.write(fs.getPath(log), new byte[0]);
+				byte[] data = new byte[0];
+				for(int i = 0; i < LINES; i++) {
+					byte[] line = ("line " + i + " of the log, which repeats itself a lot\n").getBytes(StandardCharsets.UTF_8);
+					FastZipEntry.ZipContents before = contents(fs, log);
+					long deflated = provider.stats().deflatedBytes();
+					append(fs, log, line);
+					data = concat(data, line);
+					if(before.compressionMethod == FastZipEntry.METHOD_DEFLATED && before.appendable) {
+						check(provider.stats().deflatedBytes() - deflated == line.length, "line " + i + " wasn't appended in place");
+					}
+				}
+				check(contents(fs, log).compressionMethod == FastZipEntry.METHOD_DEFLATED, "log was left stored");
+				checkContents(fs, log, data);
+				expected.put(log, data);
+				
+				// closing twice appends once, and a closed channel can't be written to
+				SeekableByteChannel channel = Files.newByteChannel(fs.getPath(log), StandardOpenOption.APPEND);
+				byte[] last = "last line\n".getBytes(StandardCharsets.UTF_8);
+				channel.write(ByteBuffer.wrap(last));
+				channel.close();
+				channel.close();
+				check(!channel.isOpen(), "closed channel is open");
+				try {
+					channel.write(ByteBuffer.wrap(last));
+					throw new IllegalStateException("wrote to a closed channel");
+				} catch(ClosedChannelException expectedException) {
+				}
+				data = concat(data, last);
+				checkContents(fs, log, data);
+				expected.put(log, data);
+				
+				fs.flush();
+				for(Map.Entry<String, byte[]> entry : expected.entrySet()) {
+					checkContents(fs, entry.getKey(), entry.getValue());
+				}
+				// once flushed, the entries are read back from the archive and can still be appended to in place
+				check(contents(fs, log).appendable, "log isn't appendable after a flush");
+				long deflated = provider.stats().deflatedBytes();
+				append(fs, log, last);
+				check(provider.stats().deflatedBytes() - deflated == last.length, "log wasn't appended in place after a flush");
+				expected.put(log, concat(data, last));
+			}
+			
+			try(ZipFile file = new ZipFile(zip.toFile())) {
+				for(Map.Entry<String, byte[]> entry : expected.entrySet()) {
+					ZipEntry zipEntry = file.getEntry(entry.getKey());
+					check(zipEntry != null, entry.getKey() + " is missing");
+					try(InputStream stream = file.getInputStream(zipEntry)) {
+						check(Arrays.equals(stream.readAllBytes(), entry.getValue()), entry.getKey() + " read back wrong through ZipFile");
+					}
+					check(zipEntry.getCrc() == crc(entry.getValue()), entry.getKey() + " has the wrong crc");
+				}
+			}
+			// ZipInputStream checks every entry's crc as it reads it
+			int read = 0;
+			try(ZipInputStream stream = new ZipInputStream(Files.newInputStream(zip))) {
+				for(ZipEntry entry; (entry = stream.getNextEntry()) != null; ) {
+					byte[] data = expected.get(entry.getName());
+					if(data != null) {
+						check(Arrays.equals(stream.readAllBytes(), data), entry.getName() + " read back wrong through ZipInputStream");
+						read++;
+					}
+				}
+			}
+			check(read == expected.size(), "ZipInputStream read " + read + " of " + expected.size() + " entries");
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	static void append(FastZipFS fs, String name, byte[] tail) throws IOException {
+		try(SeekableByteChannel channel = Files.newByteChannel(fs.getPath(name), StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(tail));
+		}
+	}
+	
+	static FastZipEntry.ZipContents contents(FastZipFS fs, String name) {
+		return ((FastZipPath) fs.getPath(name)).getEntry(false).contents;
+	}
+	
+	/**
+	 * Checks the entry reads back, that its crc was combined correctly, and that its compressed data, spliced or not, inflates to the same bytes
+	 */
+	static void checkContents(FastZipFS fs, String name, byte[] data) throws Exception {
+		check(Arrays.equals(Files.readAllBytes(fs.getPath(name)), data), name + " read back wrong");
+		FastZipEntry.ZipContents contents = contents(fs, name);
+		check(contents.uncompressedSize == data.length, name + " is " + contents.uncompressedSize + " bytes, expected " + data.length);
+		check((contents.crc32 & 0xFFFFFFFFL) == crc(data), name + " has the wrong crc");
+		if(contents.compressionMethod == FastZipEntry.METHOD_DEFLATED) {
+			byte[] compressed = new byte[(int) contents.compressedSize];
+			contents.compressedData.slice(contents.compressedOffset, compressed.length).get(compressed);
+			Inflater inflater = new Inflater(true);
+			inflater.setInput(compressed);
+			ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			while(!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				check(length > 0 || !inflater.needsInput(), name + " deflate stream ended early");
+				inflated.write(buffer, 0, length);
+			}
+			inflater.end();
+			check(Arrays.equals(inflated.toByteArray(), data), name + " doesn't inflate to its data");
+		}
+	}
+	
+	static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+	
+	static byte[] concat(byte[] a, byte[] b) {
+		byte[] joined = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, joined, a.length, b.length);
+		return joined;
+	}
+}
@@ -0,0 +1,347 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes reproducible archives from a seed, for tests and benchmarks that need archives of a particular shape. Entries are written by hand rather
+ * than with ZipOutputStream, so zip64 fields, comments and missing directory entries can be forced on archives of any size. Everything about an
+ * entry is derived from the seed and its index, so its name and contents can be recomputed with {@link #name(int)} and {@link #data(int)}.
+ */
+public class ArchiveGenerator {
+	static final int CHUNK = 1 << 16;
+	/**
+	 * every entry's modification time, so archives don't depend on when they were generated
+	 */
+	static final long TIME = 1577836800000L;
+	
+	/**
+	 * How large each entry is
+	 */
+	public interface Sizes {
+		long next(Random random);
+		
+		static Sizes fixed(long size) {
+			return random -> size;
+		}
+		
+		static Sizes uniform(long min, long max) {
+			return random -> min + (long) (random.nextDouble() * (max - min + 1));
+		}
+		
+		/**
+		 * mostly small entries with a long tail of large ones, like most real archives
+		 */
+		static Sizes exponential(long mean) {
+			return random -> (long) (-Math.log(1 - random.nextDouble()) * mean);
+		}
+	}
+	
+	long seed;
+	int entries = 1000;
+	Sizes sizes = Sizes.fixed(1024);
+	int depth = 2, fanout = 8;
+	double deflated = 1;
+	int commentLength;
+	long zip64Threshold = 0xFFFFFFFFL;
+	boolean directoryEntries = true;
+	
+	public ArchiveGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+	
+	public ArchiveGenerator entries(int entries) {
+		this.entries = entries;
+		return this;
+	}
+	
+	public ArchiveGenerator sizes(Sizes sizes) {
+		this.sizes = sizes;
+		return this;
+	}
+	
+	/**
+	 * @param depth how many directories deep entries are
+	 * @param fanout how many directories each directory has
+	 */
+	public ArchiveGenerator directories(int depth, int fanout) {
+		this.depth = depth;
+		this.fanout = fanout;
+		return this;
+	}
+	
+	/**
+	 * @param deflated the fraction of entries that are deflated, the rest are stored
+	 */
+	public ArchiveGenerator deflated(double deflated) {
+		this.deflated = deflated;
+		return this;
+	}
+	
+	public ArchiveGenerator comment(int length) {
+		this.commentLength = length;
+		return this;
+	}
+	
+	/**
+	 * @param threshold sizes and offsets at least this large are written as zip64 fields, as is the entry count if it is at least this or 0xFFFF.
+	 * 0 makes every field zip64
+	 */
+	public ArchiveGenerator zip64Threshold(long threshold) {
+		this.zip64Threshold = threshold;
+		return this;
+	}
+	
+	/**
+	 * @param directoryEntries whether directories get entries of their own, or only exist as part of entry names
+	 */
+	public ArchiveGenerator directoryEntries(boolean directoryEntries) {
+		this.directoryEntries = directoryEntries;
+		return this;
+	}
+	
+	/**
+	 * @param salt which of the entry's properties the random is for
+	 */
+	Random random(int entry, int salt) {
+		return new Random((this.seed * 0x9E3779B97F4A7C15L + entry) * 31 + salt);
+	}
+	
+	String directory(int leaf, int levels) {
+		StringBuilder builder = new StringBuilder();
+		for(int level = 0; level < levels; level++) {
+			builder.append('d').append(leaf % this.fanout).append('/');
+			leaf /= this.fanout;
+		}
+		return builder.toString();
+	}
+	
+	int leaves() {
+		int leaves = 1;
+		for(int i = 0; i < this.depth; i++) {
+			leaves *= this.fanout;
+		}
+		return leaves;
+	}
+	
+	public String name(int entry) {
+		return this.directory(entry % this.leaves(), this.depth) + "e" + entry + ".bin";
+	}
+	
+	public long size(int entry) {
+		return this.sizes.next(this.random(entry, 0));
+	}
+	
+	boolean isDeflated(int entry) {
+		return this.random(entry, 1).nextDouble() < this.deflated;
+	}
+	
+	/**
+	 * @return compressible data, runs of a few letters
+	 */
+	public byte[] data(int entry) {
+		long size = this.size(entry);
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("entry " + entry + " is too large to generate in memory");
+		}
+		Random random = this.random(entry, 2);
+		byte[] data = new byte[(int) size];
+		for(int i = 0; i < data.length; ) {
+			byte b = (byte) ('a' + random.nextInt(8));
+			int run = Math.min(1 + random.nextInt(16), data.length - i);
+			Arrays.fill(data, i, i + run, b);
+			i += run;
+		}
+		return data;
+	}
+	
+	public Path generate(Path path) throws IOException {
+		try(Writer writer = new Writer(new BufferedOutputStream(Files.newOutputStream(path), CHUNK))) {
+			if(this.directoryEntries) {
+				for(int levels = 1; levels <= this.depth; levels++) {
+					int count = 1;
+					for(int i = 0; i < levels; i++) {
+						count *= this.fanout;
+					}
+					for(int leaf = 0; leaf < count; leaf++) {
+						writer.entry(this.directory(leaf, levels), new byte[0], false);
+					}
+				}
+			}
+			for(int i = 0; i < this.entries; i++) {
+				writer.entry(this.name(i), this.data(i), this.isDeflated(i));
+			}
+			writer.end();
+		}
+		return path;
+	}
+	
+	final class Writer implements AutoCloseable {
+		final OutputStream out;
+		final ByteArrayOutputStream central = new ByteArrayOutputStream();
+		final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		final byte[] buffer = new byte[CHUNK];
+		long position;
+		long records;
+		
+		Writer(OutputStream out) {
+			this.out = out;
+		}
+		
+		boolean overflows(long value) {
+			return value >= ArchiveGenerator.this.zip64Threshold;
+		}
+		
+		void entry(String entryName, byte[] data, boolean deflate) throws IOException {
+			byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			byte[] compressed = data;
+			if(deflate) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+				this.deflater.reset();
+				this.deflater.setInput(data);
+				this.deflater.finish();
+				while(!this.deflater.finished()) {
+					out.write(this.buffer, 0, this.deflater.deflate(this.buffer));
+				}
+				compressed = out.toByteArray();
+			}
+			
+			long offset = this.position;
+			boolean zip64 = this.overflows(data.length) || this.overflows(compressed.length);
+			// the local header's zip64 field always has both sizes
+			ByteBuffer header = this.header.clear();
+			header.putInt(FastZipReader.LOC_HEADER);
+			header.putShort((short) (zip64 ? 45 : 20));
+			header.putShort((short) 0);
+			header.putShort((short) (deflate ? FastZipEntry.METHOD_DEFLATED : FastZipEntry.METHOD_STORED));
+			header.putInt((int) FastZipUtil.javaToDosTime(TIME));
+			header.putInt((int) crc.getValue());
+			header.putInt(zip64 ? -1 : compressed.length);
+			header.putInt(zip64 ? -1 : data.length);
+			header.putShort((short) name.length);
+			header.putShort((short) (zip64 ? 20 : 0));
+			this.write(header);
+			this.write(name);
+			if(zip64) {
+				header.clear();
+				header.putShort(FastZipReader.ZIP64_EXT_INFO_HEADER);
+				header.putShort((short) 16);
+				header.putLong(data.length);
+				header.putLong(compressed.length);
+				this.write(header);
+			}
+			this.write(compressed);
+			
+			ByteBuffer extra = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+			extra.putShort(FastZipReader.ZIP64_EXT_INFO_HEADER);
+			extra.putShort((short) 0);
+			if(this.overflows(data.length)) {
+				extra.putLong(data.length);
+			}
+			if(this.overflows(compressed.length)) {
+				extra.putLong(compressed.length);
+			}
+			if(this.overflows(offset)) {
+				extra.putLong(offset);
+			}
+			int extraLength = extra.position() == 4 ? 0 : extra.position();
+			extra.putShort(2, (short) (extraLength - 4));
+			
+			header.clear();
+			header.putInt(FastZipReader.CEN_HEADER);
+			header.putShort((short) 0x31e);
+			header.putShort((short) (extraLength > 0 ? 45 : 20));
+			header.putShort((short) 0);
+			header.putShort((short) (deflate ? FastZipEntry.METHOD_DEFLATED : FastZipEntry.METHOD_STORED));
+			header.putInt((int) FastZipUtil.javaToDosTime(TIME));
+			header.putInt((int) crc.getValue());
+			header.putInt(this.overflows(compressed.length) ? -1 : compressed.length);
+			header.putInt(this.overflows(data.length) ? -1 : data.length);
+			header.putShort((short) name.length);
+			header.putShort((short) extraLength);
+			header.putShort((short) 0); // comment
+			header.putShort((short) 0); // disk
+			header.putShort((short) 0); // internal attributes
+			header.putInt(0); // external attributes
+			header.putInt(this.overflows(offset) ? -1 : (int) offset);
+			this.central.write(header.array(), 0, header.position());
+			this.central.write(name);
+			this.central.write(extra.array(), 0, extraLength);
+			this.records++;
+		}
+		
+		void end() throws IOException {
+			long start = this.position, size = this.central.size();
+			this.central.writeTo(this.out);
+			this.position += size;
+			boolean zip64 = this.overflows(start) || this.overflows(size) || this.records >= Math.min(ArchiveGenerator.this.zip64Threshold, 0xFFFF);
+			ByteBuffer header = this.header.clear();
+			if(zip64) {
+				long record = this.position;
+				header.putInt(FastZipReader.EOCD64_HEADER);
+				header.putLong(FastZipReader.EOCD64_LEN - 12);
+				header.putShort((short) 45);
+				header.putShort((short) 45);
+				header.putInt(0);
+				header.putInt(0);
+				header.putLong(this.records);
+				header.putLong(this.records);
+				header.putLong(size);
+				header.putLong(start);
+				this.write(header);
+				header.clear();
+				header.putInt(FastZipReader.EOCD64_LOCATOR_HEADER);
+				header.putInt(0);
+				header.putLong(record);
+				header.putInt(1);
+				this.write(header);
+				header.clear();
+			}
+			header.putInt(FastZipReader.EOCD_HEADER);
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putShort((short) (zip64 ? -1 : this.records));
+			header.putShort((short) (zip64 ? -1 : this.records));
+			header.putInt(zip64 ? -1 : (int) size);
+			header.putInt(zip64 ? -1 : (int) start);
+			header.putShort((short) ArchiveGenerator.this.commentLength);
+			this.write(header);
+			byte[] comment = new byte[ArchiveGenerator.this.commentLength];
+			Random random = ArchiveGenerator.this.random(-1, 0);
+			for(int i = 0; i < comment.length; i++) {
+				comment[i] = (byte) ('a' + random.nextInt(26));
+			}
+			this.write(comment);
+		}
+		
+		void write(ByteBuffer header) throws IOException {
+			this.write(Arrays.copyOf(header.array(), header.position()));
+		}
+		
+		void write(byte[] bytes) throws IOException {
+			this.out.write(bytes);
+			this.position += bytes.length;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.deflater.end();
+			this.out.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class AsyncReadBenchmark {
+	static final int ENTRIES = 256, READERS = 10_000;
+	
+	public static void main(String[] args) throws Exception {
+		Path zip = Files.createTempFile("async", ".zip");
+		try {
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+				for(int i = 0; i < ENTRIES; i++) {
+					out.putNextEntry(new ZipEntry("entry_" + i + ".txt"));
+					out.write(("line " + i + " of some text that deflates well\n").repeat(4096).getBytes(StandardCharsets.UTF_8));
+					out.closeEntry();
+				}
+			}
+			
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("readonly", "true"))) {
+				for(int i = 0; i < 5; i++) { // first 4 are warmup
+					threads.resetPeakThreadCount();
+					long start = System.nanoTime();
+					long bytes = run(fs);
+					long time = System.nanoTime() - start;
+					System.out.printf("%d concurrent readers: %dms, %d MiB inflated, peak %d threads%n", READERS, time / 1_000_000, bytes >> 20,
+							threads.getPeakThreadCount());
+				}
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	static long run(FastZipFS fs) throws Exception {
+		CountDownLatch done = new CountDownLatch(READERS);
+		AtomicLong bytes = new AtomicLong();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Random random = new Random(5);
+		for(int i = 0; i < READERS; i++) {
+			Path path = fs.getPath("entry_" + random.nextInt(ENTRIES) + ".txt");
+			AsynchronousFileChannel channel = fs.provider().newAsynchronousFileChannel(path, Set.of(StandardOpenOption.READ), null);
+			channel.read(ByteBuffer.allocate(16384), 0, ByteBuffer.allocate(16384), new CompletionHandler<>() {
+				long position;
+				
+				@Override
+				public void completed(Integer result, ByteBuffer buffer) {
+					if(result < 0) {
+						finish();
+						return;
+					}
+					this.position += result;
+					bytes.addAndGet(result);
+					buffer.clear();
+					channel.read(buffer, this.position, buffer, this);
+				}
+				
+				@Override
+				public void failed(Throwable exc, ByteBuffer attachment) {
+					failure.compareAndSet(null, exc);
+					finish();
+				}
+				
+				private void finish() {
+					try {
+						channel.close();
+					} catch(IOException e) {
+						failure.compareAndSet(null, e);
+					}
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		if(failure.get() != null) {
+			throw new RuntimeException(failure.get());
+		}
+		return bytes.get();
+	}
+}
@@ -0,0 +1,68 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class BulkReadBenchmark {
+	static final int ENTRIES = 20000;
+	
+	public static void main(String[] args) throws IOException {
+		Path zip = Files.createTempFile("bulk", ".jar");
+		try {
+			Random random = new Random(7);
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+				out.putNextEntry(new ZipEntry("net/"));
+				out.putNextEntry(new ZipEntry("net/example/"));
+				for(int i = 0; i < 50; i++) {
+					out.putNextEntry(new ZipEntry("net/example/pkg" + i + "/"));
+				}
+				for(int i = 0; i < ENTRIES; i++) {
+					out.putNextEntry(new ZipEntry("net/example/pkg" + i % 50 + "/Class" + i + ".class"));
+					StringBuilder builder = new StringBuilder();
+					for(int j = random.nextInt(400); j >= 0; j--) {
+						builder.append("method").append(random.nextInt(100)).append("(Ljava/lang/String;)V ");
+					}
+					out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+					out.closeEntry();
+				}
+			}
+			
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("readonly", "true"))) {
+				List<Path> paths = new ArrayList<>();
+				for(int i = 0; i < ENTRIES; i++) {
+					paths.add(fs.getPath("net/example/pkg" + i % 50 + "/Class" + i + ".class"));
+				}
+				Collections.shuffle(paths, random);
+				for(int i = 0; i < 5; i++) { // first 4 are warmup
+					long start = System.nanoTime();
+					long bytes = 0;
+					for(Path path : paths) {
+						bytes += Files.readAllBytes(path).length;
+					}
+					long individual = System.nanoTime() - start;
+					
+					AtomicLong bulkBytes = new AtomicLong();
+					start = System.nanoTime();
+					fs.readAll(paths, null, (path, contents) -> bulkBytes.addAndGet(contents.remaining()));
+					long bulk = System.nanoTime() - start;
+					if(bytes != bulkBytes.get()) {
+						throw new IllegalStateException(bytes + " != " + bulkBytes);
+					}
+					System.out.printf("%d entries, %d KiB: one by one %dms, bulk %dms%n", ENTRIES, bytes >> 10, individual / 1_000_000, bulk / 1_000_000);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package net.devtech.fastzipfilesystem;
+
+/**
+ * What the tests, which are run as plain mains, fail with
+ */
+final class Checks {
+	private Checks() {}
+	
+	static void check(boolean condition, String message) {
+		if(!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
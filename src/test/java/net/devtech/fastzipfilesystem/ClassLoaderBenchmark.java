@@ -0,0 +1,161 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures application startup, opening a jar of generated classes and loading every one of them, with {@link FastZipClassLoader}, with a loader
+ * that reads classes through paths and {@link Files#readAllBytes(Path)}, and with {@link URLClassLoader}, printed as csv. Every tenth class
+ * extends Object and the rest extend the class before them in their package, so loading one also loads its superclasses. Pass the number of
+ * classes as the first argument.
+ */
+public class ClassLoaderBenchmark {
+	static final int RUNS = 5, PACKAGES = 50, CONSTANTS = 40;
+	
+	interface Loader {
+		ClassLoader open(Path jar) throws IOException;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int classes = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		Path jar = generate(Files.createTempFile("classes", ".jar"), classes);
+		try {
+			System.out.printf("classes,jar bytes%n%d,%d%n%n", classes, Files.size(jar));
+			System.out.println("loader,startup ms,classes/s");
+			FastZipFSProvider provider = new FastZipFSProvider();
+			measure("fastzip", jar, classes, false, path -> new FastZipClassLoader(new FastZipFS(provider, path, Map.of("readonly", "true")), null));
+			measure("fastzip parallel", jar, classes, true, path -> new FastZipClassLoader(new FastZipFS(provider, path, Map.of("readonly", "true")), null));
+			measure("fastzip paths", jar, classes, false, path -> new PathClassLoader(new FastZipFS(provider, path, Map.of("readonly", "true"))));
+			measure("URLClassLoader", jar, classes, false, path -> new URLClassLoader(new URL[] {path.toUri().toURL()}, null));
+		} finally {
+			Files.deleteIfExists(jar);
+		}
+	}
+	
+	static void measure(String name, Path jar, int classes, boolean parallel, Loader loader) throws Exception {
+		double best = Double.MAX_VALUE;
+		for(int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			ClassLoader classLoader = loader.open(jar);
+			IntStream indices = IntStream.range(0, classes);
+			(parallel ? indices.parallel() : indices).forEach(i -> {
+				try {
+					Class<?> type = Class.forName(className(i), false, classLoader);
+					Class<?> superclass = type.getSuperclass();
+					if(type.getClassLoader() != classLoader || (superclass != Object.class && !superclass.getName().equals(className(i - PACKAGES)))) {
+						throw new IllegalStateException(type + " wasn't loaded properly");
+					}
+				} catch(ClassNotFoundException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+			if(classLoader instanceof FastZipClassLoader fast) {
+				try(InputStream in = classLoader.getResourceAsStream(internalName(0) + ".class")) {
+					if(in == null || in.readAllBytes().length == 0) {
+						throw new IllegalStateException("resource missing from " + fast.findResource(internalName(0) + ".class"));
+					}
+				}
+				fast.fs.close();
+			} else if(classLoader instanceof PathClassLoader paths) {
+				paths.fs.close();
+			} else {
+				((URLClassLoader) classLoader).close();
+			}
+		}
+		System.out.printf("%s,%.1f,%.0f%n", name, best, classes / (best / 1000));
+	}
+	
+	static String internalName(int i) {
+		return "bench/p" + (i % PACKAGES) + "/C" + i;
+	}
+	
+	static String className(int i) {
+		return internalName(i).replace('/', '.');
+	}
+	
+	static Path generate(Path jar, int classes) throws IOException {
+		try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			for(int i = 0; i < classes; i++) {
+				out.putNextEntry(new ZipEntry(internalName(i) + ".class"));
+				int superclass = i - PACKAGES; // the class before in the same package
+				writeClass(out, internalName(i), i % 10 == 0 || superclass < 0 ? "java/lang/Object" : internalName(superclass), i);
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+	
+	/**
+	 * Writes a class with no members, and a constant pool padded out to the size of a typical small class
+	 */
+	static void writeClass(OutputStream out, String name, String superclass, int seed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(0xCAFEBABE);
+		data.writeShort(0);
+		data.writeShort(52);
+		data.writeShort(5 + CONSTANTS);
+		data.writeByte(1);
+		data.writeUTF(name);
+		data.writeByte(7);
+		data.writeShort(1);
+		data.writeByte(1);
+		data.writeUTF(superclass);
+		data.writeByte(7);
+		data.writeShort(3);
+		for(int i = 0; i < CONSTANTS; i++) {
+			data.writeByte(1);
+			data.writeUTF("constant " + i + " of " + name + " " + Integer.toHexString(seed * 31 + i));
+		}
+		data.writeShort(0x21); // public super
+		data.writeShort(2);
+		data.writeShort(4);
+		data.writeShort(0); // interfaces
+		data.writeShort(0); // fields
+		data.writeShort(0); // methods
+		data.writeShort(0); // attributes
+		bytes.writeTo(out);
+	}
+	
+	/**
+	 * What loading classes from a filesystem looks like without {@link FastZipClassLoader}
+	 */
+	static final class PathClassLoader extends ClassLoader {
+		static {
+			registerAsParallelCapable();
+		}
+		
+		final FastZipFS fs;
+		
+		PathClassLoader(FastZipFS fs) {
+			super(null);
+			this.fs = fs;
+		}
+		
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			Path path = this.fs.getPath(name.replace('.', '/') + ".class");
+			if(!Files.exists(path)) {
+				throw new ClassNotFoundException(name);
+			}
+			try {
+				byte[] bytes = Files.readAllBytes(path);
+				return this.defineClass(name, bytes, 0, bytes.length);
+			} catch(IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes entries from more and more threads at once, to show write throughput scales, and checks that concurrent appends to one entry are never
+ * lost and that directories being deleted and created in never leave orphaned entries behind
+ */
+public class ConcurrentWriteBenchmark {
+	static final int ENTRIES = 20_000, ENTRY_SIZE = 4096, APPENDS = 2000;
+	
+	public static void main(String[] args) throws Exception {
+		byte[] data = new byte[ENTRY_SIZE];
+		new Random(17).nextBytes(data);
+		Path zip = Files.createTempFile("concurrent", ".zip");
+		try {
+			for(int round = 0; round < 3; round++) { // first 2 are warmup
+				for(int threads = 1; threads <= Math.max(4, Runtime.getRuntime().availableProcessors()); threads *= 2) {
+					try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+						out.putNextEntry(new ZipEntry("data/"));
+					}
+					try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of())) {
+						int count = threads;
+						long time = run(threads, thread -> {
+							for(int i = thread; i < ENTRIES; i += count) {
+								try(OutputStream out = Files.newOutputStream(fs.getPath("data/" + i + ".bin"))) {
+									out.write(data);
+								}
+							}
+						});
+						if(fs.paths.size() != ENTRIES + 2) {
+							throw new IllegalStateException(fs.paths.size() + " entries");
+						}
+						if(!Arrays.equals(Files.readAllBytes(fs.getPath("data/" + (ENTRIES - 1) + ".bin")), data)) {
+							throw new IllegalStateException("contents differ");
+						}
+						System.out.printf("%d threads: %d entries in %dms (%d entries/s)%n", threads, ENTRIES, time / 1_000_000,
+								ENTRIES * 1_000_000_000L / time);
+					}
+				}
+			}
+			
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of())) {
+				int threads = 4;
+				Path log = fs.getPath("data/log.txt");
+				Files.write(log, new byte[0]);
+				run(threads, thread -> {
+					for(int i = 0; i < APPENDS; i++) {
+						try(SeekableByteChannel channel = Files.newByteChannel(log, Set.of(StandardOpenOption.APPEND))) {
+							channel.write(ByteBuffer.wrap(new byte[] {(byte) ('a' + thread)}));
+						}
+					}
+				});
+				byte[] appended = Files.readAllBytes(log);
+				for(int thread = 0; thread < threads; thread++) {
+					byte b = (byte) ('a' + thread);
+					long written = 0;
+					for(byte a : appended) {
+						if(a == b) {
+							written++;
+						}
+					}
+					if(written != APPENDS) {
+						throw new IllegalStateException("lost " + (APPENDS - written) + " appends from thread " + thread);
+					}
+				}
+				
+				run(threads, thread -> {
+					Path dir = fs.getPath("data/dir/");
+					for(int i = 0; i < APPENDS; i++) {
+						if(thread == 0) {
+							try {
+								Files.createDirectory(dir);
+							} catch(IOException ignored) {
+							}
+							try {
+								Files.delete(dir);
+							} catch(IOException ignored) { // something was created in it
+							}
+						} else {
+							Path file = fs.getPath("data/dir/" + thread + ".txt");
+							try {
+								Files.write(file, data);
+								Files.delete(file);
+							} catch(IOException ignored) { // the directory was deleted
+							}
+						}
+					}
+				});
+				for(ByteBuffer name : fs.paths.keySet()) {
+					FastZipEntry parent = fs.getParent(name);
+					if(parent == null || (parent != fs.paths.get(name) && !parent.children.contains(name))) {
+						throw new IllegalStateException(FastZipUtil.toStr(name) + " was orphaned");
+					}
+				}
+				System.out.printf("%d concurrent appends kept, namespace consistent, %d changes%n", threads * APPENDS, fs.modCount.get());
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	interface Task {
+		void run(int thread) throws IOException;
+	}
+	
+	static long run(int threads, Task task) throws Exception {
+		CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+		List<Thread> started = new ArrayList<>();
+		Throwable[] failure = {null};
+		for(int i = 0; i < threads; i++) {
+			int thread = i;
+			Thread t = new Thread(() -> {
+				try {
+					barrier.await();
+					task.run(thread);
+				} catch(IOException e) {
+					failure[0] = new UncheckedIOException(e);
+				} catch(Exception e) {
+					failure[0] = e;
+				}
+			});
+			t.start();
+			started.add(t);
+		}
+		barrier.await();
+		long start = System.nanoTime();
+		for(Thread thread : started) {
+			thread.join();
+		}
+		if(failure[0] != null) {
+			throw new IllegalStateException(failure[0]);
+		}
+		return System.nanoTime() - start;
+	}
+}
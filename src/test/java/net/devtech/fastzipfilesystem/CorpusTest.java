@@ -0,0 +1,85 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+/**
+ * Opens generated archives of every shape the generator supports, and checks every entry against both the generator and ZipFile, then flushes
+ * each with an entry added, and checks the flushed archive has every entry it was written with, read both ways again
+ */
+public class CorpusTest {
+	public static void main(String[] args) throws IOException {
+		Map<String, ArchiveGenerator> corpus = Map.of(
+				"default", new ArchiveGenerator(),
+				"empty", new ArchiveGenerator().entries(0).directoryEntries(false),
+				"one entry, no directories", new ArchiveGenerator().entries(1).directoryEntries(false).sizes(ArchiveGenerator.Sizes.fixed(3)),
+				"missing directory entries", new ArchiveGenerator().seed(1).directories(4, 3).directoryEntries(false),
+				"stored and deflated", new ArchiveGenerator().seed(2).deflated(.5).sizes(ArchiveGenerator.Sizes.exponential(4096)),
+				"longest comment", new ArchiveGenerator().seed(3).comment(0xFFFF),
+				"all zip64", new ArchiveGenerator().seed(4).zip64Threshold(0).sizes(ArchiveGenerator.Sizes.uniform(0, 10_000)),
+				"zip64 past 64k entries", new ArchiveGenerator().seed(5).entries(70_000).sizes(ArchiveGenerator.Sizes.fixed(16)),
+				"zip64 offsets only", new ArchiveGenerator().seed(6).zip64Threshold(1 << 20).sizes(ArchiveGenerator.Sizes.fixed(4096)));
+		for(Map.Entry<String, ArchiveGenerator> shape : corpus.entrySet()) {
+			ArchiveGenerator generator = shape.getValue();
+			Path path = generator.generate(Files.createTempFile("corpus", ".zip"));
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), path, Map.of("readonly", "true")); ZipFile zip = new ZipFile(path.toFile())) {
+				for(int i = 0; i < generator.entries; i++) {
+					String name = generator.name(i);
+					byte[] expected = generator.data(i), actual = Files.readAllBytes(fs.getPath(name));
+					byte[] jdk;
+					try(InputStream in = zip.getInputStream(zip.getEntry(name))) {
+						jdk = in.readAllBytes();
+					}
+					if(!Arrays.equals(expected, actual) || !Arrays.equals(expected, jdk)) {
+						throw new IllegalStateException(shape.getKey() + ": " + name + " differs");
+					}
+				}
+				if(generator.entries > 0) {
+					Path parent = fs.getPath(generator.name(0)).getParent();
+					try(var list = Files.list(parent)) {
+						if(list.noneMatch(p -> p.getFileName().toString().equals("e0.bin"))) {
+							throw new IllegalStateException(shape.getKey() + ": " + parent + " isn't listed");
+						}
+					}
+				}
+				System.out.printf("%s: %d entries, %d KiB%n", shape.getKey(), generator.entries, Files.size(path) >> 10);
+			}
+			try {
+				flush(shape.getKey(), generator, path);
+			} finally {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+	
+	static void flush(String shape, ArchiveGenerator generator, Path path) throws IOException {
+		byte[] added = "added".getBytes(StandardCharsets.UTF_8);
+		int written;
+		try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), path, Map.of())) {
+			Files.write(fs.getPath("added.bin"), added);
+			written = fs.paths.size();
+		}
+		try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), path, Map.of("readonly", "true")); ZipFile zip = new ZipFile(path.toFile())) {
+			if(fs.shared.entries.size() != written || zip.size() != written) {
+				throw new IllegalStateException(shape + ": flushed " + written + " entries, read " + fs.shared.entries.size() + " back, ZipFile read " + zip.size());
+			}
+			for(int i = 0; i <= generator.entries; i++) {
+				String name = i == generator.entries ? "added.bin" : generator.name(i);
+				byte[] expected = i == generator.entries ? added : generator.data(i), actual = Files.readAllBytes(fs.getPath(name));
+				byte[] jdk;
+				try(InputStream in = zip.getInputStream(zip.getEntry(name))) {
+					jdk = in.readAllBytes();
+				}
+				if(!Arrays.equals(expected, actual) || !Arrays.equals(expected, jdk)) {
+					throw new IllegalStateException(shape + ": " + name + " differs once flushed");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.FileNotFoundException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Copies and moves entries between filesystems, and checks their compressed data is carried over without being inflated or deflated again, that
+ * it's still readable once the source is closed and unmapped before the target is flushed, that entries without contents aren't copied, and
+ * that every archive is released afterwards
+ */
+public class CrossCopyTest {
+	static final int ENTRIES = 500, COPIED = 200, MOVED = 50;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator sourceGenerator = new ArchiveGenerator().seed(50).entries(ENTRIES).sizes(ArchiveGenerator.Sizes.exponential(16384));
+		ArchiveGenerator targetGenerator = new ArchiveGenerator().seed(51).entries(10);
+		Path sourceZip = sourceGenerator.generate(Files.createTempFile("source", ".zip"));
+		Path targetZip = targetGenerator.generate(Files.createTempFile("target", ".zip"));
+		try {
+			FastZipFS source = new FastZipFS(provider, sourceZip, Map.of("unmapOnClose", "true"));
+			FastZipFS target = new FastZipFS(provider, targetZip, Map.of());
+			Files.createDirectories(target.getPath("d0/copied"));
+			FastZipStats.Sample before = provider.stats();
+			for(int i = 0; i < COPIED + MOVED; i++) {
+				Path from = source.getPath(sourceGenerator.name(i)), to = target.getPath("d0/copied/" + i + ".bin");
+				if(i < COPIED) {
+					Files.copy(from, to);
+				} else {
+					Files.move(from, to);
+				}
+				FastZipEntry.ZipContents contents = ((FastZipPath) to).getEntry(false).contents;
+				check(contents.compressedData == source.shared.buffer, to + " doesn't reference the source's archive");
+			}
+			source.close(); // unmapped if nothing else pins it
+			target.close();
+			FastZipStats.Sample after = provider.stats();
+			check(after.deflatedBytes() == before.deflatedBytes() && after.inflatedBytes() == before.inflatedBytes(), "entries were recompressed");
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+			
+			try(ZipFile zip = new ZipFile(targetZip.toFile())) {
+				for(int i = 0; i < COPIED + MOVED; i++) {
+					ZipEntry entry = zip.getEntry("d0/copied/" + i + ".bin");
+					check(entry != null && Arrays.equals(zip.getInputStream(entry).readAllBytes(), sourceGenerator.data(i)), "copied entry " + i);
+				}
+			}
+			try(ZipFile zip = new ZipFile(sourceZip.toFile())) {
+				for(int i = 0; i < ENTRIES; i++) {
+					check((zip.getEntry(sourceGenerator.name(i)) == null) == (i >= COPIED && i < COPIED + MOVED), "moved entry " + i);
+				}
+			}
+			
+			// out of a union, and into one
+			try(FastZipFS union = (FastZipFS) provider.newUnionFileSystem(List.of(targetZip), Map.of());
+			    FastZipFS fs = new FastZipFS(provider, sourceZip, Map.of())) {
+				Files.copy(union.getPath("d0/copied/0.bin"), fs.getPath("d0/union.bin"));
+				try {
+					Files.copy(fs.getPath("d0/union.bin"), union.getPath("d0/copied/new.bin"));
+					throw new IllegalStateException("copied into a union");
+				} catch(ReadOnlyFileSystemException expected) {
+				}
+			}
+			check(provider.archives.isEmpty(), "archives weren't released after the union " + provider.archives.keySet());
+			try(FastZipFS fs = new FastZipFS(provider, sourceZip, Map.of())) {
+				check(Arrays.equals(Files.readAllBytes(fs.getPath("d0/union.bin")), sourceGenerator.data(0)), "copied out of a union");
+			}
+			
+			// an entry that's still being written has no contents to copy yet
+			try(FastZipFS fs = new FastZipFS(provider, sourceZip, Map.of());
+			    FastZipFS other = new FastZipFS(provider, targetZip, Map.of())) {
+				SeekableByteChannel writing = Files.newByteChannel(fs.getPath("d0/writing.bin"), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				try {
+					Files.copy(fs.getPath("d0/writing.bin"), other.getPath("d0/writing.bin"));
+					throw new IllegalStateException("copied an entry without contents");
+				} catch(FileNotFoundException expected) {
+				} finally {
+					writing.close();
+				}
+				check(((FastZipPath) other.getPath("d0/writing.bin")).getEntry(false) == null, "created a target for an entry without contents");
+			}
+			check(provider.archives.isEmpty(), "archives weren't released after copying an entry without contents " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(sourceZip);
+			Files.deleteIfExists(targetZip);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes, overwrites and deletes duplicated entries on a deduplicating filesystem that unmaps released versions, flushing in between, and checks
+ * writes share the contents of entries read from the archive, that the store forgets contents that were written over, deleted, or read from a
+ * version that was released, and that everything reads back
+ */
+public class DeduplicateTest {
+	static final int ENTRIES = 100, FLUSHES = 10;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(27).entries(ENTRIES).deflated(.5).sizes(ArchiveGenerator.Sizes.exponential(16384));
+		Path zip = generator.generate(Files.createTempFile("deduplicate", ".zip"));
+		try {
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of("deduplicate", "true", "unmapOnClose", "true"))) {
+				Files.createDirectories(fs.getPath("d0/copies"));
+				for(int flush = 0; flush < FLUSHES; flush++) {
+					long hits = fs.store.hits.sum();
+					for(int i = 0; i < ENTRIES; i++) {
+						Files.write(fs.getPath("d0/copies/" + i + ".bin"), generator.data((i + flush) % ENTRIES));
+					}
+					check(fs.store.hits.sum() - hits == ENTRIES, "flush " + flush + " shared " + (fs.store.hits.sum() - hits) + " writes");
+					Files.delete(fs.getPath("d0/copies/" + flush + ".bin"));
+					check(stored(fs.store) <= 2 * ENTRIES, "flush " + flush + " is storing " + stored(fs.store) + " contents");
+					fs.flush();
+					for(List<ContentStore.Stored> list : fs.store.contents.values()) {
+						for(ContentStore.Stored stored : list) {
+							check(stored.archive == null || stored.archive == fs.shared, "stored contents from a released version");
+						}
+					}
+				}
+				for(int i = 0; i < ENTRIES; i++) {
+					Path copy = fs.getPath("d0/copies/" + i + ".bin");
+					check(i == FLUSHES - 1 ? !Files.exists(copy) : Arrays.equals(Files.readAllBytes(copy), generator.data((i + FLUSHES - 1) % ENTRIES)), "copy " + i);
+					check(Arrays.equals(Files.readAllBytes(fs.getPath(generator.name(i))), generator.data(i)), "entry " + i);
+				}
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	static int stored(ContentStore store) {
+		int stored = 0;
+		for(List<ContentStore.Stored> list : store.contents.values()) {
+			stored += list.size();
+		}
+		return stored;
+	}
+}
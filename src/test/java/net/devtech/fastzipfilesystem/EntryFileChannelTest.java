@@ -0,0 +1,115 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Opens file channels on stored and deflated entries, and checks mapping stored entries hands out the archive's mapping, that deflated and
+ * written entries can't be mapped, and that transferring whole entries and ranges of them to a file and to a stream writes the right bytes
+ */
+public class EntryFileChannelTest {
+	static final int ENTRIES = 100;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(29).entries(ENTRIES).deflated(.5).sizes(ArchiveGenerator.Sizes.uniform(1, 100000));
+		Path zip = generator.generate(Files.createTempFile("channel", ".zip"));
+		Path target = Files.createTempFile("channel", ".bin");
+		try {
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of())) {
+				int mapped = 0;
+				for(int i = 0; i < ENTRIES; i++) {
+					Path path = fs.getPath(generator.name(i));
+					byte[] data = generator.data(i);
+					int from = data.length / 3, to = data.length - data.length / 3;
+					try(FileChannel channel = FileChannel.open(path)) {
+						check(channel.size() == data.length, path + " is " + channel.size() + " bytes, expected " + data.length);
+						if(generator.isDeflated(i)) {
+							try {
+								channel.map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+								throw new IllegalStateException("mapped deflated " + path);
+							} catch(UnsupportedOperationException expected) {
+							}
+						} else {
+							// stored entries are slices of the archive's own mapping
+							check(Arrays.equals(bytes(channel.map(FileChannel.MapMode.READ_ONLY, 0, data.length)), data), "mapped " + path);
+							byte[] range = bytes(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from));
+							check(Arrays.equals(range, Arrays.copyOfRange(data, from, to)), "mapped range of " + path);
+							mapped++;
+						}
+						try {
+							channel.map(FileChannel.MapMode.READ_WRITE, 0, data.length);
+							throw new IllegalStateException("mapped " + path + " writable");
+						} catch(NonWritableChannelException expected) {
+						}
+						
+						// a file channel target takes the archive's transferTo, a stream goes through the buffer
+						try(FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+							check(transfer(channel, 0, data.length, file) == data.length, "transferred part of " + path + " to a file");
+						}
+						check(Arrays.equals(Files.readAllBytes(target), data), "transferred " + path + " to a file");
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						check(transfer(channel, from, to - from, Channels.newChannel(out)) == to - from, "transferred part of a range of " + path);
+						check(Arrays.equals(out.toByteArray(), Arrays.copyOfRange(data, from, to)), "transferred range of " + path);
+						check(channel.transferTo(data.length, 1, Channels.newChannel(out)) == 0, "transferred past the end of " + path);
+					}
+				}
+				check(mapped > 0, "no stored entries were generated");
+				
+				try {
+					FileChannel.open(fs.getPath(generator.name(0)), StandardOpenOption.WRITE).close();
+					throw new IllegalStateException("opened a writable entry channel");
+				} catch(UnsupportedOperationException expected) {
+				}
+				
+				// written entries aren't in the archive's mapping until they're flushed
+				Path written = fs.getPath(generator.name(0) + ".new");
+				byte[] data = generator.data(1);
+				Files.write(written, data);
+				try(FileChannel channel = FileChannel.open(written)) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					check(transfer(channel, 0, data.length, Channels.newChannel(out)) == data.length, "transferred part of a written entry");
+					check(Arrays.equals(out.toByteArray(), data), "transferred a written entry");
+					try {
+						channel.map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+						throw new IllegalStateException("mapped a written entry");
+					} catch(UnsupportedOperationException expected) {
+					}
+				}
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(zip);
+			Files.deleteIfExists(target);
+		}
+	}
+	
+	static long transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws Exception {
+		long transferred = 0;
+		while(transferred < count) {
+			long written = channel.transferTo(position + transferred, count - transferred, target);
+			if(written <= 0) {
+				break;
+			}
+			transferred += written;
+		}
+		return transferred;
+	}
+	
+	static byte[] bytes(MappedByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+}
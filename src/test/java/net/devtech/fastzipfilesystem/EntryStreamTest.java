@@ -0,0 +1,177 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads stored and deflated entries through entry input streams, whole and after partial reads and skips, and checks readAllBytes allocates
+ * only the array it returns. Then writes entries of every size through entry output streams, a byte, a chunk and everything at a time, and
+ * checks they read back through the filesystem and through {@link ZipFile} after a flush, and that a read only filesystem refuses every write.
+ */
+public class EntryStreamTest {
+	static final int ENTRIES = 100;
+	/**
+	 * what readAllBytes may allocate besides the array, for the byte buffers wrapping it and the slices of the archive it's copied from
+	 */
+	static final long ALLOCATION_SLACK = 16384;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(32).entries(ENTRIES).deflated(.5).sizes(ArchiveGenerator.Sizes.exponential(200000));
+		Path zip = generator.generate(Files.createTempFile("streams", ".zip"));
+		com.sun.management.ThreadMXBean threads = ManagementFactory.getPlatformMXBean(com.sun.management.ThreadMXBean.class);
+		long thread = Thread.currentThread().getId();
+		byte[] text = "some text that compresses well, ".repeat(10000).getBytes(StandardCharsets.UTF_8);
+		try {
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of())) {
+				int large = 0;
+				for(int i = 0; i < ENTRIES; i++) {
+					Path path = fs.getPath(generator.name(i));
+					byte[] data = generator.data(i);
+					// once to warm up, then measured
+					for(int pass = 0; pass < 2; pass++) {
+						try(InputStream stream = Files.newInputStream(path)) {
+							check(stream instanceof EntryInputStream, path + " wasn't opened as an entry stream");
+							long allocated = threads.getThreadAllocatedBytes(thread);
+							byte[] read = stream.readAllBytes();
+							allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+							check(Arrays.equals(read, data), "read all of " + path);
+							if(pass == 1) {
+								check(allocated < data.length + ALLOCATION_SLACK, "reading " + data.length + " bytes allocated " + allocated);
+							}
+							check(stream.read() == -1 && stream.readAllBytes().length == 0, "read past the end of " + path);
+						}
+					}
+					if(data.length > ALLOCATION_SLACK) {
+						large++;
+					}
+					
+					// a byte, a chunk, a skip, and the rest in an array of exactly the remaining size
+					try(InputStream stream = Files.newInputStream(path)) {
+						if(data.length == 0) {
+							continue;
+						}
+						check(stream.read() == (data[0] & 0xFF), "first byte of " + path);
+						int chunk = (data.length - 1) / 3;
+						check(Arrays.equals(stream.readNBytes(chunk), Arrays.copyOfRange(data, 1, 1 + chunk)), "chunk of " + path);
+						long skipped = stream.skip(chunk);
+						check(skipped == chunk, "skipped " + skipped + " of " + chunk + " bytes of " + path);
+						int rest = 1 + 2 * chunk;
+						check(stream.available() == data.length - rest, path + " has " + stream.available() + " bytes available");
+						check(Arrays.equals(stream.readAllBytes(), Arrays.copyOfRange(data, rest, data.length)), "rest of " + path);
+					}
+				}
+				check(large > 0, "no entries were large enough to check readAllBytes' allocation");
+				
+				InputStream closed = Files.newInputStream(fs.getPath(generator.name(0)));
+				closed.close();
+				closed.close();
+				try {
+					closed.read();
+					throw new IllegalStateException("read a closed stream");
+				} catch(IOException expected) {
+				}
+				
+				// below the policy's minimum, below its sample size, and above it, compressible or not
+				Map<String, byte[]> written = new HashMap<>();
+				byte[] random = generator.data(0);
+				for(int size : new int[] {0, 1, 63, 64, 4000, 4097, 100000, text.length}) {
+					for(int chunk : new int[] {1, 1000, Integer.MAX_VALUE}) {
+						byte[] compressible = Arrays.copyOf(text, size), incompressible = Arrays.copyOf(random, Math.min(size, random.length));
+						written.put(write(fs, "d0/written-text-" + size + "-" + chunk, compressible, chunk), compressible);
+						written.put(write(fs, "d0/written-random-" + size + "-" + chunk, incompressible, chunk), incompressible);
+					}
+				}
+				for(Map.Entry<String, byte[]> entry : written.entrySet()) {
+					check(Arrays.equals(Files.readAllBytes(fs.getPath(entry.getKey())), entry.getValue()), "read back " + entry.getKey());
+				}
+				FastZipEntry.ZipContents contents = ((FastZipPath) fs.getPath("d0/written-text-" + text.length + "-1000")).getEntry(false).contents;
+				check(contents.compressionMethod == FastZipEntry.METHOD_DEFLATED, "compressible text was stored");
+				
+				OutputStream stream = Files.newOutputStream(fs.getPath("d0/written-closed"));
+				check(stream instanceof EntryOutputStream, "d0/written-closed wasn't opened as an entry stream");
+				stream.write(text, 0, 100);
+				stream.close();
+				stream.close();
+				try {
+					stream.write(1);
+					throw new IllegalStateException("wrote to a closed stream");
+				} catch(IOException expected) {
+				}
+				check(Files.size(fs.getPath("d0/written-closed")) == 100, "closing twice wrote the entry twice");
+				
+				fs.flush();
+				for(Map.Entry<String, byte[]> entry : written.entrySet()) {
+					check(Arrays.equals(Files.readAllBytes(fs.getPath(entry.getKey())), entry.getValue()), "read back flushed " + entry.getKey());
+				}
+			}
+			
+			try(ZipFile file = new ZipFile(zip.toFile())) {
+				for(int size : new int[] {63, 4097, text.length}) {
+					ZipEntry entry = file.getEntry("d0/written-text-" + size + "-1");
+					try(InputStream stream = file.getInputStream(entry)) {
+						check(Arrays.equals(stream.readAllBytes(), Arrays.copyOf(text, size)), entry.getName() + " read back wrong through ZipFile");
+					}
+				}
+			}
+			
+			// a read only filesystem refuses to open an entry for writing however it's opened, and leaves the archive alone
+			byte[] before = Files.readAllBytes(zip);
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of("readonly", "true"))) {
+				Path created = fs.getPath("d0/written-read-only"), existing = fs.getPath(generator.name(0));
+				List<OpenOption[]> modes = List.of(new OpenOption[0],
+				                                   new OpenOption[] {StandardOpenOption.APPEND},
+				                                   new OpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.APPEND},
+				                                   new OpenOption[] {StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE},
+				                                   new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING});
+				for(Path path : List.of(created, existing)) {
+					for(OpenOption[] mode : modes) {
+						try {
+							Files.newOutputStream(path, mode).close();
+							throw new IllegalStateException("opened " + path + " for writing with " + Arrays.toString(mode));
+						} catch(ReadOnlyFileSystemException expected) {
+						}
+					}
+				}
+				check(((FastZipPath) created).getEntry(false) == null, "a read only filesystem created an entry");
+			}
+			check(Arrays.equals(Files.readAllBytes(zip), before), "a read only filesystem changed the archive");
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	/**
+	 * Writes the data through an entry output stream a chunk at a time
+	 */
+	static String write(FastZipFS fs, String name, byte[] data, int chunk) throws IOException {
+		try(OutputStream stream = Files.newOutputStream(fs.getPath(name))) {
+			for(int i = 0; i < data.length; i += chunk) {
+				int length = Math.min(chunk, data.length - i);
+				if(length == 1) {
+					stream.write(data[i]);
+				} else {
+					stream.write(data, i, length);
+				}
+			}
+		}
+		return name;
+	}
+}
@@ -0,0 +1,93 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Records a generated archive being opened, read, written and flushed, and checks every event was emitted with its fields filled in, and that
+ * thresholds drop the per entry events
+ */
+public class EventsTest {
+	public static void main(String[] args) throws Exception {
+		ArchiveGenerator generator = new ArchiveGenerator().seed(44).entries(200).sizes(ArchiveGenerator.Sizes.exponential(16384));
+		Path zip = generator.generate(Files.createTempFile("events", ".zip"));
+		try {
+			List<RecordedEvent> events = record(zip, generator, Duration.ZERO);
+			Map<String, Integer> counts = new HashMap<>();
+			Set<String> phases = new HashSet<>();
+			boolean streamed = false, whole = false;
+			for(RecordedEvent event : events) {
+				String type = event.getEventType().getName().substring(FastZipEvents.PREFIX.length());
+				counts.merge(type, 1, Integer::sum);
+				switch(type) {
+					case "Open" -> {
+						check(event.getInt("entries") > generator.entries, "open entries " + event);
+						check(event.getLong("centralDirectoryBytes") > 0, "central directory size " + event);
+					}
+					case "Decompress" -> {
+						check(event.getString("entry").startsWith("d"), "decompress entry " + event);
+						check(event.getLong("uncompressedSize") > 0, "decompress size " + event);
+						streamed |= event.getBoolean("streamed");
+						whole |= !event.getBoolean("streamed");
+					}
+					case "Compress" -> check(event.getString("entry").startsWith("d0/new/"), "compress entry " + event);
+					case "FlushPhase" -> phases.add(event.getString("phase"));
+				}
+			}
+			System.out.println(counts + " " + phases);
+			check(counts.getOrDefault("Open", 0) >= 2, "archive opened and published " + counts);
+			check(streamed && whole, "streamed " + streamed + " whole " + whole);
+			check(counts.getOrDefault("Compress", 0) >= 10, "compressed " + counts);
+			check(phases.equals(Set.of("compress", "local headers", "central directory", "replace", "publish")), "phases " + phases);
+			
+			for(RecordedEvent event : record(zip, generator, Duration.ofHours(1))) {
+				String type = event.getEventType().getName();
+				check(!type.endsWith("Decompress") && !type.endsWith("Compress"), "recorded under threshold " + event);
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	static List<RecordedEvent> record(Path zip, ArchiveGenerator generator, Duration threshold) throws Exception {
+		Path dump = Files.createTempFile("events", ".jfr");
+		try(Recording recording = new Recording()) {
+			FastZipEvents.enable(recording, threshold);
+			recording.start();
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of())) {
+				for(int i = 0; i < 50; i++) {
+					Path path = fs.getPath(generator.name(i));
+					if(i % 2 == 0) {
+						try(InputStream in = Files.newInputStream(path)) {
+							in.transferTo(OutputStream.nullOutputStream());
+						}
+					} else {
+						Files.readAllBytes(path);
+					}
+				}
+				Files.createDirectories(fs.getPath("d0/new"));
+				for(int i = 0; i < 10; i++) {
+					Files.write(fs.getPath("d0/new/" + i + ".txt"), generator.data(i));
+				}
+			}
+			recording.stop();
+			recording.dump(dump);
+			return RecordingFile.readAllEvents(dump);
+		} finally {
+			Files.deleteIfExists(dump);
+		}
+	}
+}
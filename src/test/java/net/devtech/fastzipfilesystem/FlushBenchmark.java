@@ -0,0 +1,74 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class FlushBenchmark {
+	static final int ENTRIES = 3000;
+	
+	public static void main(String[] args) throws IOException {
+		for(int i = 0; i < 4; i++) { // first 3 are warmup
+			run("deflate all", new CompressionPolicy(List.of(), Deflater.DEFAULT_COMPRESSION, 0, 0, 0), false);
+			run("adaptive", CompressionPolicy.from(Map.of()), false);
+			run("adaptive, deduplicated", CompressionPolicy.from(Map.of()), true);
+			System.out.println();
+		}
+	}
+	
+	static void run(String name, CompressionPolicy policy, boolean deduplicate) throws IOException {
+		Path zip = Files.createTempFile("flush", ".zip");
+		try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+			out.putNextEntry(new ZipEntry("assets/"));
+			out.closeEntry();
+		}
+		
+		Random random = new Random(31);
+		long start = System.nanoTime();
+		byte[] license = "Permission is hereby granted, free of charge, to any person obtaining a copy of this software. ".repeat(200)
+				.getBytes(StandardCharsets.UTF_8);
+		ContentStore store = null;
+		try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("compressionPolicy", policy, "deduplicate", deduplicate + ""))) {
+			store = fs.store;
+			for(int i = 0; i < ENTRIES; i++) {
+				byte[] data = new byte[16384 + random.nextInt(49152)];
+				String file = switch(i % 3) {
+					case 0 -> {
+						random.nextBytes(data);
+						yield "assets/texture_" + i + ".png";
+					}
+					case 1 -> {
+						random.nextBytes(data);
+						yield "assets/blob_" + i + ".bin";
+					}
+					default -> {
+						byte[] text = ("{\"key_" + i + "\": \"some translated text\", ").getBytes(StandardCharsets.UTF_8);
+						for(int j = 0; j < data.length; j++) {
+							data[j] = text[j % text.length];
+						}
+						yield "assets/lang_" + i + ".json";
+					}
+				};
+				Files.write(fs.getPath(file), data);
+				if(i % 10 == 0) {
+					Files.write(fs.getPath("assets/LICENSE_" + i + ".txt"), license);
+				}
+			}
+		} finally {
+			long time = System.nanoTime() - start;
+			System.out.printf("%s: %dms, %d bytes%n", name, time / 1_000_000, Files.size(zip));
+			System.out.println("\t" + policy.stats);
+			if(store != null) {
+				System.out.println("\t" + store);
+			}
+			Files.deleteIfExists(zip);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Compares {@link MappedBigByteBuffer} with mapping {@link BigByteBuffer#MAX_SIZE} sized chunks, on a sparse multi GiB file
+ */
+public class MappedBufferBenchmark {
+	static final long SIZE = 5L << 30;
+	static final int READS = 5_000_000;
+	
+	public static void main(String[] args) throws IOException {
+		Path file = Files.createTempFile("mapped", ".bin");
+		try {
+			try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+				raf.setLength(SIZE);
+			}
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				ByteBuffer[] contents = new ByteBuffer[FastZipUtil.ceilDiv(SIZE, BigByteBuffer.MAX_SIZE)];
+				for(int i = 0; i < contents.length; i++) {
+					long start = (long) i * BigByteBuffer.MAX_SIZE;
+					contents[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SIZE - start, BigByteBuffer.MAX_SIZE));
+				}
+				BigByteBuffer old = new BigByteBuffer(contents, SIZE);
+				BigByteBuffer chunked = new MappedBigByteBuffer(channel);
+				for(int i = 0; i < 5; i++) { // first 4 are warmup
+					bench("max size chunks", old);
+					bench("power of 2 chunks", chunked);
+					System.out.println();
+				}
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	static void bench(String name, BigByteBuffer buffer) {
+		Random random = new Random(3);
+		long start = System.nanoTime(), sum = 0;
+		for(int i = 0; i < READS; i++) {
+			sum += buffer.slice((long) (random.nextDouble() * (SIZE - 46)), 46).getInt(0);
+		}
+		long headers = System.nanoTime() - start;
+		
+		// reads around chunk boundaries of both layouts, which the old layout has to copy
+		start = System.nanoTime();
+		for(int i = 0; i < READS / 100; i++) {
+			long boundary = (i & 1) == 0 ? (long) (random.nextInt(2) + 1) * BigByteBuffer.MAX_SIZE : (long) (random.nextInt(4) + 1) << 30;
+			sum += buffer.slice(boundary - 32768, 65536).getInt(0);
+		}
+		long crossing = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		long[] read = {0};
+		buffer.segmentedInsert(b -> read[0] += b.remaining(), 0, SIZE);
+		long segments = System.nanoTime() - start;
+		System.out.printf("%s: %d 46 byte slices %dms, %d 64 KiB slices across boundaries %dms, segmented walk %dus (%d)%n", name, READS,
+				headers / 1_000_000, READS / 100, crossing / 1_000_000, segments / 1000, sum + read[0]);
+	}
+}
@@ -0,0 +1,94 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Opens a multi-release jar at several release versions and checks each name resolves to the highest version at or below the release, that
+ * entries that only exist in a version are looked up and listed, that jars that aren't multi-release are left alone, and that flushing doesn't
+ * write the resolved view back
+ */
+public class MultiReleaseTest {
+	public static void main(String[] args) throws Exception {
+		Path jar = write(Files.createTempFile("release", ".jar"), true);
+		Path plain = write(Files.createTempFile("release", ".jar"), false);
+		FastZipFSProvider provider = new FastZipFSProvider();
+		try {
+			checkRelease(provider, jar, 8, "base", null);
+			checkRelease(provider, jar, 10, "v9", null);
+			checkRelease(provider, jar, 11, "v11", "only11");
+			checkRelease(provider, jar, 17, "v17", "only11");
+			checkRelease(provider, jar, "runtime", Runtime.version().feature() >= 17 ? "v17" : "v11", "only11");
+			checkRelease(provider, plain, 17, "base", null);
+			
+			try(FastZipFS fs = new FastZipFS(provider, jar, Map.of("releaseVersion", "17"))) {
+				Files.writeString(fs.getPath("a/C.txt"), "new");
+			}
+			try(FastZipFS fs = new FastZipFS(provider, jar, Map.of())) {
+				check(Files.readString(fs.getPath("a/A.class")).equals("base"), "base entry was overwritten");
+				check(!Files.exists(fs.getPath("a/Only.txt")), "resolved entry was written back");
+				check(Files.readString(fs.getPath("a/C.txt")).equals("new"), "written entry missing");
+			}
+		} finally {
+			Files.deleteIfExists(jar);
+			Files.deleteIfExists(plain);
+		}
+	}
+	
+	static void checkRelease(FastZipFSProvider provider, Path jar, Object release, String expected, String only) throws IOException {
+		try(FastZipFS fs = new FastZipFS(provider, jar, Map.of("releaseVersion", release))) {
+			String read = Files.readString(fs.getPath("a/A.class"));
+			check(read.equals(expected), "release " + release + " read " + read);
+			check(Files.readString(fs.getPath("a/B.txt")).equals("b"), "release " + release + " unversioned entry");
+			Path onlyPath = fs.getPath("a/Only.txt");
+			check(only == null ? !Files.exists(onlyPath) : Files.readString(onlyPath).equals(only), "release " + release + " versioned only entry");
+			
+			Set<String> listed = new HashSet<>();
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("a"))) {
+				for(Path path : stream) {
+					listed.add(path.getFileName().toString());
+				}
+			}
+			Set<String> expectedListing = only == null ? Set.of("A.class", "B.txt") : Set.of("A.class", "B.txt", "Only.txt");
+			check(listed.equals(expectedListing), "release " + release + " listed " + listed);
+		}
+	}
+	
+	static Path write(Path jar, boolean multiRelease) throws IOException {
+		try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			// directory entries too, like the jar tool writes, which are merged rather than resolved to a version
+			put(out, "META-INF/", "");
+			put(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n" + (multiRelease ? "Multi-Release: true\r\n" : "") + "\r\n");
+			put(out, "a/", "");
+			put(out, "a/A.class", "base");
+			put(out, "a/B.txt", "b");
+			put(out, "META-INF/versions/", "");
+			for(String version : new String[] {"9", "11", "17", "99"}) {
+				put(out, "META-INF/versions/" + version + "/", "");
+				put(out, "META-INF/versions/" + version + "/a/", "");
+			}
+			put(out, "META-INF/versions/9/a/A.class", "v9");
+			put(out, "META-INF/versions/11/a/A.class", "v11");
+			put(out, "META-INF/versions/11/a/Only.txt", "only11");
+			put(out, "META-INF/versions/17/a/A.class", "v17");
+			put(out, "META-INF/versions/99/a/A.class", "v99");
+		}
+		return jar;
+	}
+	
+	static void put(ZipOutputStream out, String name, String contents) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		out.write(contents.getBytes(StandardCharsets.UTF_8));
+		out.closeEntry();
+	}
+}
@@ -0,0 +1,88 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Opens jars stored inside a fat jar, through the fast zip filesystem the fat jar is open in, so they're windows onto its mapping
+ */
+public class NestedOpenBenchmark {
+	static final int JARS = 32, ENTRIES = 500, ENTRY_SIZE = 4096;
+	
+	public static void main(String[] args) throws IOException {
+		Path outer = Files.createTempFile("fat", ".jar");
+		try {
+			Random random = new Random(13);
+			byte[] expected = null;
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(outer))) {
+				out.putNextEntry(new ZipEntry("lib/"));
+				for(int j = 0; j < JARS; j++) {
+					Path inner = Files.createTempFile("inner", ".jar");
+					try {
+						try(ZipOutputStream jar = new ZipOutputStream(Files.newOutputStream(inner))) {
+							jar.putNextEntry(new ZipEntry("data/"));
+							for(int i = 0; i < ENTRIES; i++) {
+								byte[] data = new byte[ENTRY_SIZE];
+								random.nextBytes(data);
+								jar.putNextEntry(new ZipEntry("data/" + i + ".bin"));
+								jar.write(data);
+								expected = data;
+							}
+						}
+						byte[] innerBytes = Files.readAllBytes(inner);
+						ZipEntry entry = new ZipEntry("lib/" + j + ".jar");
+						entry.setMethod(ZipEntry.STORED);
+						entry.setSize(innerBytes.length);
+						CRC32 crc = new CRC32();
+						crc.update(innerBytes);
+						entry.setCrc(crc.getValue());
+						out.putNextEntry(entry);
+						out.write(innerBytes);
+					} finally {
+						Files.deleteIfExists(inner);
+					}
+				}
+			}
+			
+			FastZipFSProvider provider = new FastZipFSProvider();
+			for(int i = 0; i < 5; i++) { // first 4 are warmup
+				long start = System.nanoTime();
+				try(FileSystem jdk = FileSystems.newFileSystem(outer)) {
+					for(int j = 0; j < JARS; j++) {
+						try(FileSystem nested = FileSystems.newFileSystem(jdk.getPath("lib/" + j + ".jar"))) {
+							nested.getPath("data/0.bin");
+						}
+					}
+				}
+				long jdkTime = System.nanoTime() - start;
+				
+				start = System.nanoTime();
+				try(FastZipFS fat = new FastZipFS(provider, outer, Map.of("readonly", "true"))) {
+					for(int j = 0; j < JARS; j++) {
+						try(FastZipFS nested = new FastZipFS(provider, fat.getPath("lib/" + j + ".jar"), Map.of("readonly", "true"))) {
+							if(!(nested.shared.buffer instanceof BigByteBuffer.Joined)) {
+								throw new IllegalStateException("nested jar was copied");
+							}
+							if(j == JARS - 1 && !Arrays.equals(Files.readAllBytes(nested.getPath("data/" + (ENTRIES - 1) + ".bin")), expected)) {
+								throw new IllegalStateException("contents differ");
+							}
+						}
+					}
+				}
+				long nestedTime = System.nanoTime() - start;
+				System.out.printf("%d nested jars: jdk %dms, windowed %dms%n", JARS, jdkTime / 1_000_000, nestedTime / 1_000_000);
+			}
+		} finally {
+			Files.deleteIfExists(outer);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Opens an archive stored inside another archive, through the jdk's zip filesystem, so it can't be memory mapped
+ */
+public class PagedOpenBenchmark {
+	static final int ENTRIES = 5000, ENTRY_SIZE = 16384;
+	
+	public static void main(String[] args) throws IOException {
+		Path inner = Files.createTempFile("inner", ".zip"), outer = Files.createTempFile("outer", ".zip");
+		try {
+			Random random = new Random(11);
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(inner))) {
+				out.putNextEntry(new ZipEntry("data/"));
+				for(int i = 0; i < ENTRIES; i++) {
+					byte[] data = new byte[ENTRY_SIZE];
+					random.nextBytes(data);
+					out.putNextEntry(new ZipEntry("data/" + i + ".bin"));
+					out.write(data);
+				}
+			}
+			byte[] innerBytes = Files.readAllBytes(inner);
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(outer))) {
+				ZipEntry entry = new ZipEntry("inner.zip");
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(innerBytes.length);
+				CRC32 crc = new CRC32();
+				crc.update(innerBytes);
+				entry.setCrc(crc.getValue());
+				out.putNextEntry(entry);
+				out.write(innerBytes);
+			}
+			
+			byte[] expected;
+			try(FileSystem check = FileSystems.newFileSystem(inner)) {
+				expected = Files.readAllBytes(check.getPath("data/" + (ENTRIES - 1) + ".bin"));
+			}
+			try(FileSystem jdk = FileSystems.newFileSystem(outer)) {
+				Path nested = jdk.getPath("inner.zip");
+				for(int i = 0; i < 5; i++) { // first 4 are warmup
+					long start = System.nanoTime();
+					SharedArchive.read(new BigByteBuffer(nested));
+					long whole = System.nanoTime() - start;
+					
+					start = System.nanoTime();
+					long read;
+					try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), nested, Map.of("readonly", "true"))) {
+						read = ((PagedBigByteBuffer) fs.shared.buffer).bytesRead;
+						if(fs.paths.size() != ENTRIES + 2) {
+							throw new IllegalStateException(fs.paths.size() + " entries");
+						}
+						if(!Arrays.equals(Files.readAllBytes(fs.getPath("data/" + (ENTRIES - 1) + ".bin")), expected)) {
+							throw new IllegalStateException("contents differ");
+						}
+					}
+					long paged = System.nanoTime() - start;
+					System.out.printf("%d KiB archive: read whole %dms, paged %dms reading %d KiB%n", innerBytes.length >> 10, whole / 1_000_000,
+							paged / 1_000_000, read >> 10);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(inner);
+			Files.deleteIfExists(outer);
+		}
+	}
+}
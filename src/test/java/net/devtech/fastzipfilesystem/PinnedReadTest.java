@@ -0,0 +1,179 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Opens streams and channels on a filesystem that unmaps released versions, flushes it underneath them, and checks they still read the
+ * version they were opened on, then does the same with a bulk read that flushes halfway through, with readers opening and closing entries while
+ * another thread keeps flushing, and with an archive nested in one that's flushed. Reading an unmapped version crashes the jvm rather than
+ * failing a check.
+ */
+public class PinnedReadTest {
+	static final int ENTRIES = 200, READERS = 4;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(39).entries(ENTRIES).deflated(.5).sizes(ArchiveGenerator.Sizes.exponential(65536));
+		Path zip = generator.generate(Files.createTempFile("pinned", ".zip"));
+		try {
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of("unmapOnClose", "true"))) {
+				List<InputStream> streams = new ArrayList<>();
+				List<SeekableByteChannel> channels = new ArrayList<>();
+				List<FileChannel> fileChannels = new ArrayList<>();
+				List<AsynchronousFileChannel> asyncChannels = new ArrayList<>();
+				for(int i = 0; i < ENTRIES; i++) {
+					Path path = fs.getPath(generator.name(i));
+					InputStream stream = Files.newInputStream(path);
+					stream.readNBytes((int) generator.size(i) / 2);
+					streams.add(stream);
+					channels.add(Files.newByteChannel(path));
+					fileChannels.add(FileChannel.open(path));
+					asyncChannels.add(AsynchronousFileChannel.open(path, Set.of(StandardOpenOption.READ), null));
+				}
+				
+				// every entry moves onto the new version, and the one they were opened on is released by the filesystem
+				Files.writeString(fs.getPath(generator.name(0) + ".new"), "new");
+				fs.flush();
+				check(provider.archives.size() == 2, "the readers' version was released " + provider.archives.keySet());
+				
+				for(int i = 0; i < ENTRIES; i++) {
+					byte[] data = generator.data(i);
+					try(InputStream stream = streams.get(i)) {
+						byte[] rest = stream.readAllBytes();
+						check(Arrays.equals(rest, Arrays.copyOfRange(data, data.length / 2, data.length)), "stream " + i);
+					}
+					try(SeekableByteChannel channel = channels.get(i)) {
+						check(Arrays.equals(read(channel, data.length), data), "byte channel " + i);
+					}
+					try(FileChannel channel = fileChannels.get(i)) {
+						check(Arrays.equals(read(channel, data.length), data), "file channel " + i);
+					}
+					try(AsynchronousFileChannel channel = asyncChannels.get(i)) {
+						ByteBuffer buffer = ByteBuffer.allocate(data.length);
+						while(buffer.hasRemaining() && channel.read(buffer, buffer.position()).get() > 0) {
+						}
+						check(Arrays.equals(buffer.array(), data), "asynchronous channel " + i);
+					}
+				}
+				check(provider.archives.size() == 1, "the readers' version wasn't released once they were closed " + provider.archives.keySet());
+				
+				// a bulk read keeps every version it started on until it's done, even when flushed halfway through
+				List<Path> paths = new ArrayList<>();
+				for(int i = 0; i < ENTRIES; i++) {
+					paths.add(fs.getPath(generator.name(i)));
+				}
+				int[] read = {0};
+				fs.readAll(paths, null, (path, contents) -> {
+					if(read[0]++ == ENTRIES / 2) {
+						Files.writeString(fs.getPath(generator.name(0) + ".new"), "bulk");
+						fs.flush();
+						check(provider.archives.size() == 2, "the bulk read's version was released " + provider.archives.keySet());
+					}
+					byte[] data = new byte[contents.remaining()];
+					contents.get(data);
+					check(Arrays.equals(data, generator.data(paths.indexOf(path))), "bulk read " + path);
+				});
+				check(read[0] == ENTRIES, "bulk read " + read[0] + " entries");
+				check(provider.archives.size() == 1, "the bulk read's version wasn't released once it finished " + provider.archives.keySet());
+				
+				// readers racing flushes
+				AtomicBoolean done = new AtomicBoolean();
+				AtomicReference<Throwable> failure = new AtomicReference<>();
+				List<Thread> threads = new ArrayList<>();
+				for(int t = 0; t < READERS; t++) {
+					int seed = t;
+					threads.add(new Thread(() -> {
+						try {
+							for(int i = seed; !done.get(); i = (i + 7) % ENTRIES) {
+								try(InputStream stream = Files.newInputStream(fs.getPath(generator.name(i)))) {
+									check(Arrays.equals(stream.readAllBytes(), generator.data(i)), "racing stream " + i);
+								}
+							}
+						} catch(Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					}));
+				}
+				threads.forEach(Thread::start);
+				for(int flush = 0; flush < 50; flush++) {
+					Files.writeString(fs.getPath(generator.name(0) + ".new"), "new " + flush);
+					fs.flush();
+				}
+				done.set(true);
+				for(Thread thread : threads) {
+					thread.join();
+				}
+				if(failure.get() != null) {
+					throw new IllegalStateException("reader failed", failure.get());
+				}
+				check(provider.archives.size() == 1, "versions weren't released after the readers finished " + provider.archives.keySet());
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+			nested(provider, generator, zip);
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	/**
+	 * Opens an archive stored in another one, which is read straight out of the outer archive, and checks flushing the outer one doesn't release
+	 * the version the nested one is read from until it's closed
+	 */
+	static void nested(FastZipFSProvider provider, ArchiveGenerator generator, Path inner) throws Exception {
+		Path outer = Files.createTempFile("outer", ".jar");
+		try {
+			byte[] innerBytes = Files.readAllBytes(inner);
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(outer))) {
+				ZipEntry entry = new ZipEntry("inner.jar");
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(innerBytes.length);
+				CRC32 crc = new CRC32();
+				crc.update(innerBytes);
+				entry.setCrc(crc.getValue());
+				out.putNextEntry(entry);
+				out.write(innerBytes);
+			}
+			try(FastZipFS fs = new FastZipFS(provider, outer, Map.of("unmapOnClose", "true"))) {
+				try(FastZipFS nested = new FastZipFS(provider, fs.getPath("inner.jar"), Map.of("readonly", "true"))) {
+					check(nested.shared.buffer instanceof BigByteBuffer.Joined, "nested archive was copied");
+					Files.writeString(fs.getPath("other.txt"), "other");
+					fs.flush();
+					check(provider.archives.size() == 2, "the nested archive's version of the outer one was released " + provider.archives.keySet());
+					for(int i = 0; i < ENTRIES; i++) {
+						check(Arrays.equals(Files.readAllBytes(nested.getPath(generator.name(i))), generator.data(i)), "nested entry " + i);
+					}
+				}
+				check(provider.archives.size() == 1, "the outer archive wasn't released once the nested one was closed " + provider.archives.keySet());
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(outer);
+		}
+	}
+	
+	static byte[] read(SeekableByteChannel channel, int size) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		while(buffer.hasRemaining() && channel.read(buffer) > 0) {
+		}
+		return buffer.array();
+	}
+}
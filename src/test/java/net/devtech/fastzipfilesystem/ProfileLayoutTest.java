@@ -0,0 +1,129 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads a "startup" set of entries scattered through a generated archive with access recorded, and checks that the saved profile, once loaded
+ * and flushed with, and the repack api, lay those entries out first and in the order they were read, without changing any entry
+ */
+public class ProfileLayoutTest {
+	static final int ENTRIES = 3000, STARTUP = 150;
+	
+	public static void main(String[] args) throws Exception {
+		ArchiveGenerator generator = new ArchiveGenerator().seed(45).entries(ENTRIES).sizes(ArchiveGenerator.Sizes.exponential(8192));
+		Path zip = generator.generate(Files.createTempFile("profile", ".zip"));
+		Path profile = Files.createTempFile("profile", ".txt");
+		Files.delete(profile);
+		try {
+			List<String> startup = startup(generator, 1);
+			System.out.printf("startup entries span %d KiB before%n", span(zip, startup) / 1024);
+			
+			Map<String, ?> recording = Map.of("recordAccess", "true", "accessProfile", profile.toString());
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, recording)) {
+				for(String name : startup) {
+					Files.readAllBytes(fs.getPath(name));
+				}
+				Files.readAllBytes(fs.getPath(startup.get(0)));
+				check(fs.accessProfile().count(FastZipFS.Snapshot.entryName(startup.get(0))) == 2, "access count");
+			}
+			List<String> lines = Files.readAllLines(profile);
+			check(lines.size() == STARTUP + 1 && lines.get(1).equals("2\t" + startup.get(0)), "saved profile " + lines.subList(0, 3));
+			
+			// a flush with a loaded profile
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("accessProfile", profile.toString()))) {
+				Files.writeString(fs.getPath(generator.name(ENTRIES - 1)), "changed");
+			}
+			checkLayout(zip, startup);
+			verify(zip, generator, ENTRIES - 1);
+			System.out.printf("startup entries span %d KiB after flush%n", span(zip, startup) / 1024);
+			
+			// repacking with what was just recorded
+			List<String> next = startup(generator, 2);
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("recordAccess", "true"))) {
+				for(String name : next) {
+					try(InputStream in = Files.newInputStream(fs.getPath(name))) {
+						in.readNBytes(16);
+					}
+				}
+				fs.repack(fs.accessProfile());
+			}
+			checkLayout(zip, next);
+			verify(zip, generator, ENTRIES - 1);
+			System.out.printf("startup entries span %d KiB after repack%n", span(zip, next) / 1024);
+		} finally {
+			Files.deleteIfExists(zip);
+			Files.deleteIfExists(profile);
+		}
+	}
+	
+	static List<String> startup(ArchiveGenerator generator, int seed) {
+		Random random = new Random(seed);
+		Set<String> names = new LinkedHashSet<>();
+		while(names.size() < STARTUP) {
+			names.add(generator.name(random.nextInt(ENTRIES - 1)));
+		}
+		return new ArrayList<>(names);
+	}
+	
+	/**
+	 * @return the local header offset of every entry, in the order they are in the archive
+	 */
+	static Map<String, Long> offsets(Path zip) throws IOException {
+		SharedArchive archive = SharedArchive.open(null, zip);
+		try {
+			Map<String, Long> offsets = new LinkedHashMap<>();
+			for(FastZipEntry entry : archive.entries) {
+				offsets.put(FastZipUtil.toStr(entry.name), entry.contents.compressedOffset);
+			}
+			return offsets;
+		} finally {
+			archive.close();
+		}
+	}
+	
+	static long span(Path zip, List<String> names) throws IOException {
+		Map<String, Long> offsets = offsets(zip);
+		long[] sorted = names.stream().mapToLong(offsets::get).sorted().toArray();
+		return sorted[sorted.length - 1] - sorted[0];
+	}
+	
+	static void checkLayout(Path zip, List<String> startup) throws IOException {
+		Map<String, Long> offsets = offsets(zip);
+		long last = -1;
+		for(String name : startup) {
+			long offset = offsets.get(name);
+			check(offset > last, name + " isn't after the entry read before it");
+			last = offset;
+		}
+		for(Map.Entry<String, Long> entry : offsets.entrySet()) {
+			if(!startup.contains(entry.getKey())) {
+				check(entry.getValue() > last, entry.getKey() + " is before the startup entries");
+			}
+		}
+	}
+	
+	static void verify(Path zip, ArchiveGenerator generator, int changed) throws IOException {
+		try(ZipFile file = new ZipFile(zip.toFile())) {
+			for(int i = 0; i < ENTRIES; i++) {
+				ZipEntry entry = file.getEntry(generator.name(i));
+				byte[] expected = i == changed ? "changed".getBytes() : generator.data(i);
+				check(entry != null && Arrays.equals(file.getInputStream(entry).readAllBytes(), expected), generator.name(i) + " changed");
+			}
+		}
+	}
+}
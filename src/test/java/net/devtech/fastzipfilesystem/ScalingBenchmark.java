@@ -0,0 +1,92 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures open, lookup and flush costs on generated archives ten times larger each step, printed as csv so they can be plotted, and fails if
+ * any of them grows superlinearly. Pass the largest entry count to try as the first argument, up to millions.
+ */
+public class ScalingBenchmark {
+	static final int LOOKUPS = 100_000;
+	/**
+	 * how much more a step ten times larger may cost, linear growth is 10x, lookups should stay flat
+	 */
+	static final double MAX_GROWTH = 25, MAX_LOOKUP_GROWTH = 4;
+	/**
+	 * steps faster than this are too noisy to compare
+	 */
+	static final double MIN_MS = 5;
+	
+	record Step(int entries, long bytes, double openMs, double lookupNs, double flushMs) {}
+	
+	public static void main(String[] args) throws IOException {
+		int max = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		List<Step> steps = new ArrayList<>();
+		System.out.println("entries,bytes,open ms,lookup ns,flush ms");
+		for(int entries = 1000; entries <= max; entries *= 10) {
+			ArchiveGenerator generator = new ArchiveGenerator().seed(entries)
+			                                                   .entries(entries)
+			                                                   .directories(3, 10)
+			                                                   .deflated(.8)
+			                                                   .sizes(ArchiveGenerator.Sizes.exponential(256));
+			Path path = generator.generate(Files.createTempFile("scaling", ".zip"));
+			try {
+				Step step = measure(generator, path);
+				steps.add(step);
+				System.out.printf("%d,%d,%.2f,%.1f,%.2f%n", step.entries, step.bytes, step.openMs, step.lookupNs, step.flushMs);
+			} finally {
+				Files.deleteIfExists(path);
+			}
+		}
+		
+		List<String> regressions = new ArrayList<>();
+		for(int i = 1; i < steps.size(); i++) {
+			Step last = steps.get(i - 1), step = steps.get(i);
+			check(regressions, "open", step, last.openMs, step.openMs, MAX_GROWTH);
+			check(regressions, "flush", step, last.flushMs, step.flushMs, MAX_GROWTH);
+			check(regressions, "lookup", step, last.lookupNs, step.lookupNs, MAX_LOOKUP_GROWTH);
+		}
+		if(!regressions.isEmpty()) {
+			throw new IllegalStateException("superlinear scaling: " + regressions);
+		}
+	}
+	
+	static void check(List<String> regressions, String what, Step step, double last, double current, double max) {
+		if(what.equals("lookup") ? current > 100 && current > last * max : last > MIN_MS && current > last * max) {
+			regressions.add(String.format("%s grew %.1fx to %d entries", what, current / last, step.entries));
+		}
+	}
+	
+	static Step measure(ArchiveGenerator generator, Path path) throws IOException {
+		double open = Double.MAX_VALUE, lookup = Double.MAX_VALUE;
+		String[] names = new String[Math.min(generator.entries, 4096)];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = generator.name((int) ((i * 0x9E3779B1L) % generator.entries));
+		}
+		for(int run = 0; run < 3; run++) {
+			long start = System.nanoTime();
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), path, Map.of("readonly", "true"))) {
+				open = Math.min(open, (System.nanoTime() - start) / 1e6);
+				start = System.nanoTime();
+				for(int i = 0; i < LOOKUPS; i++) {
+					if(!Files.exists(fs.getPath(names[i % names.length]))) {
+						throw new IllegalStateException(names[i % names.length] + " is missing");
+					}
+				}
+				lookup = Math.min(lookup, (double) (System.nanoTime() - start) / LOOKUPS);
+			}
+		}
+		
+		long start = System.nanoTime();
+		try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), path, Map.of())) {
+			Files.writeString(fs.getPath(generator.name(0)), "updated");
+		}
+		double flush = (System.nanoTime() - start) / 1e6;
+		return new Step(generator.entries, Files.size(path), open, lookup, flush);
+	}
+}
@@ -0,0 +1,79 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Opens filesystems on the same archive, and checks they share one mapping and the contents of its entries but not the entries themselves, that
+ * the archive is only released once the last of them closes, that it's only unmapped if all of them asked for it, and that a flushed or
+ * rewritten archive is mapped again rather than shared with the filesystems still reading the old one
+ */
+public class SharedArchiveTest {
+	static final int ENTRIES = 100;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(34).entries(ENTRIES).deflated(.5);
+		Path zip = generator.generate(Files.createTempFile("shared", ".zip"));
+		try {
+			SharedArchive archive;
+			try(FastZipFS first = new FastZipFS(provider, zip, Map.of("unmapOnClose", "true"))) {
+				archive = first.shared;
+				try(FastZipFS second = new FastZipFS(provider, zip, Map.of("readonly", "true", "unmapOnClose", "true"))) {
+					check(second.shared == archive, "the second filesystem mapped the archive again");
+					check(provider.archives.size() == 1, "archive was acquired twice " + provider.archives.keySet());
+					check(archive.references.get() == 2, "archive has " + archive.references.get() + " references");
+					check(archive.unmap, "archive won't be unmapped though both filesystems asked for it");
+					for(int i = 0; i < ENTRIES; i++) {
+						FastZipEntry a = ((FastZipPath) first.getPath(generator.name(i))).getEntry(false);
+						FastZipEntry b = ((FastZipPath) second.getPath(generator.name(i))).getEntry(false);
+						check(a != b && a.contents == b.contents, generator.name(i) + " isn't a copy sharing its contents");
+						check(Arrays.equals(Files.readAllBytes(second.getPath(generator.name(i))), generator.data(i)), "shared " + generator.name(i));
+					}
+					
+					// writes stay in the filesystem they were made in
+					Files.write(first.getPath(generator.name(0)), new byte[] {1, 2, 3});
+					check(Arrays.equals(Files.readAllBytes(second.getPath(generator.name(0))), generator.data(0)), "a write was shared");
+					
+					// a third filesystem that wants it left mapped keeps it mapped for all of them
+					try(FastZipFS third = new FastZipFS(provider, zip, Map.of("readonly", "true"))) {
+						check(third.shared == archive && archive.references.get() == 3, "the third filesystem didn't share the archive");
+					}
+					check(!archive.unmap, "archive will be unmapped though a filesystem didn't ask for it");
+					check(archive.references.get() == 2, "closing the third filesystem left " + archive.references.get() + " references");
+					
+					// flushing maps the new version, while the other filesystem keeps reading the old one
+					first.flush();
+					check(first.shared != archive, "the flushed version wasn't mapped again");
+					check(provider.archives.size() == 2, "the old version was released while it's still read " + provider.archives.keySet());
+					check(archive.references.get() == 1, "the old version has " + archive.references.get() + " references after the flush");
+					check(Arrays.equals(Files.readAllBytes(first.getPath(generator.name(0))), new byte[] {1, 2, 3}), "flushed write");
+					for(int i = 0; i < ENTRIES; i++) {
+						check(Arrays.equals(Files.readAllBytes(second.getPath(generator.name(i))), generator.data(i)), "old version " + generator.name(i));
+					}
+				}
+				check(archive.references.get() == 0 && !archive.channel.isOpen(), "the old version wasn't closed once nothing read it");
+				check(provider.archives.size() == 1, "the old version wasn't released " + provider.archives.keySet());
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+			
+			// an archive rewritten in place is a new version, even if it's the same file
+			try(FastZipFS before = new FastZipFS(provider, zip, Map.of("readonly", "true"))) {
+				Files.setLastModifiedTime(zip, FileTime.fromMillis(Files.getLastModifiedTime(zip).toMillis() + 1000));
+				try(FastZipFS after = new FastZipFS(provider, zip, Map.of("readonly", "true"))) {
+					check(before.shared != after.shared, "a rewritten archive was shared with the old version");
+					check(provider.archives.size() == 2, "rewritten archive " + provider.archives.keySet());
+				}
+				check(provider.archives.size() == 1, "the rewritten version wasn't released " + provider.archives.keySet());
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package net.devtech.fastzipfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class SmallWriteBenchmark {
+	static final int WRITES = 1_000_000, OLD_WRITES = 20_000;
+	
+	public static void main(String[] args) throws IOException {
+		byte[] write = "0123456789abcdef".getBytes();
+		for(int i = 0; i < 5; i++) { // first 4 are warmup
+			long start = System.nanoTime();
+			BigByteBuffer old = new BigByteBuffer();
+			for(int j = 0; j < OLD_WRITES; j++) {
+				old.append(ByteBuffer.wrap(write), old.size);
+			}
+			long oldTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			BigByteBuffer rope = new GrowableBigByteBuffer();
+			for(int j = 0; j < WRITES; j++) {
+				rope.append(ByteBuffer.wrap(write), rope.size);
+			}
+			long ropeTime = System.nanoTime() - start;
+			
+			System.out.printf("copying growth: %d writes %dms (%dns per write), rope: %d writes %dms (%dns per write)%n", OLD_WRITES,
+					oldTime / 1_000_000, oldTime / OLD_WRITES, WRITES, ropeTime / 1_000_000, ropeTime / WRITES);
+		}
+		
+		Path zip = Files.createTempFile("small", ".zip");
+		try {
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+				out.putNextEntry(new ZipEntry("logs/"));
+			}
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of())) {
+				Path path = fs.getPath("logs/log.txt");
+				long start = System.nanoTime();
+				try(SeekableByteChannel channel = Files.newByteChannel(path, Set.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE))) {
+					for(int j = 0; j < WRITES; j++) {
+						channel.write(ByteBuffer.wrap(write));
+					}
+				}
+				System.out.printf("%d channel writes and compression: %dms%n", WRITES, (System.nanoTime() - start) / 1_000_000);
+				byte[] expected = new byte[WRITES * write.length];
+				for(int j = 0; j < WRITES; j++) {
+					System.arraycopy(write, 0, expected, j * write.length, write.length);
+				}
+				if(!Arrays.equals(Files.readAllBytes(path), expected)) {
+					throw new IllegalStateException("contents differ");
+				}
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package net.devtech.fastzipfilesystem;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Flushes a pair of entries that are always written together, while other threads read them from snapshots, which must always see them equal,
+ * and from the filesystem itself, which must never fail mid flush
+ */
+public class SnapshotStressTest {
+	static final int FLUSHES = 300, READERS = 4;
+	
+	public static void main(String[] args) throws Exception {
+		Path zip = Files.createTempFile("snapshot", ".zip");
+		try {
+			try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+				out.putNextEntry(new ZipEntry("data/"));
+			}
+			FastZipFSProvider provider = new FastZipFSProvider();
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of())) {
+				Path a = fs.getPath("data/a.txt"), b = fs.getPath("data/b.txt");
+				Files.writeString(a, "0");
+				Files.writeString(b, "0");
+				fs.flush();
+				
+				AtomicBoolean done = new AtomicBoolean();
+				AtomicReference<Throwable> failure = new AtomicReference<>();
+				AtomicLong snapshots = new AtomicLong(), reads = new AtomicLong();
+				List<Thread> threads = new ArrayList<>();
+				for(int i = 0; i < READERS; i++) {
+					boolean live = i % 2 == 0;
+					threads.add(new Thread(() -> {
+						try {
+							long last = 0;
+							while(!done.get()) {
+								if(live) {
+									Long.parseLong(Files.readString(a));
+									reads.incrementAndGet();
+									continue;
+								}
+								try(FastZipFS.Snapshot snapshot = fs.snapshot()) {
+									String first = new String(snapshot.readAllBytes("data/a.txt"), StandardCharsets.UTF_8);
+									String second = new String(snapshot.readAllBytes("/data/b.txt"), StandardCharsets.UTF_8);
+									long version = Long.parseLong(first);
+									if(!first.equals(second) || version < last) {
+										throw new IllegalStateException("torn snapshot " + first + " " + second + " after " + last);
+									}
+									last = version;
+									snapshots.incrementAndGet();
+								}
+							}
+						} catch(Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+					}));
+				}
+				threads.forEach(Thread::start);
+				
+				long start = System.nanoTime();
+				for(int i = 1; i <= FLUSHES && failure.get() == null; i++) {
+					Files.writeString(a, Integer.toString(i));
+					Files.writeString(b, Integer.toString(i));
+					fs.flush();
+				}
+				long time = System.nanoTime() - start;
+				done.set(true);
+				for(Thread thread : threads) {
+					thread.join();
+				}
+				if(failure.get() != null) {
+					throw new IllegalStateException(failure.get());
+				}
+				if(provider.archives.size() != 1) {
+					throw new IllegalStateException(provider.archives.size() + " versions are still mapped");
+				}
+				System.out.printf("%d flushes in %dms, %d consistent snapshots and %d live reads meanwhile%n", FLUSHES, time / 1_000_000,
+						snapshots.get(), reads.get());
+			}
+			if(!provider.archives.isEmpty()) {
+				throw new IllegalStateException("the last version wasn't released");
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Reads, writes and flushes a generated archive with stats on, checks the counters and the MBean agree with what was done, and compares lookup
+ * times with stats off
+ */
+public class StatsTest {
+	static final int LOOKUPS = 1_000_000;
+	
+	public static void main(String[] args) throws Exception {
+		ArchiveGenerator generator = new ArchiveGenerator().seed(43).entries(2000).sizes(ArchiveGenerator.Sizes.exponential(4096));
+		Path zip = generator.generate(Files.createTempFile("stats", ".zip"));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name;
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("jmx", "true"))) {
+				for(int i = 0; i < 100; i++) {
+					Files.readAllBytes(fs.getPath(generator.name(i)));
+				}
+				Files.exists(fs.getPath("missing.txt"));
+				Files.writeString(fs.getPath(generator.name(0)), "x".repeat(10_000));
+				
+				FastZipStats.Sample sample = fs.stats();
+				check(sample.entries() > generator.entries, "entries " + sample.entries());
+				check(sample.lookups() >= 101 && sample.hits() >= 100 && sample.hits() < sample.lookups(), "lookups " + sample);
+				check(sample.inflatedBytes() > 0 && sample.inflateNanos() > 0, "inflated " + sample);
+				check(sample.mappedBytes() == Files.size(zip), "mapped " + sample.mappedBytes());
+				check(sample.pendingBytes() == 10_000, "pending " + sample.pendingBytes());
+				check(sample.deflatedBytes() == 10_000, "deflated " + sample.deflatedBytes());
+				
+				Set<ObjectName> names = server.queryNames(new ObjectName(FastZipStats.DOMAIN + ":type=FileSystem,*"), null);
+				check(names.size() == 1, "registered " + names);
+				name = names.iterator().next();
+				check(server.isRegistered(new ObjectName(FastZipStats.DOMAIN, "type", "Provider")), "provider not registered");
+				
+				fs.flush();
+				check((long) server.getAttribute(name, "Flushes") == 1, "flushes");
+				check((long) server.getAttribute(name, "FlushedBytes") == Files.size(zip), "flushed bytes");
+				check((long) server.getAttribute(name, "PendingBytes") == 0, "pending after flush");
+				System.out.println(fs.stats());
+			}
+			check(!server.isRegistered(name), "still registered after close");
+			
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("metrics", "false"))) {
+				check(fs.stats() == null, "stats collected with metrics off");
+			}
+			
+			// lookups are the hottest thing counted
+			for(int run = 0; run < 3; run++) {
+				long off = lookups(generator, zip, "false"), on = lookups(generator, zip, "true");
+				System.out.printf("lookup with stats %.1fns, without %.1fns%n", on / (double) LOOKUPS, off / (double) LOOKUPS);
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+	
+	static long lookups(ArchiveGenerator generator, Path zip, String metrics) throws Exception {
+		try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("metrics", metrics, "readonly", "true"))) {
+			long start = System.nanoTime();
+			for(int i = 0; i < LOOKUPS; i++) {
+				// a new path each time, so the lookup isn't cached in the path
+				check(Files.exists(fs.getPath(generator.name(i % generator.entries))), "missing");
+			}
+			return System.nanoTime() - start;
+		}
+	}
+}
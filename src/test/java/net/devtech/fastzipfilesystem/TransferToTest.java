@@ -0,0 +1,122 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+/**
+ * Transfers stored and deflated entries to a file and to a stream, and checks raw transfers write the stored data or the deflate stream as it
+ * is in the archive, and that inflating transfers write the uncompressed data whether the entry is streamed through the inflater or was already
+ * decompressed, for entries in the archive and written ones
+ */
+public class TransferToTest {
+	static final int ENTRIES = 100;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		ArchiveGenerator generator = new ArchiveGenerator().seed(30).entries(ENTRIES).deflated(.5).sizes(ArchiveGenerator.Sizes.exponential(200000));
+		Path zip = generator.generate(Files.createTempFile("transfer", ".zip"));
+		Path target = Files.createTempFile("transfer", ".bin");
+		try {
+			try(FastZipFS fs = new FastZipFS(provider, zip, Map.of())) {
+				int inflated = 0;
+				for(int i = 0; i < ENTRIES; i++) {
+					Path path = fs.getPath(generator.name(i));
+					byte[] data = generator.data(i);
+					FastZipEntry.ZipContents contents = ((FastZipPath) path).getEntry(false).contents;
+					
+					// raw, stored entries are their data and deflated ones their deflate stream
+					byte[] raw = toStream(fs, path, true);
+					if(generator.isDeflated(i)) {
+						check(Arrays.equals(raw, compressed(contents)), path + " wasn't transferred as its deflate stream");
+						check(Arrays.equals(inflate(raw), data), path + "'s deflate stream doesn't inflate to its data");
+					} else {
+						check(Arrays.equals(raw, data), "transferred raw " + path);
+					}
+					check(Arrays.equals(toFile(fs, path, target, true), raw), "transferred raw " + path + " to a file");
+					
+					// inflating, deflated entries that weren't decompressed are streamed through the inflater and aren't cached by it
+					boolean streamed = generator.isDeflated(i) && contents.cached() == null;
+					check(Arrays.equals(toFile(fs, path, target, false), data), "transferred " + path + " to a file");
+					check(Arrays.equals(toStream(fs, path, false), data), "transferred " + path + " to a stream");
+					if(streamed) {
+						check(contents.cached() == null, path + " was cached by the transfer");
+						inflated++;
+					}
+					// and already decompressed ones are written from the cache
+					contents.decompress();
+					check(Arrays.equals(toFile(fs, path, target, false), data), "transferred decompressed " + path + " to a file");
+					check(Arrays.equals(toStream(fs, path, false), data), "transferred decompressed " + path + " to a stream");
+				}
+				check(inflated > 0, "no deflated entries were streamed through the inflater");
+				
+				// written entries are compressed for a raw transfer, so they inflate to what was written either way
+				Path written = fs.getPath(generator.name(0) + ".new");
+				byte[] data = generator.data(0);
+				Files.write(written, data);
+				byte[] raw = toStream(fs, written, true);
+				FastZipEntry.ZipContents contents = ((FastZipPath) written).getEntry(false).contents;
+				boolean deflated = contents.compressionMethod == FastZipEntry.METHOD_DEFLATED;
+				check(Arrays.equals(deflated ? inflate(raw) : raw, data), "transferred raw written entry");
+				check(Arrays.equals(toFile(fs, written, target, false), data), "transferred written entry to a file");
+				check(Arrays.equals(toStream(fs, written, false), data), "transferred written entry to a stream");
+				
+				try {
+					fs.transferTo(fs.getPath(generator.name(0) + ".missing"), Channels.newChannel(new ByteArrayOutputStream()), false);
+					throw new IllegalStateException("transferred a missing entry");
+				} catch(FileNotFoundException expected) {
+				}
+			}
+			check(provider.archives.isEmpty(), "archives weren't released " + provider.archives.keySet());
+		} finally {
+			Files.deleteIfExists(zip);
+			Files.deleteIfExists(target);
+		}
+	}
+	
+	static byte[] toStream(FastZipFS fs, Path path, boolean raw) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = fs.transferTo(path, Channels.newChannel(out), raw);
+		check(written == out.size(), path + " wrote " + out.size() + " bytes, but returned " + written);
+		return out.toByteArray();
+	}
+	
+	static byte[] toFile(FastZipFS fs, Path path, Path target, boolean raw) throws Exception {
+		long written;
+		try(FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			written = fs.transferTo(path, file, raw);
+		}
+		byte[] bytes = Files.readAllBytes(target);
+		check(written == bytes.length, path + " wrote " + bytes.length + " bytes, but returned " + written);
+		return bytes;
+	}
+	
+	static byte[] compressed(FastZipEntry.ZipContents contents) {
+		byte[] compressed = new byte[(int) contents.compressedSize];
+		contents.compressedData.slice(contents.compressedOffset, compressed.length).get(compressed);
+		return compressed;
+	}
+	
+	static byte[] inflate(byte[] compressed) throws Exception {
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(compressed);
+		ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		while(!inflater.finished()) {
+			int length = inflater.inflate(buffer);
+			check(length > 0 || !inflater.needsInput(), "deflate stream ended early");
+			inflated.write(buffer, 0, length);
+		}
+		inflater.end();
+		return inflated.toByteArray();
+	}
+}
@@ -0,0 +1,158 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Opens unions of generated archives that share some of their entries, and checks each shadowing rule picks the right member's entry, that
+ * directories list every member's entries, that uris and class loader resources point into the member an entry was read from, and that the
+ * union can't be written to
+ */
+public class UnionTest {
+	static final int MEMBERS = 3;
+	
+	public static void main(String[] args) throws Exception {
+		FastZipFSProvider provider = new FastZipFSProvider();
+		List<ArchiveGenerator> generators = new ArrayList<>();
+		List<Path> archives = new ArrayList<>();
+		try {
+			for(int i = 0; i < MEMBERS; i++) {
+				// member i has entries 0 to 100 * (i + 1), so the first 100 are in every member
+				ArchiveGenerator generator = new ArchiveGenerator().seed(47 + i).entries(100 * (i + 1)).directoryEntries(i != 1);
+				generators.add(generator);
+				archives.add(generator.generate(Files.createTempFile("union" + i, ".zip")));
+			}
+			
+			try(FastZipFS union = (FastZipFS) provider.newUnionFileSystem(archives, Map.of())) {
+				check(union.isReadOnly(), "union is writable");
+				for(int i = 0; i < 100 * MEMBERS; i++) {
+					int member = i / 100; // the first member with the entry
+					Path path = union.getPath(generators.get(member).name(i));
+					check(Arrays.equals(Files.readAllBytes(path), generators.get(member).data(i)), path + " wasn't read from member " + member);
+					check(path.toUri().toString().contains(archives.get(member).getFileName().toString()), path.toUri() + " isn't in member " + member);
+				}
+				
+				Set<String> expected = new HashSet<>(), listed = new HashSet<>();
+				String directory = generators.get(0).name(0).substring(0, generators.get(0).name(0).lastIndexOf('/'));
+				for(int i = 0; i < 100 * MEMBERS; i++) {
+					String name = generators.get(MEMBERS - 1).name(i);
+					if(name.startsWith(directory + "/")) {
+						expected.add(name.substring(name.lastIndexOf('/') + 1));
+					}
+				}
+				try(DirectoryStream<Path> stream = Files.newDirectoryStream(union.getPath(directory))) {
+					for(Path path : stream) {
+						listed.add(path.getFileName().toString());
+					}
+				}
+				check(listed.equals(expected), directory + " listed " + listed + " expected " + expected);
+				
+				// every member's entry is a resource, in the union's order, and each url reads its own member's
+				FastZipClassLoader loader = new FastZipClassLoader(union, null);
+				List<URL> urls = Collections.list(loader.getResources(generators.get(0).name(0)));
+				check(urls.size() == MEMBERS, "found " + urls.size() + " resources");
+				for(int member = 0; member < MEMBERS; member++) {
+					URL url = urls.get(member);
+					check(url.toString().contains(archives.get(member).getFileName().toString()), url + " isn't in member " + member);
+					try(InputStream stream = url.openStream()) {
+						check(Arrays.equals(stream.readAllBytes(), generators.get(member).data(0)), url + " wasn't read from member " + member);
+					}
+				}
+				
+				try {
+					Files.write(union.getPath(directory + "/new.bin"), new byte[1]);
+					throw new IllegalStateException("wrote to the union");
+				} catch(ReadOnlyFileSystemException expectedException) {
+				}
+				try {
+					Files.delete(union.getPath(generators.get(0).name(0)));
+					throw new IllegalStateException("deleted from the union");
+				} catch(ReadOnlyFileSystemException expectedException) {
+				}
+			}
+			
+			try(FastZipFS union = (FastZipFS) provider.newUnionFileSystem(archives, Map.of("shadowing", "last"))) {
+				for(int i = 0; i < 100; i++) {
+					check(Arrays.equals(Files.readAllBytes(union.getPath(generators.get(0).name(i))), generators.get(MEMBERS - 1).data(i)), "last");
+				}
+			}
+			
+			try {
+				provider.newUnionFileSystem(archives, Map.of("shadowing", "error")).close();
+				throw new IllegalStateException("duplicates weren't an error");
+			} catch(ZipException expectedException) {
+			}
+			
+			// jars that only share directories aren't duplicates, and their directories aren't shadowed
+			Path firstJar = jar(Files.createTempFile("union", ".jar"), "first"), secondJar = jar(Files.createTempFile("union", ".jar"), "second");
+			archives.add(firstJar);
+			archives.add(secondJar);
+			FastZipUnionFS.Shadowing files = (name, earlier, later) -> {
+				check(!name.endsWith("/"), name + " was shadowed");
+				throw new ZipException("duplicate entry: " + name);
+			};
+			for(Object shadowing : List.of("error", files)) {
+				try(FastZipFS union = (FastZipFS) provider.newUnionFileSystem(List.of(firstJar, secondJar), Map.of("shadowing", shadowing))) {
+					Set<String> listed = new HashSet<>();
+					try(DirectoryStream<Path> stream = Files.newDirectoryStream(union.getPath("META-INF"))) {
+						for(Path path : stream) {
+							listed.add(path.getFileName().toString());
+						}
+					}
+					check(listed.equals(Set.of("first.txt", "second.txt")), "META-INF listed " + listed);
+				}
+			}
+			
+			// a union of open filesystems outlives them
+			List<FastZipFS> members = new ArrayList<>();
+			for(Path archive : archives) {
+				members.add(new FastZipFS(provider, archive, Map.of()));
+			}
+			FastZipUnionFS.Shadowing second = (name, earlier, later) -> later.equals(archives.get(1));
+			try(FastZipFS union = new FastZipUnionFS(members, Map.of("shadowing", second))) {
+				for(FastZipFS member : members) {
+					member.close();
+				}
+				check(Arrays.equals(Files.readAllBytes(union.getPath(generators.get(0).name(0))), generators.get(1).data(0)), "custom shadowing");
+				check(Arrays.equals(Files.readAllBytes(union.getPath(generators.get(2).name(250))), generators.get(2).data(250)), "closed member");
+			}
+			check(provider.archives.isEmpty(), "members weren't released " + provider.archives.keySet());
+		} finally {
+			for(Path archive : archives) {
+				Files.deleteIfExists(archive);
+			}
+		}
+	}
+	
+	/**
+	 * Writes a jar with a META-INF/ directory entry, like most jars have, holding one file
+	 */
+	static Path jar(Path jar, String name) throws IOException {
+		try(ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			out.putNextEntry(new ZipEntry("META-INF/"));
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("META-INF/" + name + ".txt"));
+			out.write(name.getBytes(StandardCharsets.UTF_8));
+			out.closeEntry();
+		}
+		return jar;
+	}
+}
@@ -0,0 +1,80 @@
+package net.devtech.fastzipfilesystem;
+
+import static net.devtech.fastzipfilesystem.Checks.check;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warms up part of a generated archive, by path, from a saved access profile when opening, and while the filesystem is closed, and checks the
+ * warmed entries were inflated into the cache and the rest weren't, and that nothing read afterwards changed
+ */
+public class WarmUpTest {
+	static final int ENTRIES = 2000, HOT = 100;
+	
+	public static void main(String[] args) throws Exception {
+		ArchiveGenerator generator = new ArchiveGenerator().seed(46).entries(ENTRIES).sizes(ArchiveGenerator.Sizes.exponential(8192)).deflated(1);
+		Path zip = generator.generate(Files.createTempFile("warmup", ".zip"));
+		Path profile = Files.createTempFile("warmup", ".txt");
+		try {
+			List<String> hot = new ArrayList<>();
+			for(int i = 0; i < HOT; i++) {
+				hot.add(generator.name((i * 37) % ENTRIES));
+			}
+			
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of())) {
+				check(fs.warmingUp == null, "warmed up without being asked to");
+				fs.loadCentralDirectory();
+				List<Path> paths = new ArrayList<>();
+				for(String name : hot) {
+					paths.add(fs.getPath(name));
+				}
+				paths.add(fs.getPath("missing"));
+				long prefetched = fs.warmUp(paths, true, null).get();
+				System.out.printf("prefetched %d KiB%n", prefetched / 1024);
+				check(prefetched > 0, "nothing prefetched");
+				checkCached(fs, generator, hot);
+				
+				AccessProfile recorded = new AccessProfile();
+				for(String name : hot) {
+					recorded.record(FastZipFS.Snapshot.entryName(name));
+				}
+				recorded.save(profile);
+			}
+			
+			try(FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of("accessProfile", profile.toString(), "warmUp", "inflate"))) {
+				check(fs.warmingUp.get() > 0, "nothing prefetched from the profile");
+				checkCached(fs, generator, hot);
+			}
+			
+			// closing while warming up
+			FastZipFS fs = new FastZipFS(new FastZipFSProvider(), zip, Map.of());
+			List<Path> all = new ArrayList<>();
+			for(int i = 0; i < ENTRIES; i++) {
+				all.add(fs.getPath(generator.name(i)));
+			}
+			var warming = fs.warmUp(all, true, null);
+			fs.close();
+			warming.get();
+		} finally {
+			Files.deleteIfExists(zip);
+			Files.deleteIfExists(profile);
+		}
+	}
+	
+	static void checkCached(FastZipFS fs, ArchiveGenerator generator, List<String> hot) throws Exception {
+		for(int i = 0; i < ENTRIES; i++) {
+			String name = generator.name(i);
+			FastZipEntry.ZipContents contents = ((FastZipPath) fs.getPath(name)).getEntry(false).contents;
+			boolean cached = contents.cached() != null;
+			if(contents.compressionMethod == FastZipEntry.METHOD_DEFLATED) {
+				check(cached == hot.contains(name), name + (cached ? " was" : " wasn't") + " inflated");
+			}
+			check(Arrays.equals(Files.readAllBytes(fs.getPath(name)), generator.data(i)), name + " changed");
+		}
+	}
+}